@@ -0,0 +1,27 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.data;
+
+/**
+ * Types of bin storage available for histograms. 
+ * FLOAT  - 4 bytes per bin (default), unit increments are lost above 2^24.
+ * DOUBLE - 8 bytes per bin, unit increments are exact up to 2^53.
+ * LONG   - 8 bytes per bin, exact counts, weights are rounded.
+ * 
+ * @author gavalian
+ */
+public enum BinStorageType {
+    
+    FLOAT, DOUBLE, LONG;
+    
+    public IBinStorage create(int size){
+        switch(this){
+            case DOUBLE : return new DoubleBinStorage(size);
+            case LONG   : return new LongBinStorage(size);
+            default     : return new FloatBinStorage(size);
+        }
+    }
+}
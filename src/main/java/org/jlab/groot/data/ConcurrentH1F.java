@@ -0,0 +1,208 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.data;
+
+import java.util.concurrent.atomic.LongAdder;
+import org.jlab.groot.math.RandomSampler;
+
+/**
+ * 1D histogram that can be filled from many threads at the same time. 
+ * Bin contents are accumulated in striped storage (see StripedBinStorage)
+ * and summed when they are read, so no fills are lost and filling threads 
+ * do not wait on a lock. The sum of weights squared is kept in striped 
+ * storage as well once the histogram is filled with weights. It is stored
+ * as the difference from the bin content (0 for unit weights), so unit 
+ * fills never touch it; both storages are double precision, so the
+ * difference does not lose precision.
+ * 
+ * Operations other than filling (set, divide, normalize, reset) should be
+ * done when no other thread is filling the histogram.
+ * 
+ * @author gavalian
+ */
+public class ConcurrentH1F extends H1F {
+    
+    private final LongAdder  underflowCounter = new LongAdder();
+    private final LongAdder  overflowCounter  = new LongAdder();
+    
+    public ConcurrentH1F(String name, int bins, double xMin, double xMax){
+        super(name, bins, xMin, xMax);
+        this.initConcurrentStore();
+    }
+    
+    public ConcurrentH1F(String name, String title, int bins, double xMin, double xMax){
+        super(name, title, bins, xMin, xMax);
+        this.initConcurrentStore();
+    }
+    
+    private void initConcurrentStore(){
+        this.histogramData = new StripedBinStorage(this.getAxis().getNBins());
+    }
+    
+    @Override
+    public void incrementBinContent(int bin) {
+        this.incrementBinContent(bin, 1.0);
+    }
+    
+    @Override
+    public void incrementBinContent(int bin, double weight) {
+        if (bin >= 0 && bin < histogramData.getSize()) {
+            histogramData.addValue(bin, weight);
+            this.addBinSumw2(bin, weight, weight*weight);
+            this.invalidateSampler();
+        } else {
+            if(bin<0){
+                this.underflowCounter.increment();
+            } else {
+                this.overflowCounter.increment();
+            }
+        }
+    }
+    
+    @Override
+    void addEntries(int entries, int under, int over){
+        this.invalidateSampler();
+        this.underflowCounter.add(under);
+        this.overflowCounter.add(over);
+    }
+    
+    @Override
+    IBinStorage getSumw2Storage(){
+        IBinStorage sumw2 = histogramSumw2;
+        if(sumw2==null){
+            synchronized(this){
+                this.initSumw2();
+                sumw2 = histogramSumw2;
+            }
+        }
+        return sumw2;
+    }
+    
+    @Override
+    void initSumw2(){
+        if(histogramSumw2!=null) return;
+        IBinStorage sumw2 = createSumw2Storage(histogramData.getSize());
+        for(int loop = 0; loop < sumw2.getSize(); loop++){
+            double content = histogramData.getValue(loop);
+            if(content<0) sumw2.setValue(loop, -2.0*content);
+        }
+        histogramSumw2 = sumw2;
+    }
+    
+    @Override
+    void addBinSumw2(int bin, double sumw, double sumw2){
+        if(sumw2==sumw) return;
+        this.getSumw2Storage().addValue(bin, sumw2 - sumw);
+    }
+    
+    @Override
+    public double getBinSumw2(int bin){
+        double content = histogramData.getValue(bin);
+        if(histogramSumw2==null) return Math.abs(content);
+        return Math.max(0.0, content + histogramSumw2.getValue(bin));
+    }
+    
+    @Override
+    void setBinSumw2(int bin, double sumw2){
+        this.getSumw2Storage().setValue(bin, sumw2 - histogramData.getValue(bin));
+    }
+    
+    /**
+     * sum of weights squared storage has to be filled from many threads too.
+     */
+    @Override
+    IBinStorage createSumw2Storage(int size){
+        return new StripedBinStorage(size);
+    }
+    
+    @Override
+    public int getUnderflow(){
+        return super.getUnderflow() + this.underflowCounter.intValue();
+    }
+    
+    @Override
+    public int getOverflow(){
+        return super.getOverflow() + this.overflowCounter.intValue();
+    }
+    
+    /**
+     * concurrent histogram always keeps striped (double precision) storage.
+     * @param type ignored
+     */
+    @Override
+    public void setStorageType(BinStorageType type){
+        System.out.println("[ConcurrentH1F] warning : ---> storage type can not be changed for "
+                + this.getName());
+    }
+    /**
+     * returns a copy of the histogram as a regular H1F with double storage,
+     * including underflow and overflow counts.
+     * @param name
+     * @return 
+     */
+    @Override
+    public H1F histClone(String name){
+        H1F hclone = new H1F(name, this.histXTitle, this.histYTitle,
+        this.xAxis.getNBins(),this.xAxis.min(),this.xAxis.max());
+        hclone.setStorageType(BinStorageType.DOUBLE);
+        for(int loop = 0; loop < this.xAxis.getNBins(); loop++){
+            hclone.setBinContent(loop, this.getBinContent(loop));
+            if(this.histogramSumw2!=null){
+                hclone.setBinSumw2(loop, this.getBinSumw2(loop));
+            }
+        }
+        hclone.histogramUnderFlow = this.getUnderflow();
+        hclone.histogramOverFlow  = this.getOverflow();
+        return hclone;
+    }
+    
+    /**
+     * Drops the sampler after a fill, the field is only written when 
+     * there is a sampler, so filling threads do not share a written
+     * cache line.
+     */
+    private void invalidateSampler(){
+        if(this.randomSampler!=null) this.randomSampler = null;
+    }
+    
+    /**
+     * Bins are filled concurrently without updating the statistics, 
+     * they are always recalculated from the bin contents. The sampler is
+     * kept until the next fill.
+     */
+    @Override
+    void validateStatistics(){
+        this.statsValid = false;
+        super.validateStatistics();
+    }
+    
+    @Override
+    public synchronized int getEntries(){
+        return super.getEntries();
+    }
+    
+    @Override
+    public synchronized double getMean(){
+        return super.getMean();
+    }
+    
+    @Override
+    public synchronized double getRMS(){
+        return super.getRMS();
+    }
+    
+    @Override
+    public synchronized RandomSampler getSampler(){
+        return super.getSampler();
+    }
+    
+    @Override
+    public void reset(){
+        super.reset();
+        this.underflowCounter.reset();
+        this.overflowCounter.reset();
+    }
+}
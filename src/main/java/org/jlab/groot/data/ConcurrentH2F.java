@@ -0,0 +1,65 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.data;
+
+/**
+ * 2D histogram that can be filled from many threads at the same time.
+ * Bin contents are accumulated in striped storage (see StripedBinStorage)
+ * and summed when they are read. The storage uses 8 bytes per bin for each
+ * stripe, for large histograms the number of stripes can be given in the 
+ * constructor.
+ * 
+ * Operations other than filling (set, divide, reset) should be done
+ * when no other thread is filling the histogram.
+ * 
+ * @author gavalian
+ */
+public class ConcurrentH2F extends H2F {
+    
+    public ConcurrentH2F(String name, int bx, double xmin, double xmax, 
+            int by, double ymin, double ymax) {
+        this(name, bx, xmin, xmax, by, ymin, ymax, StripedBinStorage.getDefaultStripes());
+    }
+    
+    public ConcurrentH2F(String name, String title, int bx, double xmin, double xmax, 
+            int by, double ymin, double ymax) {
+        this(name, bx, xmin, xmax, by, ymin, ymax);
+        this.setTitle(title);
+    }
+    
+    public ConcurrentH2F(String name, int bx, double xmin, double xmax, 
+            int by, double ymin, double ymax, int nstripes) {
+        super(name);
+        this.hBuffer = new StripedBinStorage(1, nstripes);
+        this.set(bx, xmin, xmax, by, ymin, ymax);
+    }
+    /**
+     * concurrent histogram always keeps striped (double precision) storage.
+     * @param type ignored
+     */
+    @Override
+    public void setStorageType(BinStorageType type){
+        System.out.println("[ConcurrentH2F] warning : ---> storage type can not be changed for "
+                + this.getName());
+    }
+    /**
+     * returns a copy of the histogram as a regular H2F with double storage.
+     * @param name
+     * @return 
+     */
+    @Override
+    public H2F histClone(String name){
+        H2F hclone = new H2F(name,
+                this.getXAxis().getNBins(),this.getXAxis().min(),this.getXAxis().max(),
+                this.getYAxis().getNBins(),this.getYAxis().min(),this.getYAxis().max()
+        );
+        hclone.setStorageType(BinStorageType.DOUBLE);
+        for(int loop = 0; loop < this.hBuffer.getSize(); loop++){
+            hclone.hBuffer.setValue(loop, this.hBuffer.getValue(loop));
+        }
+        return hclone;
+    }
+}
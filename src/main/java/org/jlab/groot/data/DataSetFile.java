@@ -0,0 +1,459 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jlab.groot.base.DatasetAttributes;
+import org.jlab.groot.group.DataGroup;
+import org.jlab.groot.math.Axis;
+import org.jlab.groot.math.F1D;
+import org.jlab.groot.math.UserParameter;
+
+/**
+ * Reads binary files with histograms, graphs, functions and data groups
+ * written by DataSetFileWriter. Only the directory of records is read when
+ * the file is opened, objects are read one record at a time when they are
+ * requested by key, so a single histogram can be loaded from a large file
+ * without reading the rest of it.
+ *
+ * File layout (little endian, arrays are aligned to 8 bytes):
+ * <pre>
+ * header    : int magic, int version
+ * record    : int type, object name (string), title, x title, y title (strings),
+ *             10 ints of attributes, followed by the object:
+ *   H1F     : axis, int underflow, int overflow, int entries, bins,
+ *             int has sumw2, [nbins doubles of sumw2]
+ *   H2F     : x axis, y axis, bins
+ *   graph   : int npoints, x, y, ex and ey arrays of npoints doubles
+ *   F1D     : expression (string), double min, max, chi2, int ndf, int npars,
+ *             for each parameter: int limited, double value, error, step, min, max
+ *   group   : int type, name, int columns, int rows, int ndatasets,
+ *             for each data set: int order, data set record
+ *   axis    : int nbins, int uniform, double min, max (uniform) or nbins+1 limits
+ *   bins    : int storage type (BinStorageType), int size, array of values
+ * directory : for each record: key (string), int type, long position, long length
+ * tail      : long directory position, int nrecords, int end magic
+ * </pre>
+ * Strings are written as int length and UTF-8 bytes.
+ *
+ * <pre>
+ * DataSetFile file = new DataSetFile("histograms.gdat");
+ * H1F h1 = file.getH1F("run1/h100");
+ * file.close();
+ * </pre>
+ *
+ * @author gavalian
+ */
+public class DataSetFile {
+
+    static final int FILE_MAGIC   = 0x46534447; // "GDSF"
+    static final int END_MAGIC    = 0x444E4547; // "GEND"
+    static final int FILE_VERSION = 1;
+
+    public static final int TYPE_H1F   = 1;
+    public static final int TYPE_H2F   = 2;
+    public static final int TYPE_GRAPH = 3;
+    public static final int TYPE_F1D   = 4;
+    public static final int TYPE_GROUP = 5;
+
+    private String       fileName    = null;
+    private FileChannel  fileChannel = null;
+    /* type, position and length of records by key */
+    private final Map<String,long[]> entries = new LinkedHashMap<String,long[]>();
+
+    public DataSetFile(){
+
+    }
+
+    public DataSetFile(String filename){
+        this.open(filename);
+    }
+
+    static int align(int size){
+        return (size + 7) & ~7;
+    }
+    /**
+     * Opens the file and reads the directory of records.
+     * @param filename file name
+     */
+    public final void open(String filename){
+        this.close();
+        this.fileName = filename;
+        try {
+            fileChannel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+            ByteBuffer header = this.read(0L, 8);
+            if(header.getInt()!=FILE_MAGIC) throw new IOException("not a data set file");
+            int version = header.getInt();
+            if(version>FILE_VERSION) throw new IOException("unsupported file version " + version);
+            this.readDirectory();
+        } catch (IOException | RuntimeException e){
+            System.out.println("[DataSetFile] error : ---> failed to open file "
+                    + fileName + " : " + e.getMessage());
+            this.close();
+        }
+    }
+
+    public void close(){
+        if(fileChannel!=null){
+            try {
+                fileChannel.close();
+            } catch (IOException e){
+                System.out.println("[DataSetFile] error : ---> failed to close file " + fileName);
+            }
+        }
+        fileChannel = null;
+        entries.clear();
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while(buffer.hasRemaining()){
+            if(fileChannel.read(buffer, position + buffer.position())<0){
+                throw new IOException("unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private void readDirectory() throws IOException {
+        ByteBuffer tail = this.read(fileChannel.size() - 16, 16);
+        long position = tail.getLong();
+        int  nrecords = tail.getInt();
+        if(tail.getInt()!=END_MAGIC) throw new IOException("file is not closed properly");
+        ByteBuffer directory = this.read(position, (int) (fileChannel.size() - 16 - position));
+        for(int r = 0; r < nrecords; r++){
+            String key  = DataSetFile.getString(directory);
+            int    type = directory.getInt();
+            DataSetFile.align(directory);
+            long   offset = directory.getLong();
+            long   length = directory.getLong();
+            entries.put(key, new long[]{type, offset, length});
+        }
+    }
+
+    public String getFileName(){ return this.fileName;}
+    /**
+     * Returns keys of all records in the order they were written.
+     * @return list of keys
+     */
+    public List<String> getKeys(){
+        return new ArrayList<String>(entries.keySet());
+    }
+    /**
+     * Returns keys of records in the directory (keys starting with
+     * the directory name followed by "/").
+     * @param directory directory name
+     * @return list of keys
+     */
+    public List<String> getKeys(String directory){
+        String prefix = directory.endsWith("/") ? directory : directory + "/";
+        List<String> keys = new ArrayList<String>();
+        for(String key : entries.keySet()){
+            if(key.startsWith(prefix)==true) keys.add(key);
+        }
+        return keys;
+    }
+
+    public boolean hasEntry(String key){
+        return entries.containsKey(key);
+    }
+    /**
+     * Returns type of the record (TYPE_H1F, TYPE_H2F, TYPE_GRAPH, TYPE_F1D
+     * or TYPE_GROUP), 0 if there is no record with this key.
+     * @param key record key
+     * @return record type
+     */
+    public int getType(String key){
+        long[] entry = entries.get(key);
+        return (entry==null) ? 0 : (int) entry[0];
+    }
+
+    private ByteBuffer readRecord(String key){
+        long[] entry = entries.get(key);
+        if(entry==null){
+            System.out.println("[DataSetFile] error : ---> object with key " + key
+                    + " does not exist in file " + fileName);
+            return null;
+        }
+        try {
+            return this.read(entry[1], (int) entry[2]);
+        } catch (IOException e){
+            System.out.println("[DataSetFile] error : ---> failed to read object " + key
+                    + " from file " + fileName + " : " + e.getMessage());
+        }
+        return null;
+    }
+    /**
+     * Reads the data set (H1F, H2F, GraphErrors or F1D) stored with the key.
+     * @param key record key
+     * @return data set, null if it does not exist or the record is a data group
+     */
+    public IDataSet getDataSet(String key){
+        ByteBuffer record = this.readRecord(key);
+        if(record==null) return null;
+        if(record.getInt(0)==TYPE_GROUP){
+            System.out.println("[DataSetFile] error : ---> object " + key + " is a data group");
+            return null;
+        }
+        return DataSetFile.readDataSet(record);
+    }
+
+    public DataGroup getDataGroup(String key){
+        ByteBuffer record = this.readRecord(key);
+        if(record==null) return null;
+        if(record.getInt(0)!=TYPE_GROUP){
+            System.out.println("[DataSetFile] error : ---> object " + key + " is not a data group");
+            return null;
+        }
+        record.getInt();
+        String name = DataSetFile.getString(record);
+        int ncols = record.getInt();
+        int nrows = record.getInt();
+        DataGroup group = new DataGroup(ncols, nrows);
+        group.setName(name);
+        int count = record.getInt();
+        for(int i = 0; i < count; i++){
+            int order = record.getInt();
+            DataSetFile.align(record);
+            group.addDataSet(DataSetFile.readDataSet(record), order);
+        }
+        return group;
+    }
+
+    public H1F getH1F(String key){
+        IDataSet ds = this.getDataSet(key);
+        if(ds!=null&&(ds instanceof H1F)==false){
+            System.out.println("[DataSetFile] error : ---> object " + key + " is not an H1F");
+            return null;
+        }
+        return (H1F) ds;
+    }
+
+    public H2F getH2F(String key){
+        IDataSet ds = this.getDataSet(key);
+        if(ds!=null&&(ds instanceof H2F)==false){
+            System.out.println("[DataSetFile] error : ---> object " + key + " is not an H2F");
+            return null;
+        }
+        return (H2F) ds;
+    }
+
+    public GraphErrors getGraph(String key){
+        IDataSet ds = this.getDataSet(key);
+        if(ds!=null&&(ds instanceof GraphErrors)==false){
+            System.out.println("[DataSetFile] error : ---> object " + key + " is not a Graph");
+            return null;
+        }
+        return (GraphErrors) ds;
+    }
+
+    public F1D getF1D(String key){
+        IDataSet ds = this.getDataSet(key);
+        if(ds!=null&&(ds instanceof F1D)==false){
+            System.out.println("[DataSetFile] error : ---> object " + key + " is not an F1D");
+            return null;
+        }
+        return (F1D) ds;
+    }
+
+    private static void align(ByteBuffer buffer){
+        buffer.position(DataSetFile.align(buffer.position()));
+    }
+
+    private static String getString(ByteBuffer buffer){
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static double getDouble(ByteBuffer buffer){
+        DataSetFile.align(buffer);
+        return buffer.getDouble();
+    }
+
+    private static double[] getDoubles(ByteBuffer buffer, int length){
+        double[] values = new double[length];
+        DataSetFile.align(buffer);
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + 8*length);
+        return values;
+    }
+
+    private static void getAttributes(ByteBuffer buffer, DatasetAttributes attr){
+        attr.setTitle(DataSetFile.getString(buffer));
+        attr.setXTitle(DataSetFile.getString(buffer));
+        attr.setYTitle(DataSetFile.getString(buffer));
+        attr.setLineColor(buffer.getInt());
+        attr.setLineWidth(buffer.getInt());
+        attr.setLineStyle(buffer.getInt());
+        attr.setMarkerColor(buffer.getInt());
+        attr.setMarkerSize(buffer.getInt());
+        attr.setMarkerStyle(buffer.getInt());
+        attr.setFillColor(buffer.getInt());
+        attr.setFillStyle(buffer.getInt());
+        attr.setOptStat(buffer.getInt());
+        attr.setDatasetType(buffer.getInt());
+    }
+    /**
+     * reads the axis as {nbins, min, max}, limits of non uniform
+     * axis are set to the axis given.
+     */
+    private static double[] getAxis(ByteBuffer buffer, List<double[]> limits){
+        int nbins   = buffer.getInt();
+        int uniform = buffer.getInt();
+        if(uniform==1){
+            double min = DataSetFile.getDouble(buffer);
+            double max = DataSetFile.getDouble(buffer);
+            limits.add(null);
+            return new double[]{nbins, min, max};
+        }
+        double[] edges = DataSetFile.getDoubles(buffer, nbins + 1);
+        limits.add(edges);
+        return new double[]{nbins, edges[0], edges[nbins]};
+    }
+
+    private static void setLimits(Axis axis, double[] limits){
+        if(limits!=null) axis.set(limits);
+    }
+
+    private static IBinStorage getStorage(ByteBuffer buffer, int expectedSize){
+        BinStorageType type = BinStorageType.values()[buffer.getInt()];
+        int size = buffer.getInt();
+        if(size!=expectedSize){
+            throw new IllegalStateException("DataSetFile: number of bins " + size
+                    + " does not match the axis (" + expectedSize + ")");
+        }
+        DataSetFile.align(buffer);
+        IBinStorage storage = type.create(size);
+        switch(type){
+            case FLOAT  : buffer.asFloatBuffer().get(((FloatBinStorage) storage).getArray());
+                          buffer.position(buffer.position() + 4*size); break;
+            case LONG   : buffer.asLongBuffer().get(((LongBinStorage) storage).getArray());
+                          buffer.position(buffer.position() + 8*size); break;
+            default     : buffer.asDoubleBuffer().get(((DoubleBinStorage) storage).getArray());
+                          buffer.position(buffer.position() + 8*size); break;
+        }
+        return storage;
+    }
+
+    private static IDataSet readDataSet(ByteBuffer buffer){
+        int type = buffer.getInt();
+        switch(type){
+            case TYPE_H1F   : return DataSetFile.readH1F(buffer);
+            case TYPE_H2F   : return DataSetFile.readH2F(buffer);
+            case TYPE_GRAPH : return DataSetFile.readGraph(buffer);
+            case TYPE_F1D   : return DataSetFile.readF1D(buffer);
+            default : throw new IllegalStateException("DataSetFile: unknown record type " + type);
+        }
+    }
+
+    private static H1F readH1F(ByteBuffer buffer){
+        String name = DataSetFile.getString(buffer);
+        DatasetAttributes attr = new DatasetAttributes();
+        DataSetFile.getAttributes(buffer, attr);
+        List<double[]> limits = new ArrayList<double[]>();
+        double[] axis = DataSetFile.getAxis(buffer, limits);
+        H1F h = new H1F(name, (int) axis[0], axis[1], axis[2]);
+        DataSetFile.setLimits(h.getXaxis(), limits.get(0));
+        DataSetFile.copyAttributes(attr, h.getAttributes());
+        h.histogramUnderFlow = buffer.getInt();
+        h.histogramOverFlow  = buffer.getInt();
+        h.histogramEntries   = buffer.getInt();
+        h.histogramData = DataSetFile.getStorage(buffer, (int) axis[0]);
+        if(buffer.getInt()==1){
+            DoubleBinStorage sumw2 = new DoubleBinStorage((int) axis[0]);
+            DataSetFile.align(buffer);
+            buffer.asDoubleBuffer().get(sumw2.getArray());
+            buffer.position(buffer.position() + 8*sumw2.getSize());
+            h.histogramSumw2 = sumw2;
+        }
+        h.invalidateStatistics();
+        return h;
+    }
+
+    private static H2F readH2F(ByteBuffer buffer){
+        String name = DataSetFile.getString(buffer);
+        H2F h = new H2F(name);
+        DataSetFile.getAttributes(buffer, h.getAttributes());
+        List<double[]> limits = new ArrayList<double[]>();
+        double[] xaxis = DataSetFile.getAxis(buffer, limits);
+        double[] yaxis = DataSetFile.getAxis(buffer, limits);
+        h.set((int) xaxis[0], xaxis[1], xaxis[2], (int) yaxis[0], yaxis[1], yaxis[2]);
+        DataSetFile.setLimits(h.getXAxis(), limits.get(0));
+        DataSetFile.setLimits(h.getYAxis(), limits.get(1));
+        h.hBuffer = DataSetFile.getStorage(buffer, h.hBuffer.getSize());
+        return h;
+    }
+
+    private static GraphErrors readGraph(ByteBuffer buffer){
+        GraphErrors graph = new GraphErrors();
+        graph.setName(DataSetFile.getString(buffer));
+        DataSetFile.getAttributes(buffer, graph.getAttributes());
+        int npoints = buffer.getInt();
+        graph.getVectorX().set(DataSetFile.getDoubles(buffer, npoints));
+        graph.getVectorY().set(DataSetFile.getDoubles(buffer, npoints));
+        graph.getVectorEX().set(DataSetFile.getDoubles(buffer, npoints));
+        graph.getVectorEY().set(DataSetFile.getDoubles(buffer, npoints));
+        return graph;
+    }
+
+    private static F1D readF1D(ByteBuffer buffer){
+        String name = DataSetFile.getString(buffer);
+        DatasetAttributes attr = new DatasetAttributes();
+        DataSetFile.getAttributes(buffer, attr);
+        String expression = DataSetFile.getString(buffer);
+        double min  = DataSetFile.getDouble(buffer);
+        double max  = DataSetFile.getDouble(buffer);
+        double chi2 = DataSetFile.getDouble(buffer);
+        F1D func = new F1D(name, expression, min, max);
+        DataSetFile.copyAttributes(attr, func.getAttributes());
+        func.setChiSquare(chi2);
+        func.setNDF(buffer.getInt());
+        int npars = buffer.getInt();
+        if(npars!=func.getNPars()){
+            throw new IllegalStateException("DataSetFile: number of parameters " + npars
+                    + " does not match the expression of function " + name);
+        }
+        for(int p = 0; p < npars; p++){
+            UserParameter par = func.parameter(p);
+            int limited = buffer.getInt();
+            par.setValue(DataSetFile.getDouble(buffer));
+            par.setError(DataSetFile.getDouble(buffer));
+            par.setStep(DataSetFile.getDouble(buffer));
+            double pmin = DataSetFile.getDouble(buffer);
+            double pmax = DataSetFile.getDouble(buffer);
+            if(limited==1) par.setLimits(pmin, pmax);
+        }
+        return func;
+    }
+
+    private static void copyAttributes(DatasetAttributes from, DatasetAttributes to){
+        to.setTitle(from.getTitle());
+        to.setXTitle(from.getXTitle());
+        to.setYTitle(from.getYTitle());
+        to.setLineColor(from.getLineColor());
+        to.setLineWidth(from.getLineWidth());
+        to.setLineStyle(from.getLineStyle());
+        to.setMarkerColor(from.getMarkerColor());
+        to.setMarkerSize(from.getMarkerSize());
+        to.setMarkerStyle(from.getMarkerStyle());
+        to.setFillColor(from.getFillColor());
+        to.setFillStyle(from.getFillStyle());
+        to.setOptStat(from.getOptStat());
+        to.setDatasetType(from.getDatasetType());
+    }
+}
@@ -0,0 +1,373 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.data;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import org.jlab.groot.base.DatasetAttributes;
+import org.jlab.groot.group.DataGroup;
+import org.jlab.groot.math.Axis;
+import org.jlab.groot.math.F1D;
+import org.jlab.groot.math.UserParameter;
+
+/**
+ * Writes histograms, graphs, functions and data groups into binary files
+ * read by DataSetFile. Each object is written as one record under a key,
+ * keys can have directory like form ("run1/h100"). Bin contents and graph
+ * points are copied into the file as whole arrays (see DataSetFile for
+ * the layout).
+ *
+ * <pre>
+ * DataSetFileWriter writer = new DataSetFileWriter("histograms.gdat");
+ * writer.write(h1);             // key is the name of the histogram
+ * writer.write("run1/h100", h2);
+ * writer.write(group);          // key is the name of the group
+ * writer.close();
+ * </pre>
+ *
+ * @author gavalian
+ */
+public class DataSetFileWriter {
+
+    private final String            fileName;
+    /* type, position and length of records by key, in the order of writing */
+    private final Map<String,long[]> entries = new LinkedHashMap<String,long[]>();
+
+    private FileChannel  channel      = null;
+    private ByteBuffer   buffer       = ByteBuffer.allocate(4096).order(ByteOrder.LITTLE_ENDIAN);
+    private long         filePosition = 0L;
+    private boolean      isClosed     = false;
+
+    public DataSetFileWriter(String filename){
+        this.fileName = filename;
+    }
+    /**
+     * Creates the file and writes the header, done with the first write.
+     * @throws IOException
+     */
+    public void open() throws IOException {
+        if(channel!=null) return;
+        if(isClosed==true) throw new IOException("writer for file " + fileName + " is closed");
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+        ByteBuffer header = ByteBuffer.allocate(8).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(DataSetFile.FILE_MAGIC);
+        header.putInt(DataSetFile.FILE_VERSION);
+        header.flip();
+        this.write(header);
+    }
+
+    public int getEntries(){ return this.entries.size();}
+
+    public void write(IDataSet ds) throws IOException {
+        this.write(ds.getName(), ds);
+    }
+
+    public void write(DataGroup group) throws IOException {
+        this.write(group.getName(), group);
+    }
+    /**
+     * Writes the data set (H1F, H2F, GraphErrors or F1D) under given key.
+     * @param key name of the record, has to be unique in the file
+     * @param ds data set
+     * @throws IOException
+     */
+    public void write(String key, IDataSet ds) throws IOException {
+        if(this.isValidKey(key)==false) return;
+        buffer.clear();
+        if(this.putDataSet(ds)==false){
+            System.out.println("[DataSetFileWriter] warning : ---> data set " + key
+                    + " of type " + ds.getClass().getSimpleName() + " is not supported.");
+            return;
+        }
+        this.writeRecord(key);
+    }
+    /**
+     * Writes the data group with all its data sets as one record.
+     * @param key name of the record, has to be unique in the file
+     * @param group data group
+     * @throws IOException
+     */
+    public void write(String key, DataGroup group) throws IOException {
+        if(this.isValidKey(key)==false) return;
+        buffer.clear();
+        this.putDataGroup(group);
+        this.writeRecord(key);
+    }
+
+    private boolean isValidKey(String key){
+        if(entries.containsKey(key)==true){
+            System.out.println("[DataSetFileWriter] warning : ---> object with key " + key
+                    + " already exists in file " + fileName);
+            return false;
+        }
+        return true;
+    }
+
+    private void write(ByteBuffer data) throws IOException {
+        while(data.hasRemaining()){
+            filePosition += channel.write(data);
+        }
+    }
+
+    private void writeRecord(String key) throws IOException {
+        this.open();
+        this.align();
+        buffer.flip();
+        int type = buffer.getInt(0);
+        long position = filePosition;
+        long length   = buffer.limit();
+        this.write(buffer);
+        buffer.clear();
+        entries.put(key, new long[]{type, position, length});
+    }
+
+    private void ensure(int size){
+        if(buffer.remaining()>=size) return;
+        int capacity = Math.max(2*buffer.capacity(), buffer.position() + size);
+        ByteBuffer larger = ByteBuffer.allocate(capacity).order(ByteOrder.LITTLE_ENDIAN);
+        buffer.flip();
+        larger.put(buffer);
+        buffer = larger;
+    }
+    /**
+     * pads the record to 8 bytes, arrays are always written aligned.
+     */
+    private void align(){
+        int padding = DataSetFile.align(buffer.position()) - buffer.position();
+        this.ensure(padding);
+        for(int i = 0; i < padding; i++) buffer.put((byte) 0);
+    }
+
+    private void putInt(int value){
+        this.ensure(4);
+        buffer.putInt(value);
+    }
+
+    private void putDouble(double value){
+        this.align();
+        this.ensure(8);
+        buffer.putDouble(value);
+    }
+
+    private void putLong(long value){
+        this.align();
+        this.ensure(8);
+        buffer.putLong(value);
+    }
+
+    private void putString(String value){
+        byte[] bytes = (value==null) ? new byte[0] : value.getBytes(StandardCharsets.UTF_8);
+        this.ensure(4 + bytes.length);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private void putDoubles(double[] values, int length){
+        this.align();
+        this.ensure(8*length);
+        buffer.asDoubleBuffer().put(values, 0, length);
+        buffer.position(buffer.position() + 8*length);
+    }
+
+    private void putFloats(float[] values, int length){
+        this.align();
+        this.ensure(4*length);
+        buffer.asFloatBuffer().put(values, 0, length);
+        buffer.position(buffer.position() + 4*length);
+    }
+
+    private void putLongs(long[] values, int length){
+        this.align();
+        this.ensure(8*length);
+        buffer.asLongBuffer().put(values, 0, length);
+        buffer.position(buffer.position() + 8*length);
+    }
+
+    private boolean putDataSet(IDataSet ds){
+        if(ds instanceof H1F){
+            this.putH1F((H1F) ds);
+        } else if(ds instanceof H2F){
+            this.putH2F((H2F) ds);
+        } else if(ds instanceof GraphErrors){
+            this.putGraph((GraphErrors) ds);
+        } else if(ds instanceof F1D){
+            this.putF1D((F1D) ds);
+        } else {
+            return false;
+        }
+        return true;
+    }
+
+    private void putAttributes(DatasetAttributes attr){
+        this.putString(attr.getTitle());
+        this.putString(attr.getXTitle());
+        this.putString(attr.getYTitle());
+        this.putInt(attr.getLineColor());
+        this.putInt(attr.getLineWidth());
+        this.putInt(attr.getLineStyle());
+        this.putInt(attr.getMarkerColor());
+        this.putInt(attr.getMarkerSize());
+        this.putInt(attr.getMarkerStyle());
+        this.putInt(attr.getFillColor());
+        this.putInt(attr.getFillStyle());
+        this.putInt(attr.getOptStat());
+        this.putInt(attr.getDatasetType());
+    }
+
+    private void putAxis(Axis axis){
+        this.putInt(axis.getNBins());
+        this.putInt(axis.isUniform() ? 1 : 0);
+        if(axis.isUniform()==true){
+            this.putDouble(axis.min());
+            this.putDouble(axis.max());
+        } else {
+            this.putDoubles(axis.getLimits(), axis.getNBins() + 1);
+        }
+    }
+    /**
+     * writes storage type, size and the bin contents. Storage types other
+     * than FLOAT and LONG are written as DOUBLE.
+     */
+    private void putStorage(IBinStorage storage){
+        int size = storage.getSize();
+        if(storage instanceof FloatBinStorage){
+            this.putInt(BinStorageType.FLOAT.ordinal());
+            this.putInt(size);
+            this.putFloats(((FloatBinStorage) storage).getArray(), size);
+        } else if(storage instanceof LongBinStorage){
+            this.putInt(BinStorageType.LONG.ordinal());
+            this.putInt(size);
+            this.putLongs(((LongBinStorage) storage).getArray(), size);
+        } else {
+            this.putInt(BinStorageType.DOUBLE.ordinal());
+            this.putInt(size);
+            this.putDoubles(DataSetFileWriter.getValues(storage), size);
+        }
+    }
+
+    static double[] getValues(IBinStorage storage){
+        if(storage instanceof DoubleBinStorage) return ((DoubleBinStorage) storage).getArray();
+        double[] values = new double[storage.getSize()];
+        for(int loop = 0; loop < values.length; loop++){
+            values[loop] = storage.getValue(loop);
+        }
+        return values;
+    }
+
+    private void putH1F(H1F h){
+        this.putInt(DataSetFile.TYPE_H1F);
+        this.putString(h.getName());
+        this.putAttributes(h.getAttributes());
+        this.putAxis(h.getXaxis());
+        this.putInt(h.getUnderflow());
+        this.putInt(h.getOverflow());
+        this.putInt(h.histogramEntries);
+        this.putStorage(h.histogramData);
+        this.putInt(h.histogramSumw2==null ? 0 : 1);
+        if(h.histogramSumw2!=null){
+            int nbins = h.histogramSumw2.getSize();
+            double[] sumw2 = new double[nbins];
+            for(int bin = 0; bin < nbins; bin++) sumw2[bin] = h.getBinSumw2(bin);
+            this.putDoubles(sumw2, nbins);
+        }
+    }
+
+    private void putH2F(H2F h){
+        this.putInt(DataSetFile.TYPE_H2F);
+        this.putString(h.getName());
+        this.putAttributes(h.getAttributes());
+        this.putAxis(h.getXAxis());
+        this.putAxis(h.getYAxis());
+        this.putStorage(h.hBuffer);
+    }
+
+    private void putGraph(GraphErrors graph){
+        int npoints = graph.getDataSize(0);
+        this.putInt(DataSetFile.TYPE_GRAPH);
+        this.putString(graph.getName());
+        this.putAttributes(graph.getAttributes());
+        this.putInt(npoints);
+        this.putDoubles(graph.getVectorX().getArrayData(), npoints);
+        this.putDoubles(graph.getVectorY().getArrayData(), npoints);
+        this.putDoubles(graph.getVectorEX().getArrayData(), npoints);
+        this.putDoubles(graph.getVectorEY().getArrayData(), npoints);
+    }
+
+    private void putF1D(F1D func){
+        this.putInt(DataSetFile.TYPE_F1D);
+        this.putString(func.getName());
+        this.putAttributes(func.getAttributes());
+        this.putString(func.getExpression());
+        this.putDouble(func.getMin());
+        this.putDouble(func.getMax());
+        this.putDouble(func.getChiSquare());
+        this.putInt(func.getNDF());
+        this.putInt(func.getNPars());
+        for(int p = 0; p < func.getNPars(); p++){
+            UserParameter par = func.parameter(p);
+            this.putInt(par.isLimited() ? 1 : 0);
+            this.putDouble(par.value());
+            this.putDouble(par.error());
+            this.putDouble(par.getStep());
+            this.putDouble(par.min());
+            this.putDouble(par.max());
+        }
+    }
+
+    private void putDataGroup(DataGroup group){
+        List<IDataSet> list = group.getData();
+        this.putInt(DataSetFile.TYPE_GROUP);
+        this.putString(group.getName());
+        this.putInt(group.getColumns());
+        this.putInt(group.getRows());
+        this.putInt(list.size());
+        for(IDataSet ds : list){
+            this.putInt(group.getOrder(ds.getName()));
+            this.align();
+            if(this.putDataSet(ds)==false){
+                throw new IllegalArgumentException("DataSetFileWriter: data set " + ds.getName()
+                        + " of type " + ds.getClass().getSimpleName() + " is not supported");
+            }
+        }
+    }
+    /**
+     * Writes the directory of records (key, type, position and length)
+     * and closes the file.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if(isClosed==true) return;
+        this.open();
+        buffer.clear();
+        long directoryPosition = filePosition;
+        for(Map.Entry<String,long[]> entry : entries.entrySet()){
+            long[] record = entry.getValue();
+            this.putString(entry.getKey());
+            this.putInt((int) record[0]);
+            this.putLong(record[1]);
+            this.putLong(record[2]);
+        }
+        this.ensure(16);
+        buffer.putLong(directoryPosition);
+        buffer.putInt(entries.size());
+        buffer.putInt(DataSetFile.END_MAGIC);
+        buffer.flip();
+        this.write(buffer);
+        channel.close();
+        channel  = null;
+        buffer   = null;
+        isClosed = true;
+    }
+}
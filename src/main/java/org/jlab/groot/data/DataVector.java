@@ -11,18 +11,33 @@
 
 package org.jlab.groot.data;
 
-import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 /**
- *
+ * The values are kept in a primitive double array which grows by doubling
+ * its capacity when it is full.
+ * 
  * @author gavalian
  */
 public class DataVector {
     
-    private final ArrayList<Double>  datavec = new ArrayList<Double>();
-    private Boolean isVectorOrdered = true;
-    private Boolean isFixedLength   = false;
+    private static final int DEFAULT_CAPACITY = 16;
+    
+    private double[] datavec     = new double[0];
+    private int      datavecSize = 0;
+    private boolean  isVectorOrdered = true;
+    private boolean  isFixedLength   = false;
+    private boolean  isOrderChecked  = true;
+    /* backing array was returned by getArray() and can be modified by caller */
+    private boolean  isArrayExposed  = false;
+    /* running statistics, updated on add() and recalculated when invalid */
+    private boolean  statsValid = true;
+    private double   statsMin   = 0.0;
+    private double   statsMax   = 0.0;
+    private double   statsSum   = 0.0;
+    private double   statsMean  = 0.0;
+    private double   statsM2    = 0.0;
     
     public DataVector(){
         
@@ -40,22 +55,40 @@ public class DataVector {
      * @param data initial data
      */
     public final void set(double[] data){
-        datavec.clear();
-        for(int loop = 0; loop < data.length; loop++){
-            if(loop!=0) if(data[loop]<data[loop-1]) isVectorOrdered = false;
-            datavec.add(data[loop]);
-        }
+        this.clear();
+        this.addAll(data);
     }
     
     public final void set(List<Double> data){
-        this.datavec.clear();
+        this.clear();
+        this.ensureCapacity(data.size());
         for(Double item : data){
             this.add(item);
         }
     }
     
-    public int  size(){ return datavec.size();}
-    public void clear() { datavec.clear();}
+    public int  size(){ return datavecSize;}
+    public void clear() { 
+        datavecSize = 0;
+        isVectorOrdered = true;
+        isOrderChecked  = true;
+        statsValid = true;
+        statsMin = 0.0; statsMax = 0.0; statsSum = 0.0;
+        statsMean = 0.0; statsM2 = 0.0;
+    }
+    /**
+     * Makes sure that the vector can hold given number of elements 
+     * without growing.
+     * @param capacity minimum capacity
+     */
+    public void ensureCapacity(int capacity){
+        if(capacity>datavec.length){
+            int newCapacity = Math.max(DEFAULT_CAPACITY, datavec.length*2);
+            if(newCapacity<capacity) newCapacity = capacity;
+            datavec = Arrays.copyOf(datavec, newCapacity);
+            isArrayExposed = false;
+        }
+    }
     /**
      * Add value to the vector and ensure that the vector is ordered. If the value
      * does not appear to be in ordered mode, then set the flag ordered to FALSE.
@@ -69,55 +102,141 @@ public class DataVector {
          * No checks will be performed from that point on.
          */
         if(isVectorOrdered==true){
-            if(!datavec.isEmpty()) 
-                if(value<datavec.get(datavec.size()-1))
+            if(datavecSize>0) 
+                if(value<datavec[datavecSize-1])
                     isVectorOrdered = false;
         }
-        datavec.add(value); 
+        if(datavecSize==datavec.length) ensureCapacity(datavecSize+1);
+        datavec[datavecSize++] = value; 
+        if(statsValid==true) this.updateStatistics(value, datavecSize);
+    }
+    /**
+     * Adds the value to running statistics, count is the number 
+     * of values including the new one.
+     */
+    private void updateStatistics(double value, int count){
+        if(count==1){
+            statsMin = value;
+            statsMax = value;
+        } else {
+            if(value<statsMin) statsMin = value;
+            if(value>statsMax) statsMax = value;
+        }
+        statsSum += value;
+        double delta = value - statsMean;
+        statsMean += delta/count;
+        statsM2   += delta*(value - statsMean);
+    }
+    /**
+     * Recalculates running statistics from the data if they were 
+     * invalidated by modification of the values. While the backing array
+     * is exposed (see getArray()) they are recalculated on every request.
+     */
+    private void validateStatistics(){
+        if(statsValid==true&&isArrayExposed==false) return;
+        statsMin = 0.0; statsMax = 0.0; statsSum = 0.0;
+        statsMean = 0.0; statsM2 = 0.0;
+        for(int loop = 0; loop < datavecSize; loop++){
+            this.updateStatistics(datavec[loop], loop + 1);
+        }
+        statsValid = true;
+    }
+    /**
+     * Adds all values from the array to the vector.
+     * @param values values to add
+     */
+    public void addAll(double[] values){
+        this.addAll(values, 0, values.length);
+    }
+    /**
+     * Adds len values from the array starting from position off.
+     * @param values values to add
+     * @param off first index in the array
+     * @param len number of values
+     */
+    public void addAll(double[] values, int off, int len){
+        ensureCapacity(datavecSize + len);
+        for(int loop = off; loop < off + len; loop++){
+            this.add(values[loop]);
+        }
     }
     /**
      * calculate the minimum value in the data.
      * @return minimum of all data points
      */
     public double getMin(){
-        if(datavec.size()<1) return 0.0;
-        double min = datavec.get(0);
-        for(Double value : datavec){
-            if(value<min) min = value;
-        }
-        return min;
+        if(datavecSize<1) return 0.0;
+        this.validateStatistics();
+        return statsMin;
     }
     /**
      * calculate maximum value in the data
      * @return maximum value of the data.
      */
     public double getMax(){
-        if(datavec.size()<1) return 0.0;
-        double max = datavec.get(0);
-        for(Double value : datavec){
-            if(value>max) max = value;
-        }
-        return max;
+        if(datavecSize<1) return 0.0;
+        this.validateStatistics();
+        return statsMax;
     }
     public void copy(DataVector vec){
-        this.datavec.clear();
-        for(int loop = 0; loop < vec.getSize(); loop++){
-            this.add(vec.getValue(loop));
-        }
+        this.clear();
+        this.addAll(vec.datavec, 0, vec.getSize());
     }
     
-    public boolean isOrdered(){ return isVectorOrdered;}
+    public boolean isOrdered(){ 
+        this.validateOrder();
+        return isVectorOrdered;
+    }
+    /**
+     * Checks the order of the values again if they could have been 
+     * modified through the array returned by getArray().
+     */
+    private void validateOrder(){
+        if(isOrderChecked==true&&isArrayExposed==false) return;
+        isVectorOrdered = true;
+        for(int loop = 1; loop < datavecSize; loop++){
+            if(datavec[loop]<datavec[loop-1]){
+                isVectorOrdered = false;
+                break;
+            }
+        }
+        isOrderChecked = true;
+    }
     
     public int findBin(double value){
         return this.findBin(value,0);
     }
     
+    /**
+     * Returns the index of the first element (starting from start) that
+     * is larger than the value, or -1 if there is no such element. 
+     * Binary search is used for ordered vectors.
+     * @param value value to look for
+     * @param start index to start the search from
+     * @return index of the element or -1
+     */
     public int findBin(double value, int start){
         if(start>=this.getSize()) return -1;
+        if(start<0) start = 0;
+        
+        this.validateOrder();
+        if(isVectorOrdered==true){
+            if(!(datavec[datavecSize-1]>value)) return -1;
+            int low  = start;
+            int high = datavecSize-1;
+            while(low<high){
+                int mid = (low + high) >>> 1;
+                if(datavec[mid]>value){
+                    high = mid;
+                } else {
+                    low  = mid + 1;
+                }
+            }
+            return low;
+        }
         
-        for(int loop = start; loop < this.getSize(); loop++){
-            //System.err.println("comparing " + value + " " + this.getValue(loop));
-            if(this.getValue(loop)>value) return loop;
+        for(int loop = start; loop < datavecSize; loop++){
+            if(datavec[loop]>value) return loop;
         }
         return -1;
     }
@@ -127,20 +246,22 @@ public class DataVector {
      * @param norm multiplication factor
      */
     public void mult(double norm){
-        for(int loop = 0; loop < datavec.size(); loop ++){
-            double newValue = this.getValue(loop)*norm;
-            datavec.set(loop, newValue);
+        for(int loop = 0; loop < datavecSize; loop ++){
+            datavec[loop] = datavec[loop]*norm;
         }
+        statsValid = false;
+        if(norm<0&&datavecSize>1) isVectorOrdered = false;
     }
     /**
      * Divides the content of the vector by given number.
      * @param norm 
      */
     public void divide(double norm){
-        for(int loop = 0; loop < datavec.size(); loop ++){
-            double newValue = this.getValue(loop)/norm;
-            datavec.set(loop, newValue);
+        for(int loop = 0; loop < datavecSize; loop ++){
+            datavec[loop] = datavec[loop]/norm;
         }
+        statsValid = false;
+        if(norm<0&&datavecSize>1) isVectorOrdered = false;
     }
     /**
      * Returns cumulative integral of the vector.
@@ -148,10 +269,11 @@ public class DataVector {
      */
     public DataVector getCumulative(){
         DataVector data = new DataVector();
+        data.ensureCapacity(datavecSize);
         double integral = 0.0;
-        for(Double value : datavec){
+        for(int loop = 0; loop < datavecSize; loop++){
             data.add(integral);
-            integral += value;
+            integral += datavec[loop];
         }
         return data;
     }
@@ -161,7 +283,7 @@ public class DataVector {
      * @return 
      */
     public double getMean(DataVector xvec){
-        if(datavec.size()<1) return 0.0;
+        if(datavecSize<1) return 0.0;
         if(xvec.getSize()!=this.getSize()){
             System.err.println("DataVector::getMean: ** ERROR ** : "
             + " data vectors doe not have the same size.");
@@ -174,8 +296,8 @@ public class DataVector {
         }
         double runsumm = 0.0;
         int count = 0;
-        for(int loop = 0; loop < this.getSize(); loop++){
-            runsumm += this.getValue(loop)*xvec.getValue(loop);
+        for(int loop = 0; loop < datavecSize; loop++){
+            runsumm += datavec[loop]*xvec.datavec[loop];
             count++;
         }
         return runsumm/count;
@@ -185,36 +307,31 @@ public class DataVector {
      * @return mean value
      */
     public double getMean(){
-        if(datavec.size()<1) return 0.0;
-        double runsumm = 0.0;
-        for(Double value : datavec){
-            runsumm += value;
-        }
-        return (runsumm/datavec.size());
+        if(datavecSize<1) return 0.0;
+        this.validateStatistics();
+        return (statsSum/datavecSize);
     }
     
     
     public double getRMS(){
-        double rms  = 0.0;
-        double mean = this.getMean();
-        for(Double value : datavec){
-            rms += (value-mean)*(value-mean);
-        }
-        double rms2 = rms/datavec.size();
+        if(datavecSize<1) return Double.NaN;
+        this.validateStatistics();
+        double rms2 = statsM2/datavecSize;
         return Math.sqrt(rms2);
     }
     /**
      * Returns the number of entries in the vector
      * @return size
      */
-    public int  getSize() { return datavec.size();}
+    public int  getSize() { return datavecSize;}
     
     public double getValue(int index) {
-        if(index<0||index>=datavec.size()){
+        if(index<0||index>=datavecSize){
             System.err.println("DataVector:: ** ERROR ** : requested element "
-            + index + " in the vector of size = " + datavec.size());
+            + index + " in the vector of size = " + datavecSize);
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + datavecSize);
         }
-        return datavec.get(index);
+        return datavec[index];
     }
     /**
      * Returns the low edge for the bin which is determined by bin width.
@@ -222,7 +339,7 @@ public class DataVector {
      * @return the low edge for the bin.
      */
     public double getLowEdge(int bin){
-        if(isVectorOrdered==false){
+        if(this.isOrdered()==false){
             System.err.println("DataVector:: ** ERROR ** : this vector is not ordered."
             + " Can not define low egde for the bin");
             return 0.0;
@@ -239,7 +356,7 @@ public class DataVector {
     }
     
     public double getHighEdge(int bin){
-        if(isVectorOrdered==false){
+        if(this.isOrdered()==false){
             System.err.println("DataVector:: ** ERROR ** : this vector is not ordered."
             + " Can not define low egde for the bin");
             return 0.0;
@@ -256,7 +373,7 @@ public class DataVector {
     }
     
     public double getBinWidth(int index){
-        if(isVectorOrdered==false){
+        if(this.isOrdered()==false){
             System.err.println("DataVector:: ** ERROR ** : this vector is not ordered."
             + " Bin widths do not make sense.");
             return 0.0;
@@ -265,17 +382,50 @@ public class DataVector {
     }
     
     
+    /**
+     * Returns the array backing the vector (not a copy), the caller may modify 
+     * the values. The array is trimmed to the size of the vector, so its 
+     * length is getSize(). Changes to the array are visible in the vector, the 
+     * reference becomes stale when the vector grows after adding new values. 
+     * Until then statistics and the ordering flag are not cached, they are
+     * recalculated from the array on each request. For reading use 
+     * getArrayCopy().
+     * @return values of the vector
+     */
     public double[]  getArray(){
-        double[] array = new double[this.getSize()];
-        for(int loop = 0; loop < this.getSize();loop++){
-            array[loop] = this.getValue(loop);
+        if(datavec.length!=datavecSize){
+            datavec = Arrays.copyOf(datavec, datavecSize);
         }
-        return array;
+        isArrayExposed = true;
+        return datavec;
+    }
+    /**
+     * Returns the array backing the vector for reading, without trimming it
+     * and without invalidating cached statistics. Only the first getSize()
+     * elements are values of the vector and they must not be modified.
+     * @return backing array, its length is at least getSize()
+     */
+    double[]  getArrayData(){
+        return datavec;
+    }
+    /**
+     * Returns a copy of the values of the vector.
+     * @return new array of size getSize()
+     */
+    public double[]  getArrayCopy(){
+        return Arrays.copyOf(datavec, datavecSize);
     }
     
     public void set(int index, double value){
         if(index>=0&&index<getSize()){
-            this.datavec.set(index, value);
+            this.datavec[index] = value;
+            statsValid = false;
+            if(isVectorOrdered==true){
+                if((index>0&&value<datavec[index-1])||
+                        (index<datavecSize-1&&value>datavec[index+1])){
+                    isVectorOrdered = false;
+                }
+            }
         } else {
             System.out.println("[DataVector] --> warning : vector has size "
                     + getSize() + ". index="+index + " is out of bounds.");
@@ -0,0 +1,60 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.data;
+
+/**
+ * Bin storage keeping bin contents in a double array. Uses twice the 
+ * memory of the float storage, unit increments are exact up to 2^53.
+ * 
+ * @author gavalian
+ */
+public class DoubleBinStorage implements IBinStorage {
+    
+    private final double[] binData;
+    
+    public DoubleBinStorage(int size){
+        binData = new double[size];
+    }
+    
+    @Override
+    public int getSize() {
+        return binData.length;
+    }
+
+    @Override
+    public double getValue(int index) {
+        return binData[index];
+    }
+
+    @Override
+    public void setValue(int index, double value) {
+        binData[index] = value;
+    }
+
+    @Override
+    public void addValue(int index, double weight) {
+        binData[index] += weight;
+    }
+
+    @Override
+    public void reset() {
+        for(int loop = 0; loop < binData.length; loop++){
+            binData[loop] = 0.0;
+        }
+    }
+
+    @Override
+    public IBinStorage create(int size) {
+        return new DoubleBinStorage(size);
+    }
+    /**
+     * returns the array backing the storage (not a copy).
+     * @return bin contents
+     */
+    public double[] getArray(){
+        return binData;
+    }
+}
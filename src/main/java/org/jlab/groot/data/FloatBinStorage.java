@@ -0,0 +1,60 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.data;
+
+/**
+ * Default bin storage for histograms, keeps bin contents in 
+ * a float array.
+ * 
+ * @author gavalian
+ */
+public class FloatBinStorage implements IBinStorage {
+    
+    private final float[] binData;
+    
+    public FloatBinStorage(int size){
+        binData = new float[size];
+    }
+    
+    @Override
+    public int getSize() {
+        return binData.length;
+    }
+
+    @Override
+    public double getValue(int index) {
+        return binData[index];
+    }
+
+    @Override
+    public void setValue(int index, double value) {
+        binData[index] = (float) value;
+    }
+
+    @Override
+    public void addValue(int index, double weight) {
+        binData[index] = (float) (binData[index] + weight);
+    }
+
+    @Override
+    public void reset() {
+        for(int loop = 0; loop < binData.length; loop++){
+            binData[loop] = 0.0f;
+        }
+    }
+    
+    @Override
+    public IBinStorage create(int size) {
+        return new FloatBinStorage(size);
+    }
+    /**
+     * returns the array backing the storage (not a copy).
+     * @return bin contents
+     */
+    public float[] getArray(){
+        return binData;
+    }
+}
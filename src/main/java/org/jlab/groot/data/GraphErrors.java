@@ -128,6 +128,14 @@ public class GraphErrors implements IDataSet {
         return this.dataY;
     }
     
+    public DataVector getVectorEX(){
+        return this.dataEX;
+    }
+    
+    public DataVector getVectorEY(){
+        return this.dataEY;
+    }
+    
     public void copy(GraphErrors gr){
         this.dataEX.clear();
         this.dataEY.clear();
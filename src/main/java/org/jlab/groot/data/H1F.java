@@ -7,6 +7,7 @@ import org.jlab.groot.base.Attributes;
 import org.jlab.groot.base.DatasetAttributes;
 import org.jlab.groot.math.Axis;
 import org.jlab.groot.math.Func1D;
+import org.jlab.groot.math.RandomSampler;
 import org.jlab.groot.math.StatNumber;
 import org.jlab.groot.ui.PaveText;
 
@@ -22,8 +23,8 @@ public class H1F  implements IDataSet {
 
     Axis  xAxis;
     Axis  yAxis;
-    float[]   histogramData;
-    float[]   histogramDataError;
+    IBinStorage histogramData  = null;
+    IBinStorage histogramSumw2 = null;
     String     histTitle  = "";
     String     histXTitle = "";
     String     histYTitle = "";
@@ -31,6 +32,16 @@ public class H1F  implements IDataSet {
     int        histogramUnderFlow = 0;
     int        histogramOverFlow  = 0;
     int        histogramEntries   = 0;
+    /* statistics of bin contents, updated on fill and recalculated when invalid */
+    boolean    statsValid   = false;
+    int        statsEntries = 0;
+    double     statsShift   = 0.0;
+    double     statsSumw    = 0.0;
+    double     statsSumwx   = 0.0;
+    double     statsSumwx2  = 0.0;
+    RandomSampler  randomSampler = null;
+    /* float array of the storage was returned by getData() and can be modified */
+    boolean    dataExposed  = false;
     DatasetAttributes hAttr     = new DatasetAttributes();
     
     Func1D     fittedFunction = null;
@@ -81,8 +92,9 @@ public class H1F  implements IDataSet {
     	setName(name);
     	set(binHeights.length, xMin, xMax);
     	for (int i = 0; i < binHeights.length; i++) {
-    		histogramData[i] = binHeights[i];
+    		histogramData.setValue(i, binHeights[i]);
     	}
+        this.invalidateStatistics();
         this.initAttributes();
     }
     
@@ -245,44 +257,136 @@ public class H1F  implements IDataSet {
         this.histogramEntries = 0;
         this.histogramOverFlow = 0;
         this.histogramUnderFlow = 0;
-        for(int loop = 0; loop < this.histogramData.length;loop++){
-            this.histogramData[loop] = 0.0f;
-            if(this.histogramDataError.length==this.histogramData.length){
-                this.histogramDataError[loop] = 0.0f;
-            }
+        this.histogramData.reset();
+        this.histogramSumw2 = null;
+        this.clearStatistics();
+        this.randomSampler = null;
+    }
+    
+    /**
+     * Marks the statistics (entries, mean and RMS) as invalid, they are 
+     * recalculated from bin contents on the next request. The sampler is
+     * dropped as well, since the contents have changed.
+     */
+    final void invalidateStatistics(){
+        this.statsValid = false;
+        this.randomSampler = null;
+    }
+    
+    /**
+     * Sets statistics to the ones of an empty histogram.
+     */
+    final void clearStatistics(){
+        this.statsEntries = 0;
+        this.statsShift   = 0.5*(xAxis.min() + xAxis.max());
+        this.statsSumw    = 0.0;
+        this.statsSumwx   = 0.0;
+        this.statsSumwx2  = 0.0;
+        this.statsValid   = true;
+    }
+    
+    /**
+     * Updates the statistics with a change of the bin content and drops 
+     * the sampler.
+     * 
+     * @param bin		the bin that has changed
+     * @param before	the content before the change
+     * @param after		the content after the change
+     */
+    final void updateStatistics(int bin, double before, double after){
+        this.randomSampler = null;
+        this.addStatistics(bin, before, after);
+    }
+    
+    /**
+     * Adds a change of the bin content to the statistics. Bin centers are 
+     * taken relative to the axis center to keep the precision of the sum 
+     * of squares.
+     */
+    private void addStatistics(int bin, double before, double after){
+        double delta = after - before;
+        double x     = xAxis.getBinCenter(bin) - statsShift;
+        this.statsEntries += (int) after - (int) before;
+        this.statsSumw    += delta;
+        this.statsSumwx   += delta*x;
+        this.statsSumwx2  += delta*x*x;
+    }
+    
+    /**
+     * Recalculates the statistics from the bin contents if they are not valid,
+     * or always if the contents array is exposed (see getData()).
+     */
+    void validateStatistics(){
+        if(this.statsValid==true&&this.dataExposed==false) return;
+        this.clearStatistics();
+        for(int bin = 0; bin < histogramData.getSize(); bin++){
+            double content = histogramData.getValue(bin);
+            if(content!=0.0) this.addStatistics(bin, 0.0, content);
         }
     }
     
+    /**
+     * Returns number of entries that were filled below the axis minimum.
+     * @return underflow count
+     */
+    public int getUnderflow(){
+        return this.histogramUnderFlow;
+    }
+    /**
+     * Returns number of entries that were filled above the axis maximum.
+     * @return overflow count
+     */
+    public int getOverflow(){
+        return this.histogramOverFlow;
+    }
+    
+    /**
+     * Returns the sum of bin contents (each truncated to integer).
+     * 
+     * @return		number of entries in the histogram bins
+     */
     public int getEntries(){
-        int entries = 0;
-        for(int loop = 0; loop < this.histogramData.length; loop++){
-            entries += (int) this.histogramData[loop];
-        }
-        return entries;
+        this.validateStatistics();
+        return this.statsEntries;
     }
     /**
-     * Calculates the mean of the data in the histogram
+     * Calculates the mean of the data in the histogram, the statistics are 
+     * updated with each fill so the call does not loop over bins.
      * 
      * @return		the mean of the histogram data as a double
      */
     public double getMean() {
-        double mean  = 0.0;
-        double summ  = 0.0;
-        double count = 0; 
-        for(int i = 0; i < this.getAxis().getNBins(); i++){
-            double bincontent =  this.getBinContent(i);
-            //System.err.println(" bin count = " + count + " content summ = " + bincontent);
-            if(bincontent!=0){
-                summ  += this.getAxis().getBinCenter(i)*this.getBinContent(i);
-                count += this.getBinContent(i);
-            }
-        }
-        
-        if(count!=0){
-            mean = summ/count;
-        }
-        
-        return mean;
+        this.validateStatistics();
+        if(this.statsSumw==0.0) return 0.0;
+        return this.statsShift + this.statsSumwx/this.statsSumw;
+    }
+    
+    /**
+     * Returns a random number distributed as the histogram contents. The 
+     * sampler (see getSampler()) is created on the first call and kept 
+     * until the histogram is modified.
+     * 
+     * @return		random number
+     */
+    public double getRandom(){
+        return this.getSampler().sample();
+    }
+    
+    /**
+     * Returns the sampler for current bin contents, it can be used to 
+     * generate many numbers (also in bulk and from other threads) 
+     * without being affected by later changes of the histogram.
+     * 
+     * @return		sampler built from the bin contents
+     */
+    public RandomSampler getSampler(){
+        RandomSampler sampler = this.randomSampler;
+        if(sampler!=null) return sampler;
+        /* valid statistics make fills drop the sampler (see updateStatistics) */
+        this.validateStatistics();
+        sampler = new RandomSampler(this);
+        if(this.dataExposed==false) this.randomSampler = sampler;
+        return sampler;
     }
     
     public String[] getStatText(){
@@ -300,23 +404,11 @@ public class H1F  implements IDataSet {
      * @return		the root mean square of the histogram data
      */
     public double getRMS() {
-        double mean = this.getMean();
-        double rms = 0.0;
-        double summ  = 0.0;
-        int    count = 0; 
-        for(int i = 0; i < this.getAxis().getNBins(); i++){
-            int bincontent = (int) this.getBinContent(i);
-            if(bincontent!=0){
-                double variance = this.getAxis().getBinCenter(i) - mean;
-                summ  += variance*variance*this.getBinContent(i);
-                count += (int) this.getBinContent(i);
-            }
-        }
-        if(count!=0) {
-            rms = summ/count;
-            return Math.sqrt(rms);
-        }
-        return rms;
+        this.validateStatistics();
+        if(this.statsSumw==0.0) return 0.0;
+        double mean = this.statsSumwx/this.statsSumw;
+        double rms2 = this.statsSumwx2/this.statsSumw - mean*mean;
+        return (rms2>0.0) ? Math.sqrt(rms2) : 0.0;
     }
     
     /**
@@ -335,25 +427,156 @@ public class H1F  implements IDataSet {
     }
     
     public double integral(){
-        return this.integral(0, this.histogramData.length-1);
+        return this.integral(0, this.histogramData.getSize()-1);
     }
     
     public double integral(int start_bin, int end_bin){
         double integral = 0.0;
         for(int loop = start_bin; loop <= end_bin; loop++){
-            integral += this.histogramData[loop];
+            integral += this.histogramData.getValue(loop);
         }
         return integral;
     }
     /**
-     * Initializes the double arrays for the histogram data and data errors.
+     * Initializes the storage for the histogram data. The bin storage keeps 
+     * the type it was created with. Errors are not stored until a weighted
+     * fill or setBinError() is done.
      * 
      * @param size 		the number of data points to store
      */
     final void initDataStore(int size)
     {
-        histogramData      = new float[size];
-        histogramDataError = new float[size];
+        if(histogramData==null){
+            histogramData  = new FloatBinStorage(size);
+        } else {
+            histogramData  = histogramData.create(size);
+        }
+        histogramSumw2 = null;
+        dataExposed    = false;
+        randomSampler  = null;
+        this.clearStatistics();
+    }
+    
+    /**
+     * Creates storage for the sum of weights squared.
+     * 
+     * @param size 		the number of bins
+     * @return			empty storage
+     */
+    IBinStorage createSumw2Storage(int size){
+        return new DoubleBinStorage(size);
+    }
+    
+    /**
+     * Starts tracking the sum of weights squared for each bin. Until the 
+     * first fill with a weight different from 1 (or setBinError()) there is
+     * no storage and the sum of weights squared is taken as |content|. The 
+     * storage is initialized with |content| of each bin and is kept in 
+     * double precision, independent of the storage type of the contents.
+     */
+    void initSumw2(){
+        if(histogramSumw2!=null) return;
+        IBinStorage sumw2 = createSumw2Storage(histogramData.getSize());
+        for(int loop = 0; loop < sumw2.getSize(); loop++){
+            sumw2.setValue(loop, Math.abs(histogramData.getValue(loop)));
+        }
+        histogramSumw2 = sumw2;
+    }
+    
+    /**
+     * Adds fills of the bin to the sum of weights squared, called after the
+     * bin content was increased by sumw. Fills with unit weights (sumw2 equal
+     * to sumw) do not create the storage.
+     * 
+     * @param bin		the bin, specified in array indexing format
+     * @param sumw		sum of weights of the fills
+     * @param sumw2		sum of weights squared of the fills
+     */
+    void addBinSumw2(int bin, double sumw, double sumw2){
+        IBinStorage storage = histogramSumw2;
+        if(storage==null){
+            if(sumw2==sumw) return;
+            /* initialized from contents that already include sumw */
+            this.getSumw2Storage().addValue(bin, sumw2 - sumw);
+            return;
+        }
+        storage.addValue(bin, sumw2);
+    }
+    
+    /**
+     * Returns storage for the sum of weights squared, creating it if needed.
+     * 
+     * @return			the sum of weights squared storage
+     */
+    IBinStorage getSumw2Storage(){
+        if(histogramSumw2==null) initSumw2();
+        return histogramSumw2;
+    }
+    
+    /**
+     * Returns the sum of weights squared for the bin, for histograms filled
+     * with unit weights this is the bin content.
+     * 
+     * @param bin		the bin, specified in array indexing format
+     * @return			sum of weights squared
+     */
+    public double getBinSumw2(int bin){
+        if(bin < 0 || bin >= histogramData.getSize()) return 0.0;
+        if(histogramSumw2==null) return Math.abs(histogramData.getValue(bin));
+        return Math.max(0.0, histogramSumw2.getValue(bin));
+    }
+    
+    /**
+     * Sets the sum of weights squared for the bin, the bin error becomes
+     * the square root of it.
+     * 
+     * @param bin		the bin, specified in array indexing format
+     * @param sumw2		sum of weights squared
+     */
+    void setBinSumw2(int bin, double sumw2){
+        initSumw2();
+        histogramSumw2.setValue(bin, sumw2);
+    }
+    
+    /**
+     * Multiplies contents of all bins by the factor, errors are scaled
+     * with the same factor.
+     * 
+     * @param factor		the scale factor
+     */
+    void scale(double factor){
+        initSumw2();
+        for(int i = 0; i < histogramData.getSize(); i++){
+            double sumw2 = this.getBinSumw2(i);
+            histogramData.setValue(i, histogramData.getValue(i)*factor);
+            this.setBinSumw2(i, sumw2*factor*factor);
+        }
+        this.invalidateStatistics();
+    }
+    
+    /**
+     * Changes the type of storage used for the bin contents (see BinStorageType),
+     * the current bin contents are copied into the new storage.
+     * 
+     * @param type		the storage type, FLOAT is the default
+     */
+    public void setStorageType(BinStorageType type){
+        IBinStorage storage = type.create(histogramData.getSize());
+        for(int loop = 0; loop < storage.getSize(); loop++){
+            storage.setValue(loop, histogramData.getValue(loop));
+        }
+        this.histogramData = storage;
+        this.dataExposed   = false;
+        this.invalidateStatistics();
+    }
+    
+    /**
+     * Returns the storage of the bin contents.
+     * 
+     * @return		the bin storage
+     */
+    public IBinStorage getStorage(){
+        return this.histogramData;
     }
     
     /**
@@ -375,16 +598,154 @@ public class H1F  implements IDataSet {
     	incrementBinContent(xAxis.getBin(value), weight);
     }
     
+    /**
+     * Fills the histogram with all values from the array.
+     * 
+     * @param values	the values to fill
+     */
+    public void fill(double[] values) {
+        this.fill(values, 0, values.length);
+    }
+    
+    /**
+     * Fills the histogram with all values from the data vector.
+     * 
+     * @param vec		the values to fill
+     */
+    public void fill(DataVector vec) {
+        this.fill(vec.getArrayData(), 0, vec.getSize());
+    }
+    
+    /**
+     * Fills the histogram with len values from the array starting at 
+     * position off, each with unit weight.
+     * 
+     * @param values	the values to fill
+     * @param off		index of the first value
+     * @param len		number of values
+     */
+    public void fill(double[] values, int off, int len) {
+        IBinStorage storage = this.histogramData;
+        Axis axis  = this.xAxis;
+        int  nbins = storage.getSize();
+        boolean sumw2 = (this.histogramSumw2!=null);
+        int  under = 0;
+        int  over  = 0;
+        for(int i = off; i < off + len; i++){
+            int bin = axis.getBin(values[i]);
+            if(bin<0){
+                under++;
+            } else if(bin>=nbins){
+                over++;
+            } else {
+                storage.addValue(bin, 1.0);
+                if(sumw2==true) this.addBinSumw2(bin, 1.0, 1.0);
+            }
+        }
+        this.addEntries(len, under, over);
+    }
+    
+    /**
+     * Fills the histogram with len values from the array starting at 
+     * position off, with weights from the weights array at the same positions.
+     * 
+     * @param values	the values to fill
+     * @param weights	the weights for each value
+     * @param off		index of the first value
+     * @param len		number of values
+     */
+    public void fill(double[] values, double[] weights, int off, int len) {
+        IBinStorage storage = this.histogramData;
+        Axis axis  = this.xAxis;
+        int  nbins = storage.getSize();
+        int  under = 0;
+        int  over  = 0;
+        for(int i = off; i < off + len; i++){
+            int bin = axis.getBin(values[i]);
+            if(bin<0){
+                under++;
+            } else if(bin>=nbins){
+                over++;
+            } else {
+                double w = weights[i];
+                storage.addValue(bin, w);
+                this.addBinSumw2(bin, w, w*w);
+            }
+        }
+        this.addEntries(len, under, over);
+    }
+    
+    /**
+     * Same as fill(values,off,len) but the values are histogrammed in 
+     * parallel chunks on the common fork-join pool and the result is added 
+     * to this histogram. Each chunk uses a temporary array of the histogram
+     * size, worth it for large arrays.
+     * 
+     * @param values	the values to fill
+     * @param off		index of the first value
+     * @param len		number of values
+     */
+    public void fillParallel(double[] values, int off, int len) {
+        this.fillParallel(values, null, off, len);
+    }
+    
+    /**
+     * Same as fill(values,weights,off,len) but the values are histogrammed in 
+     * parallel chunks on the common fork-join pool and the result is added 
+     * to this histogram.
+     * 
+     * @param values	the values to fill
+     * @param weights	the weights for each value, null for unit weights
+     * @param off		index of the first value
+     * @param len		number of values
+     */
+    public void fillParallel(double[] values, double[] weights, int off, int len) {
+        if(len<=ParallelFill.CHUNK_SIZE){
+            if(weights==null){
+                this.fill(values, off, len);
+            } else {
+                this.fill(values, weights, off, len);
+            }
+            return;
+        }
+        if(off<0||off+len>values.length||(weights!=null&&off+len>weights.length)){
+            throw new ArrayIndexOutOfBoundsException(off+len);
+        }
+        double[] result = new ParallelFill.Fill1D(xAxis, values, weights, 
+                off, off + len, ParallelFill.getChunkSize(len)).invoke();
+        int nbins = histogramData.getSize();
+        int slots = nbins + 2;
+        for(int bin = 0; bin < nbins; bin++){
+            if(result[bin]!=0.0) histogramData.addValue(bin, result[bin]);
+        }
+        for(int bin = 0; bin < nbins; bin++){
+            double sumw2 = (weights==null) ? result[bin] : result[slots+bin];
+            if(result[bin]!=0.0||sumw2!=0.0) this.addBinSumw2(bin, result[bin], sumw2);
+        }
+        this.addEntries(len, (int) result[nbins], (int) result[nbins+1]);
+    }
+    
+    /**
+     * Adds to the counters of entries, underflow and overflow.
+     * 
+     * @param entries	number of entries filled
+     * @param under		number of entries in underflow
+     * @param over		number of entries in overflow
+     */
+    void addEntries(int entries, int under, int over){
+        this.invalidateStatistics();
+        this.histogramEntries   += entries;
+        this.histogramUnderFlow += under;
+        this.histogramOverFlow  += over;
+    }
+    
     /**
      * Normalizes the histogram data to the specified number
      * 
      * @param number		the value to normalize the data to
      */
     public void normalize(double number) {
-        for(int i = 0; i < histogramData.length; i++)
-        {
-            histogramData[i] /= number;
-        }
+        this.scale(1.0/number);
     }
     
     /**
@@ -395,9 +756,15 @@ public class H1F  implements IDataSet {
      */
     public void incrementBinContent(int bin) {
         this.histogramEntries++;
-    	if (bin >= 0 && bin < histogramData.length) {
-    		histogramData[bin] = (float) (histogramData[bin] + 1.0);
-    		histogramDataError[bin] = (float) Math.sqrt(Math.abs(histogramData[bin]));
+    	if (bin >= 0 && bin < histogramData.getSize()) {
+                if(this.statsValid==true){
+                    double before = histogramData.getValue(bin);
+                    histogramData.addValue(bin, 1.0);
+                    this.updateStatistics(bin, before, histogramData.getValue(bin));
+                } else {
+                    histogramData.addValue(bin, 1.0);
+                }
+                if(histogramSumw2!=null) this.addBinSumw2(bin, 1.0, 1.0);
     	} else {
             if(bin<0){
                 this.histogramUnderFlow++;
@@ -416,9 +783,15 @@ public class H1F  implements IDataSet {
      */
     public void incrementBinContent(int bin, double weight) {
         this.histogramEntries++;
-    	if (bin >= 0 && bin < histogramData.length) {
-    		histogramData[bin] = (float) (histogramData[bin] + weight);
-    		histogramDataError[bin] = (float) Math.sqrt(Math.abs(histogramData[bin]));
+    	if (bin >= 0 && bin < histogramData.getSize()) {
+                if(this.statsValid==true){
+                    double before = histogramData.getValue(bin);
+                    histogramData.addValue(bin, weight);
+                    this.updateStatistics(bin, before, histogramData.getValue(bin));
+                } else {
+                    histogramData.addValue(bin, weight);
+                }
+                this.addBinSumw2(bin, weight, weight*weight);
     	} else {
             if(bin<0){
                 this.histogramUnderFlow++;
@@ -428,11 +801,25 @@ public class H1F  implements IDataSet {
         }
     }
     
+    /**
+     * Adds bin contents (and errors) of the histogram with the same number
+     * of bins, the counters of entries, underflow and overflow are added too.
+     * 
+     * @param h		the histogram to add
+     */
     public void add(H1F h){
         if(h.getAxis().getNBins()==this.getXaxis().getNBins()){
-            for(int loop = 0; loop < this.histogramData.length; loop++){
-                this.setBinContent(loop, this.getBinContent(loop)+h.getBinContent(loop));
+            boolean sumw2 = (this.histogramSumw2!=null||h.histogramSumw2!=null);
+            for(int loop = 0; loop < this.histogramData.getSize(); loop++){
+                if(sumw2==true){
+                    double w2 = this.getBinSumw2(loop) + h.getBinSumw2(loop);
+                    this.histogramData.addValue(loop, h.getBinContent(loop));
+                    this.setBinSumw2(loop, w2);
+                } else {
+                    this.histogramData.addValue(loop, h.getBinContent(loop));
+                }
             }
+            this.addEntries(h.histogramEntries, h.getUnderflow(), h.getOverflow());
         } else {
             System.out.println("[warning] ---> histograms have different bin number. not added.");
         }
@@ -440,10 +827,7 @@ public class H1F  implements IDataSet {
     
     
     public void divide(double number){
-        for(int i = 0; i < this.getAxis().getNBins(); i++)
-        {
-            this.histogramData[i] = (float) (this.histogramData[i]/number);
-        }
+        this.scale(1.0/number);
     }
     /**
      * Static method for H1D to divide two histograms, the resulting
@@ -507,9 +891,12 @@ public class H1F  implements IDataSet {
      * @param value		the value to store in the specified bin
      */
     public void setBinContent(int bin, double value) {
-    	if ((bin >= 0) && (bin < histogramData.length)) {
-    		histogramData[bin] = (float) value;
-    		histogramDataError[bin] = (float) Math.sqrt(Math.abs(histogramData[bin]));
+    	if ((bin >= 0) && (bin < histogramData.getSize())) {
+    		histogramData.setValue(bin, value);
+                this.invalidateStatistics();
+                if(histogramSumw2!=null){
+                    this.setBinSumw2(bin, Math.abs(histogramData.getValue(bin)));
+                }
     	} else {
             if(bin<0){
                 this.histogramUnderFlow++;
@@ -526,9 +913,12 @@ public class H1F  implements IDataSet {
     public H1F histClone(String name){
         H1F hclone = new H1F(name, this.histXTitle, this.histYTitle,
         this.xAxis.getNBins(),this.xAxis.min(),this.xAxis.max());
+        hclone.histogramData = this.histogramData.create(this.histogramData.getSize());
         for(int loop = 0; loop < this.xAxis.getNBins(); loop++){
             hclone.setBinContent(loop, this.getBinContent(loop));
-            hclone.setBinError(loop, this.getBinError(loop));
+            if(this.histogramSumw2!=null){
+                hclone.setBinSumw2(loop, this.getBinSumw2(loop));
+            }
         }
         return hclone;
     }
@@ -541,8 +931,8 @@ public class H1F  implements IDataSet {
      * @param value		the error to store in the specified bin
      */
     public void setBinError(int bin, double value) {
-    	if (bin >= 0 && bin < histogramDataError.length) {
-    		histogramDataError[bin] = (float) value;
+    	if (bin >= 0 && bin < histogramData.getSize()) {
+    		this.setBinSumw2(bin, value*value);
     	}
     }
     
@@ -555,8 +945,8 @@ public class H1F  implements IDataSet {
      * @return			The content of the bin entered as a parameter
      */
     public double getBinContent(int bin) {
-    	if ((bin >= 0) && (bin < histogramData.length)) {
-    		return histogramData[bin];
+    	if ((bin >= 0) && (bin < histogramData.getSize())) {
+    		return histogramData.getValue(bin);
     	}
     	return 0.0;
     }
@@ -564,16 +954,14 @@ public class H1F  implements IDataSet {
     /**
      *Returns the error of the specified bin as a double. The bin is defined in array indexing
      * format (i.e. to retrieve the 1st bin's error, enter 0, for the 2nd bin, enter 1, ... , 
-     * for the nth bin, enter n-1)
+     * for the nth bin, enter n-1). The error is the square root of the sum of weights squared, 
+     * calculated when requested.
      * 
      * @param bin		The bin to retrieve the error of, specified in array indexing format
      * @return			The error of the bin entered as a parameter
      */
     public double getBinError(int bin) {
-        if(bin >= 0 && bin < histogramDataError.length) {
-            return histogramDataError[bin];
-        }
-        return 0.0;
+        return Math.sqrt(this.getBinSumw2(bin));
     }
     
     public Axis getXaxis(){return this.xAxis;}
@@ -654,19 +1042,37 @@ public class H1F  implements IDataSet {
     }*/
     
     /**
+     * Returns the bin contents, for the default float storage this is
+     * the array backing the histogram and can be modified (from then on 
+     * statistics and the sampler are not cached, they are recalculated 
+     * from the contents on each request), otherwise a copy.
      * 
      * @return		the data in the histogram
      */
     public float[] getData() {
-    	return histogramData;
+        if(histogramData instanceof FloatBinStorage){
+            this.dataExposed = true;
+            this.invalidateStatistics();
+            return ((FloatBinStorage) histogramData).getArray();
+        }
+        float[] data = new float[histogramData.getSize()];
+        for(int loop = 0; loop < data.length; loop++){
+            data[loop] = (float) histogramData.getValue(loop);
+        }
+    	return data;
     }
     
     /**
+     * Returns a copy of the bin errors.
      * 
      * @return		the data error in the histogram
      */
     public float[] getDataError() {
-    	return histogramDataError;
+        float[] errors = new float[histogramData.getSize()];
+        for(int loop = 0; loop < errors.length; loop++){
+            errors[loop] = (float) this.getBinError(loop);
+        }
+    	return errors;
     }
     /**
      * Returns bin number with maximum entries.
@@ -674,10 +1080,10 @@ public class H1F  implements IDataSet {
      */
     public int getMaximumBin(){
         int bin = 0;
-        double max = this.histogramData[0];
-        for(int loop = 0; loop < this.histogramData.length; loop++){
-            if(this.histogramData[loop]>max){
-                max = this.histogramData[loop];
+        double max = this.histogramData.getValue(0);
+        for(int loop = 0; loop < this.histogramData.getSize(); loop++){
+            if(this.histogramData.getValue(loop)>max){
+                max = this.histogramData.getValue(loop);
                 bin = loop;
             }
         }
@@ -692,9 +1098,9 @@ public class H1F  implements IDataSet {
      * 								considered its own distinct bin
      */
     public void fixBinWidths(double sensitivity) {
-    	double maxSlope = Math.abs(histogramData[1] - histogramData[0]);
-    	for (int i = 1; i < histogramData.length - 1; i++) {
-    		double slope = Math.abs(histogramData[i+1] - histogramData[i]);
+    	double maxSlope = Math.abs(histogramData.getValue(1) - histogramData.getValue(0));
+    	for (int i = 1; i < histogramData.getSize() - 1; i++) {
+    		double slope = Math.abs(histogramData.getValue(i+1) - histogramData.getValue(i));
     		if (slope > maxSlope) {
     			maxSlope = slope;
     		}
@@ -703,27 +1109,27 @@ public class H1F  implements IDataSet {
     	double minSlope = maxSlope * sensitivity; //allows bin slope to
     									  		  //be as little as that 
     											  //magnitude of the max
-    	double[] histData = new double[histogramData.length];
+    	double[] histData = new double[histogramData.getSize()];
     	double[] histMargins = new double[xAxis.axisMargins.length];
     	
     	for (int i = 0; i < histData.length; i++) {
     		histData[i] = -1.0;
     	}
     	
-    	histData[0] = histogramData[0];
+    	histData[0] = histogramData.getValue(0);
     	histMargins[0] = xAxis.axisMargins[0];
     	int index = 0;
-    	for (int i = 0; i < histogramData.length - 1; i++) {
-    		if (Math.abs(histogramData[i+1] - histogramData[i]) < minSlope) {
+    	for (int i = 0; i < histogramData.getSize() - 1; i++) {
+    		if (Math.abs(histogramData.getValue(i+1) - histogramData.getValue(i)) < minSlope) {
     			if (histData[index] == -1.0) {
     				histData[index] = 0.0;
     			}
-    			histData[index] += histogramData[i+1];
+    			histData[index] += histogramData.getValue(i+1);
     			histMargins[index+1] = xAxis.axisMargins[i+2];
     		}
     		
     		else {
-    			histData[index+1] = histogramData[i+1];
+    			histData[index+1] = histogramData.getValue(i+1);
     			histMargins[index+1] = xAxis.axisMargins[i+1];
     			index++;
     		}
@@ -731,17 +1137,18 @@ public class H1F  implements IDataSet {
     	
     	set(index + 1, xAxis.min(), xAxis.max());
     	
-    	for (int i = 0; i < histogramData.length; i++) {
+    	for (int i = 0; i < histogramData.getSize(); i++) {
     		setBinContent(i, histData[i]);
     		xAxis.set(histMargins);
     	}
     	
-    	for (int i = 0; i < histogramData.length - 1; i++) {
-    		if (Math.abs(histogramData[i+1] - histogramData[i]) < minSlope) {
+    	for (int i = 0; i < histogramData.getSize() - 1; i++) {
+    		if (Math.abs(histogramData.getValue(i+1) - histogramData.getValue(i)) < minSlope) {
     			fixBinWidths(sensitivity);
     			break;
     		}
     	}
+        this.invalidateStatistics();
     }
          
     @Override
@@ -767,7 +1174,7 @@ public class H1F  implements IDataSet {
 
     @Override
     public double getDataY(int bin) {
-        return this.histogramData[bin];
+        return this.histogramData.getValue(bin);
     }
 
     @Override
@@ -777,7 +1184,7 @@ public class H1F  implements IDataSet {
 
     @Override
     public double getDataEY(int bin) {
-        return this.histogramDataError[bin];
+        return this.getBinError(bin);
     }
 
     @Override
@@ -832,8 +1239,8 @@ public class H1F  implements IDataSet {
         stat.addText("Entries",Integer.toString(this.getEntries()));
         stat.addText("Mean",String.format("%.3f", this.getMean()));
         stat.addText("RMS",String.format("%.3f", this.getRMS()));
-        stat.addText("Underflow",Integer.toString(this.histogramUnderFlow));
-        stat.addText("Overflow",Integer.toString(this.histogramOverFlow));
+        stat.addText("Underflow",Integer.toString(this.getUnderflow()));
+        stat.addText("Overflow",Integer.toString(this.getOverflow()));
     
         if(this.fittedFunction!=null){
             stat.addText("#chi^2/NDF",
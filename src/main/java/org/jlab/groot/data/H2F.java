@@ -23,15 +23,12 @@ public class H2F implements IDataSet {
 	private String hName = "basic2D";
 	private Axis xAxis = new Axis();
 	private Axis yAxis = new Axis();
-	private float[] hBuffer;
+	IBinStorage hBuffer = null;
 	private MultiIndex offset;
         private DatasetAttributes attr = new DatasetAttributes(); 
-        private Float     maximumBinValue = 0.0f;
         
 	public H2F() {
-		offset = new MultiIndex(xAxis.getNBins(), yAxis.getNBins());
-		hBuffer = new float[offset.getArraySize()];
-
+		initDataStore(xAxis.getNBins(), yAxis.getNBins());
         }
 
         @Override
@@ -44,9 +41,7 @@ public class H2F implements IDataSet {
 	 */
 	public H2F(String name) {
 		hName = name;
-		offset = new MultiIndex(xAxis.getNBins(), yAxis.getNBins());
-		hBuffer = new float[offset.getArraySize()];
-
+		initDataStore(xAxis.getNBins(), yAxis.getNBins());
 	}
 
 	/**
@@ -71,8 +66,6 @@ public class H2F implements IDataSet {
 			double ymin, double ymax) {
 		hName = name;
 		this.set(bx, xmin, xmax, by, ymin, ymax);
-		offset = new MultiIndex(bx, by);
-		hBuffer = new float[offset.getArraySize()];                
 	}
 
         public H2F(String name, String title, int bx, double xmin, double xmax, int by,
@@ -81,8 +74,6 @@ public class H2F implements IDataSet {
 		hName = name;
                 this.setTitle(title);
 		this.set(bx, xmin, xmax, by, ymin, ymax);
-		offset = new MultiIndex(bx, by);
-		hBuffer = new float[offset.getArraySize()];                
 	}
 	/**
 	 * Sets the bins to the x and y axes and creates the buffer of the histogram
@@ -104,9 +95,50 @@ public class H2F implements IDataSet {
 			double ymin, double ymax) {
 		xAxis.set(bx, xmin, xmax);
 		yAxis.set(by, ymin, ymax);
+		initDataStore(bx, by);
+	}
+	
+	/**
+	 * Creates the index and the bin storage for the given number of bins,
+	 * the bin storage keeps the type it was created with.
+	 * 
+	 * @param bx
+	 *            number of bins on the x axis
+	 * @param by
+	 *            number of bins on the y axis
+	 */
+	final void initDataStore(int bx, int by) {
 		offset = new MultiIndex(bx, by);
 		int buff = offset.getArraySize();
-		hBuffer = new float[buff];
+		if (hBuffer == null) {
+			hBuffer = new FloatBinStorage(buff);
+		} else {
+			hBuffer = hBuffer.create(buff);
+		}
+	}
+
+	/**
+	 * Changes the type of storage used for the bin contents (see
+	 * BinStorageType), the current bin contents are copied into the new
+	 * storage.
+	 * 
+	 * @param type
+	 *            the storage type, FLOAT is the default
+	 */
+	public void setStorageType(BinStorageType type) {
+		IBinStorage storage = type.create(hBuffer.getSize());
+		for (int loop = 0; loop < storage.getSize(); loop++) {
+			storage.setValue(loop, hBuffer.getValue(loop));
+		}
+		hBuffer = storage;
+	}
+
+	/**
+	 * 
+	 * @return the storage of the bin contents
+	 */
+	public IBinStorage getStorage() {
+		return hBuffer;
 	}
 
 	/**
@@ -135,8 +167,8 @@ public class H2F implements IDataSet {
 
         public double getMaximum(){
             double maximum = 0.0;
-            for(int loop = 0; loop < hBuffer.length; loop++)
-                if(hBuffer[loop]>maximum) maximum = hBuffer[loop];
+            for(int loop = 0; loop < hBuffer.getSize(); loop++)
+                if(hBuffer.getValue(loop)>maximum) maximum = hBuffer.getValue(loop);
             return maximum;
         }
 
@@ -169,8 +201,8 @@ public class H2F implements IDataSet {
 	public double getBinContent(int bx, int by) {
 		if (this.isValidBins(bx, by)) {
 			int buff = offset.getArrayIndex(bx, by);
-                        if(buff>=0&&buff<hBuffer.length){
-                            return hBuffer[buff];
+                        if(buff>=0&&buff<hBuffer.getSize()){
+                            return hBuffer.getValue(buff);
                         } else {
                             System.out.println("[Index] error for binx = "+ bx +
                                     " biny = " + by);
@@ -249,7 +281,9 @@ public class H2F implements IDataSet {
 	public void setBinContent(int bx, int by, double w) {
 		if (this.isValidBins(bx, by)) {
 			int buff = offset.getArrayIndex(bx, by);
-			hBuffer[buff] = (float) w;
+			if (buff >= 0) {
+				hBuffer.setValue(buff, w);
+			}
 		}
 	}
 
@@ -274,6 +308,116 @@ public class H2F implements IDataSet {
 		}
 	}
 
+	/**
+	 * Fills the histogram with len (x,y) pairs from the arrays starting at
+	 * position off, each with unit weight.
+	 * 
+	 * @param x
+	 *            the x coordinate values
+	 * @param y
+	 *            the y coordinate values
+	 * @param off
+	 *            index of the first pair
+	 * @param len
+	 *            number of pairs
+	 */
+	public void fill(double[] x, double[] y, int off, int len) {
+		IBinStorage storage = this.hBuffer;
+		int nx = xAxis.getNBins();
+		int ny = yAxis.getNBins();
+		for (int i = off; i < off + len; i++) {
+			int bx = xAxis.getBin(x[i]);
+			int by = yAxis.getBin(y[i]);
+			if (bx >= 0 && bx < nx && by >= 0 && by < ny) {
+				storage.addValue(bx + by * nx, 1.0);
+			}
+		}
+	}
+
+	/**
+	 * Fills the histogram with len (x,y) pairs from the arrays starting at
+	 * position off, with weights from the w array at the same positions.
+	 * 
+	 * @param x
+	 *            the x coordinate values
+	 * @param y
+	 *            the y coordinate values
+	 * @param w
+	 *            the weights
+	 * @param off
+	 *            index of the first pair
+	 * @param len
+	 *            number of pairs
+	 */
+	public void fill(double[] x, double[] y, double[] w, int off, int len) {
+		IBinStorage storage = this.hBuffer;
+		int nx = xAxis.getNBins();
+		int ny = yAxis.getNBins();
+		for (int i = off; i < off + len; i++) {
+			int bx = xAxis.getBin(x[i]);
+			int by = yAxis.getBin(y[i]);
+			if (bx >= 0 && bx < nx && by >= 0 && by < ny) {
+				storage.addValue(bx + by * nx, w[i]);
+			}
+		}
+	}
+
+	/**
+	 * Same as fill(x,y,off,len) but the pairs are histogrammed in parallel
+	 * chunks on the common fork-join pool and the result is added to this
+	 * histogram. Each chunk uses a temporary array of the histogram size.
+	 * 
+	 * @param x
+	 *            the x coordinate values
+	 * @param y
+	 *            the y coordinate values
+	 * @param off
+	 *            index of the first pair
+	 * @param len
+	 *            number of pairs
+	 */
+	public void fillParallel(double[] x, double[] y, int off, int len) {
+		this.fillParallel(x, y, null, off, len);
+	}
+
+	/**
+	 * Same as fill(x,y,w,off,len) but the pairs are histogrammed in parallel
+	 * chunks on the common fork-join pool and the result is added to this
+	 * histogram.
+	 * 
+	 * @param x
+	 *            the x coordinate values
+	 * @param y
+	 *            the y coordinate values
+	 * @param w
+	 *            the weights, null for unit weights
+	 * @param off
+	 *            index of the first pair
+	 * @param len
+	 *            number of pairs
+	 */
+	public void fillParallel(double[] x, double[] y, double[] w, int off, int len) {
+		if (len <= ParallelFill.CHUNK_SIZE) {
+			if (w == null) {
+				this.fill(x, y, off, len);
+			} else {
+				this.fill(x, y, w, off, len);
+			}
+			return;
+		}
+		if (off < 0 || off + len > x.length || off + len > y.length
+				|| (w != null && off + len > w.length)) {
+			throw new ArrayIndexOutOfBoundsException(off + len);
+		}
+		double[] result = new ParallelFill.Fill2D(xAxis, yAxis, x, y, w, off,
+				off + len, ParallelFill.getChunkSize(len)).invoke();
+		for (int bin = 0; bin < result.length; bin++) {
+			if (result[bin] != 0.0) {
+				hBuffer.addValue(bin, result[bin]);
+			}
+		}
+	}
+
 	/**
 	 * Increments the current bin by 1.0
 	 * 
@@ -281,9 +425,7 @@ public class H2F implements IDataSet {
 	 *            the bin in array indexing format to increment
 	 */
 	private void addBinContent(int bin) {
-		hBuffer[bin] = (float) (hBuffer[bin] + 1.0);
-                if(hBuffer[bin]>this.maximumBinValue) 
-                    this.maximumBinValue = hBuffer[bin];
+		hBuffer.addValue(bin, 1.0);
 	}
 
 	/**
@@ -295,9 +437,7 @@ public class H2F implements IDataSet {
 	 *            the value to add to the bin content
 	 */
 	private void addBinContent(int bin, double w) {
-		hBuffer[bin] = (float) (hBuffer[bin] + w);
-                if(hBuffer[bin]>this.maximumBinValue) 
-                    this.maximumBinValue = hBuffer[bin];
+		hBuffer.addValue(bin, w);
 	}
         
         public ArrayList<H1F>  getSlicesX(){
@@ -323,8 +463,8 @@ public class H2F implements IDataSet {
         public void add(H2F h){
             if(h.getXAxis().getNBins()==this.getXAxis().getNBins()&&
                     h.getYAxis().getNBins()==this.getYAxis().getNBins()){
-                for(int loop = 0; loop < this.hBuffer.length; loop++){
-                    this.hBuffer[loop] = this.hBuffer[loop] + h.hBuffer[loop];
+                for(int loop = 0; loop < this.hBuffer.getSize(); loop++){
+                    this.hBuffer.addValue(loop, h.hBuffer.getValue(loop));
                 }
             } else {
                 System.out.println("[warning] ---> error adding histograms " 
@@ -360,11 +500,12 @@ public class H2F implements IDataSet {
         public void divide(H2F h){
             if(h.getXAxis().getNBins()==this.getXAxis().getNBins()&&
                     h.getYAxis().getNBins()==this.getYAxis().getNBins()){
-                for(int loop = 0; loop < this.hBuffer.length; loop++){
-                    if(h.hBuffer[loop]==0){
-                        this.hBuffer[loop] = 0.0f;
+                for(int loop = 0; loop < this.hBuffer.getSize(); loop++){
+                    double denom = h.hBuffer.getValue(loop);
+                    if(denom==0){
+                        this.hBuffer.setValue(loop, 0.0);
                     } else {
-                        this.hBuffer[loop] = this.hBuffer[loop]/h.hBuffer[loop];
+                        this.hBuffer.setValue(loop, this.hBuffer.getValue(loop)/denom);
                     }
                 }
             } else {
@@ -383,8 +524,9 @@ public class H2F implements IDataSet {
 	public int findBin(double x, double y) {
 		int bx = xAxis.getBin(x);
 		int by = yAxis.getBin(y);
-		if (this.isValidBins(bx, by)) {
-			return (offset.getArrayIndex(bx, by));
+		int nx = xAxis.getNBins();
+		if (bx >= 0 && bx < nx && by >= 0 && by < yAxis.getNBins()) {
+			return bx + by * nx;
 		}
 		return -1;
 	}
@@ -462,8 +604,9 @@ public class H2F implements IDataSet {
                     this.xAxis.getNBins(),this.xAxis.min(),this.xAxis.max(),
                     this.yAxis.getNBins(),this.yAxis.min(),this.yAxis.max()
             );
-            for(int loop = 0; loop < this.hBuffer.length; loop++){                
-                hclone.hBuffer[loop] = this.hBuffer[loop];
+            hclone.hBuffer = this.hBuffer.create(this.hBuffer.getSize());
+            for(int loop = 0; loop < this.hBuffer.getSize(); loop++){                
+                hclone.hBuffer.setValue(loop, this.hBuffer.getValue(loop));
             }
             return hclone;
         }
@@ -589,16 +732,27 @@ public class H2F implements IDataSet {
 		return sliceY;
 	}
 
+	/**
+	 * Returns the bin contents, for the default float storage this is
+	 * the array backing the histogram, otherwise a copy.
+	 * 
+	 * @return bin contents in array indexing format
+	 */
 	public float[] offset() {
-		return hBuffer;
+		if (hBuffer instanceof FloatBinStorage) {
+			return ((FloatBinStorage) hBuffer).getArray();
+		}
+		float[] data = new float[hBuffer.getSize()];
+		for (int loop = 0; loop < data.length; loop++) {
+			data[loop] = (float) hBuffer.getValue(loop);
+		}
+		return data;
 	}
         /**
          * Resets the content of the histogram, sets all bin contents to 0
          */
         public void reset(){
-            for(int bin = 0; bin < this.hBuffer.length; bin++){
-                this.hBuffer[bin] = 0.0f;
-            }
+            this.hBuffer.reset();
         }
 
     @Override
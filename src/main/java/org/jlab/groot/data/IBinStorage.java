@@ -0,0 +1,27 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.data;
+
+/**
+ * Storage for histogram bin contents. Histograms keep their bins
+ * in a flat array indexed from 0 to getSize()-1, the implementations
+ * decide how the values are kept in memory.
+ * 
+ * @author gavalian
+ */
+public interface IBinStorage {
+    int          getSize();
+    double       getValue(int index);
+    void         setValue(int index, double value);
+    void         addValue(int index, double weight);
+    void         reset();
+    /**
+     * creates an empty storage of the same type with given size.
+     * @param size number of bins
+     * @return new storage
+     */
+    IBinStorage  create(int size);
+}
@@ -0,0 +1,64 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.data;
+
+/**
+ * Bin storage keeping exact 64-bit counts. Intended for counting 
+ * histograms, weights and values are rounded to the nearest integer.
+ * 
+ * @author gavalian
+ */
+public class LongBinStorage implements IBinStorage {
+    
+    private final long[] binData;
+    
+    public LongBinStorage(int size){
+        binData = new long[size];
+    }
+    
+    @Override
+    public int getSize() {
+        return binData.length;
+    }
+
+    @Override
+    public double getValue(int index) {
+        return binData[index];
+    }
+
+    @Override
+    public void setValue(int index, double value) {
+        binData[index] = Math.round(value);
+    }
+
+    @Override
+    public void addValue(int index, double weight) {
+        if(weight==1.0){
+            binData[index]++;
+        } else {
+            binData[index] += Math.round(weight);
+        }
+    }
+
+    @Override
+    public void reset() {
+        for(int loop = 0; loop < binData.length; loop++){
+            binData[loop] = 0L;
+        }
+    }
+
+    @Override
+    public IBinStorage create(int size) {
+        return new LongBinStorage(size);
+    }
+    /**
+     * returns the array backing the storage (not a copy).
+     * @return bin counts
+     */
+    public long[] getArray(){
+        return binData;
+    }
+}
@@ -0,0 +1,153 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.data;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+import org.jlab.groot.math.Axis;
+
+/**
+ * Fork-join tasks used by the parallel bulk fill of histograms. The input
+ * arrays are split into chunks, each chunk is histogrammed into its own 
+ * array and the arrays are summed pairwise. The splitting depends only on 
+ * the length of the input and the pool size, not on scheduling, so the 
+ * result is reproducible.
+ * 
+ * The accumulated array has the sum of weights for each bin followed by 
+ * underflow and overflow counts, and (for weighted fills) the sum of 
+ * w*w for each bin. The input is split into about as many chunks as 
+ * there are threads in the common pool, so temporary memory stays at 
+ * (threads) x (bins) x 8 bytes.
+ * 
+ * @author gavalian
+ */
+final class ParallelFill {
+    
+    static final int CHUNK_SIZE = 32768;
+    
+    private ParallelFill(){}
+    
+    /**
+     * chunk size used for splitting input of given length.
+     * @param length number of entries
+     * @return number of entries processed by one task
+     */
+    static int getChunkSize(int length){
+        int nthreads = ForkJoinPool.getCommonPoolParallelism();
+        return Math.max(CHUNK_SIZE, (length + nthreads - 1)/nthreads);
+    }
+    
+    static void addArray(double[] target, double[] source){
+        for(int loop = 0; loop < target.length; loop++){
+            target[loop] += source[loop];
+        }
+    }
+    
+    static class Fill1D extends RecursiveTask<double[]> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final Axis     axis;
+        private final double[] values;
+        private final double[] weights;
+        private final int      start;
+        private final int      end;
+        private final int      chunk;
+        
+        Fill1D(Axis axis, double[] values, double[] weights, int start, int end, int chunk){
+            this.axis    = axis;
+            this.values  = values;
+            this.weights = weights;
+            this.start   = start;
+            this.end     = end;
+            this.chunk   = chunk;
+        }
+        
+        @Override
+        protected double[] compute() {
+            if(end-start<=chunk){
+                int nbins = axis.getNBins();
+                int slots = nbins + 2;
+                double[] result = new double[(weights==null) ? slots : 2*slots];
+                for(int i = start; i < end; i++){
+                    int bin = axis.getBin(values[i]);
+                    if(bin<0) bin = nbins;
+                    else if(bin>=nbins) bin = nbins + 1;
+                    if(weights==null){
+                        result[bin] += 1.0;
+                    } else {
+                        double w = weights[i];
+                        if(bin<nbins){
+                            result[bin] += w;
+                            result[slots + bin] += w*w;
+                        } else {
+                            result[bin] += 1.0;
+                        }
+                    }
+                }
+                return result;
+            }
+            int middle = (start + end) >>> 1;
+            Fill1D left  = new Fill1D(axis,values,weights,start,middle,chunk);
+            Fill1D right = new Fill1D(axis,values,weights,middle,end,chunk);
+            left.fork();
+            double[] rightResult = right.compute();
+            double[] leftResult  = left.join();
+            addArray(leftResult, rightResult);
+            return leftResult;
+        }
+    }
+    
+    static class Fill2D extends RecursiveTask<double[]> {
+        
+        private static final long serialVersionUID = 1L;
+        
+        private final Axis     xaxis;
+        private final Axis     yaxis;
+        private final double[] xvalues;
+        private final double[] yvalues;
+        private final double[] weights;
+        private final int      start;
+        private final int      end;
+        private final int      chunk;
+        
+        Fill2D(Axis xaxis, Axis yaxis, double[] x, double[] y, double[] w, int start, int end, int chunk){
+            this.xaxis   = xaxis;
+            this.yaxis   = yaxis;
+            this.xvalues = x;
+            this.yvalues = y;
+            this.weights = w;
+            this.start   = start;
+            this.end     = end;
+            this.chunk   = chunk;
+        }
+        
+        @Override
+        protected double[] compute() {
+            if(end-start<=chunk){
+                int nx = xaxis.getNBins();
+                int ny = yaxis.getNBins();
+                double[] result = new double[nx*ny];
+                for(int i = start; i < end; i++){
+                    int bx = xaxis.getBin(xvalues[i]);
+                    int by = yaxis.getBin(yvalues[i]);
+                    if(bx>=0&&bx<nx&&by>=0&&by<ny){
+                        result[bx + by*nx] += (weights==null) ? 1.0 : weights[i];
+                    }
+                }
+                return result;
+            }
+            int middle = (start + end) >>> 1;
+            Fill2D left  = new Fill2D(xaxis,yaxis,xvalues,yvalues,weights,start,middle,chunk);
+            Fill2D right = new Fill2D(xaxis,yaxis,xvalues,yvalues,weights,middle,end,chunk);
+            left.fork();
+            double[] rightResult = right.compute();
+            double[] leftResult  = left.join();
+            addArray(leftResult, rightResult);
+            return leftResult;
+        }
+    }
+}
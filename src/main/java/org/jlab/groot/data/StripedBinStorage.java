@@ -0,0 +1,110 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.data;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Bin storage which can be filled from many threads at the same time.
+ * Each bin is kept in several stripes (double precision), a thread adds
+ * its weights to the stripe selected by its thread id, so threads rarely
+ * compete for the same memory location. The value of the bin is the sum
+ * of all stripes and is calculated when the bin is read. The memory used 
+ * is (number of stripes) x (number of bins) x 8 bytes.
+ * 
+ * Filling is safe from any number of threads, setValue() and reset() 
+ * should not be called while other threads are filling.
+ * 
+ * @author gavalian
+ */
+public class StripedBinStorage implements IBinStorage {
+    
+    public static final int MAX_STRIPES = 16;
+    
+    private final int             binCount;
+    private final int             stripeCount;
+    private final int             stripeMask;
+    private final AtomicLongArray stripes;
+    
+    public StripedBinStorage(int size){
+        this(size, StripedBinStorage.getDefaultStripes());
+    }
+    /**
+     * creates storage with given number of bins and stripes, the number of
+     * stripes is rounded up to the next power of two.
+     * @param size number of bins
+     * @param nstripes number of stripes
+     */
+    public StripedBinStorage(int size, int nstripes){
+        int count = 1;
+        while(count<nstripes) count = count << 1;
+        binCount    = size;
+        stripeCount = count;
+        stripeMask  = count - 1;
+        stripes     = new AtomicLongArray(stripeCount*binCount);
+    }
+    /**
+     * default number of stripes is the number of available processors
+     * rounded to the power of two, but not more than MAX_STRIPES.
+     * @return number of stripes
+     */
+    public static int getDefaultStripes(){
+        int ncpu = Runtime.getRuntime().availableProcessors();
+        return Math.min(ncpu, MAX_STRIPES);
+    }
+    
+    public int getStripes(){
+        return this.stripeCount;
+    }
+    
+    @Override
+    public int getSize() {
+        return binCount;
+    }
+
+    @Override
+    public double getValue(int index) {
+        if(index<0||index>=binCount) throw new ArrayIndexOutOfBoundsException(index);
+        double value = 0.0;
+        for(int s = 0; s < stripeCount; s++){
+            value += Double.longBitsToDouble(stripes.get(s*binCount + index));
+        }
+        return value;
+    }
+
+    @Override
+    public void setValue(int index, double value) {
+        if(index<0||index>=binCount) throw new ArrayIndexOutOfBoundsException(index);
+        stripes.set(index, Double.doubleToRawLongBits(value));
+        for(int s = 1; s < stripeCount; s++){
+            stripes.set(s*binCount + index, 0L);
+        }
+    }
+
+    @Override
+    public void addValue(int index, double weight) {
+        if(index<0||index>=binCount) throw new ArrayIndexOutOfBoundsException(index);
+        int stripe = ((int) Thread.currentThread().getId()) & stripeMask;
+        int cell   = stripe*binCount + index;
+        while(true){
+            long current = stripes.get(cell);
+            long next    = Double.doubleToRawLongBits(Double.longBitsToDouble(current) + weight);
+            if(stripes.compareAndSet(cell, current, next)) return;
+        }
+    }
+
+    @Override
+    public void reset() {
+        for(int loop = 0; loop < stripes.length(); loop++){
+            stripes.set(loop, 0L);
+        }
+    }
+
+    @Override
+    public IBinStorage create(int size) {
+        return new StripedBinStorage(size, stripeCount);
+    }
+}
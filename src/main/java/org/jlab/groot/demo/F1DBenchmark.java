@@ -0,0 +1,61 @@
+package org.jlab.groot.demo;
+
+import org.jlab.groot.math.F1D;
+
+/**
+ * Compares evaluation time of F1D functions in compiled mode and
+ * with exp4j variables set by name on every call.
+ *
+ * @author gavalian
+ */
+public class F1DBenchmark {
+
+	public static double run(F1D func, int npoints, int ncalls) {
+		double sum = 0.0;
+		double step = (func.getMax() - func.getMin()) / npoints;
+		for (int call = 0; call < ncalls; call++) {
+			func.setParameter(0, 10.0 + call * 1e-6);
+			for (int i = 0; i < npoints; i++) {
+				sum += func.evaluate(func.getMin() + i * step);
+			}
+		}
+		return sum;
+	}
+
+	public static void benchmark(F1D func, int npoints, int ncalls) {
+		double[] time = new double[2];
+		double[] result = new double[2];
+		for (int mode = 0; mode < 2; mode++) {
+			func.setCompiledMode(mode == 0);
+			run(func, npoints, ncalls / 10); // warm up
+			long start = System.nanoTime();
+			result[mode] = run(func, npoints, ncalls);
+			time[mode] = (System.nanoTime() - start) * 1e-6;
+		}
+		func.setCompiledMode(true);
+		System.out.println(String.format("%-40s compiled %9.2f ms, exp4j %9.2f ms, speedup %6.2f (diff %e)",
+				func.getExpression(), time[0], time[1], time[1] / time[0],
+				Math.abs(result[0] - result[1]) / Math.abs(result[1])));
+	}
+
+	public static void main(String[] args) {
+		int npoints = 200;
+		int ncalls = 5000;
+
+		F1D gaus = new F1D("gaus", "[amp]*gaus(x,[mean],[sigma])", -5.0, 5.0);
+		gaus.setParameters(new double[] { 10.0, 0.5, 1.2 });
+		benchmark(gaus, npoints, ncalls);
+
+		F1D gausbg = new F1D("gausbg", "[amp]*gaus(x,[mean],[sigma])+[p0]+[p1]*x+[p2]*x*x", -5.0, 5.0);
+		gausbg.setParameters(new double[] { 10.0, 0.5, 1.2, 2.0, 0.1, 0.01 });
+		benchmark(gausbg, npoints, ncalls);
+
+		F1D landau = new F1D("landau", "[amp]*landau(x,[mpv],[sigma])+[h]*exp([f]*x)", 0.0, 10.0);
+		landau.setParameters(new double[] { 10.0, 2.0, 0.5, 1.0, -0.3 });
+		benchmark(landau, npoints, ncalls);
+
+		F1D erf = new F1D("erf", "[a]*erf((x-[m])/[s])+[b]", -5.0, 5.0);
+		erf.setParameters(new double[] { 5.0, 0.0, 1.0, 5.0 });
+		benchmark(erf, npoints, ncalls);
+	}
+}
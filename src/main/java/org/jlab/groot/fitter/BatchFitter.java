@@ -0,0 +1,164 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.fitter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+import org.freehep.math.minuit.FCNBase;
+import org.freehep.math.minuit.FunctionMinimum;
+import org.freehep.math.minuit.MnMigrad;
+import org.jlab.groot.data.DataVector;
+import org.jlab.groot.data.IDataSet;
+import org.jlab.groot.math.Func1D;
+
+/**
+ * Fits many functions to many data sets concurrently. Jobs (function,
+ * data set and fit options as for DataFitter.fit()) are added to the
+ * batch, fit() runs them on a pool of threads and returns a FitResult
+ * for each job in the order the jobs were added. The parameters of each
+ * function are set to the fit result as with DataFitter.
+ *
+ * Unlike DataFitter.fit() the batch fitter does not redirect System.out
+ * and System.err (options "Q" and "V" are ignored) and does not run the
+ * parameter scan before the minimization. Each job needs its own function
+ * object, functions and data sets are not copied.
+ *
+ * <pre>
+ * BatchFitter fitter = new BatchFitter();
+ * for(H1F h : histograms){
+ *     F1D func = new F1D("f","[amp]*gaus(x,[mean],[sigma])",0.1,0.8);
+ *     ...
+ *     fitter.addJob(func, h, "L");
+ * }
+ * List&lt;FitResult&gt; results = fitter.fit();
+ * </pre>
+ *
+ * @author gavalian
+ */
+public class BatchFitter {
+
+    private final List<Func1D>  jobFunctions = new ArrayList<Func1D>();
+    private final List<Object>  jobData      = new ArrayList<Object>();
+    private final List<String>  jobOptions   = new ArrayList<String>();
+    private int                 parallelism  = Runtime.getRuntime().availableProcessors();
+
+    public BatchFitter(){
+
+    }
+    /**
+     * Adds a fit of the function to the data set.
+     * @param func function, has to be different for each job
+     * @param data data set
+     * @param options fit options (see DataFitter.fit())
+     * @return index of the job
+     */
+    public int addJob(Func1D func, IDataSet data, String options){
+        return this.add(func, data, options);
+    }
+    /**
+     * Adds unbinned likelihood fit of the function to the values.
+     * @param func function, has to be different for each job
+     * @param data values
+     * @param options fit options
+     * @return index of the job
+     */
+    public int addJob(Func1D func, DataVector data, String options){
+        return this.add(func, data, options);
+    }
+
+    private int add(Func1D func, Object data, String options){
+        jobFunctions.add(func);
+        jobData.add(data);
+        jobOptions.add(options);
+        return jobFunctions.size() - 1;
+    }
+
+    public int getNJobs(){ return this.jobFunctions.size();}
+
+    public void clear(){
+        jobFunctions.clear();
+        jobData.clear();
+        jobOptions.clear();
+    }
+    /**
+     * Sets number of threads used for fitting, default is number of
+     * available processors.
+     * @param threads number of threads
+     */
+    public void setParallelism(int threads){
+        this.parallelism = Math.max(1, threads);
+    }
+
+    public int getParallelism(){ return this.parallelism;}
+    /**
+     * Fits all jobs, jobs are kept in the batch (use clear() to remove them).
+     * @return results in the order of jobs
+     */
+    public List<FitResult> fit(){
+        int njobs = jobFunctions.size();
+        List<FitResult> results = new ArrayList<FitResult>();
+        if(parallelism==1||njobs<2){
+            for(int job = 0; job < njobs; job++) results.add(this.fit(job));
+            return results;
+        }
+        List<Callable<FitResult>> tasks = new ArrayList<Callable<FitResult>>();
+        for(int job = 0; job < njobs; job++){
+            final int index = job;
+            tasks.add(() -> this.fit(index));
+        }
+        ForkJoinPool pool = new ForkJoinPool(Math.min(parallelism, njobs));
+        try {
+            for(Future<FitResult> future : pool.invokeAll(tasks)){
+                results.add(future.get());
+            }
+        } catch (InterruptedException e){
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException("BatchFitter: fit was interrupted", e);
+        } catch (ExecutionException e){
+            throw new IllegalStateException("BatchFitter: fit failed", e.getCause());
+        } finally {
+            pool.shutdown();
+        }
+        return results;
+    }
+    /**
+     * Fits one job, exceptions during the fit are reported in the result.
+     * @param job index of the job
+     * @return fit result
+     */
+    public FitResult fit(int job){
+        Func1D func    = jobFunctions.get(job);
+        Object data    = jobData.get(job);
+        String options = jobOptions.get(job);
+        String name    = (data instanceof IDataSet) ? ((IDataSet) data).getName() : func.getName();
+        FitResult result = new FitResult(job, name, func);
+        long start = System.currentTimeMillis();
+        try {
+            FCNBase fcn;
+            if(data instanceof DataVector){
+                fcn = new UnbinnedFitterFunction(func, (DataVector) data, options);
+            } else {
+                fcn = new FitterFunction(func, (IDataSet) data, options);
+            }
+            MnMigrad migrad = DataFitter.createMigrad(func, fcn, DataFitter.getUserParameters(func));
+            FunctionMinimum min = migrad.minimize();
+            DataFitter.setParameters(func, min);
+            double[] pars = new double[func.getNPars()];
+            for(int p = 0; p < pars.length; p++) pars[p] = func.getParameter(p);
+            /* sets chi2 and ndf of the function for the final parameters */
+            double chi2 = fcn.valueOf(pars);
+            result.set(min.isValid(), chi2, func.getNDF(), min.edm(), min.nfcn());
+        } catch (RuntimeException e){
+            result.setError(e.getClass().getSimpleName() + " : " + e.getMessage());
+        }
+        result.setTime(System.currentTimeMillis() - start);
+        return result;
+    }
+}
@@ -8,16 +8,20 @@ package org.jlab.groot.fitter;
 
 import java.io.ByteArrayOutputStream;
 import java.io.PrintStream;
+import org.freehep.math.minuit.FCNBase;
 import org.freehep.math.minuit.FunctionMinimum;
 import org.freehep.math.minuit.MnMigrad;
 import org.freehep.math.minuit.MnScan;
+import org.freehep.math.minuit.MnUserCovariance;
 import org.freehep.math.minuit.MnUserParameters;
+import org.jlab.groot.data.DataVector;
 import org.jlab.groot.data.H1F;
 import org.jlab.groot.data.IDataSet;
 import org.jlab.groot.math.F1D;
 import org.jlab.groot.math.Func1D;
 import org.jlab.groot.math.FunctionFactory;
 import org.jlab.groot.math.UserParameter;
+import org.jlab.groot.tree.Tree;
 
 
 /**
@@ -27,12 +31,52 @@ import org.jlab.groot.math.UserParameter;
 public class DataFitter {
     
     public static Boolean FITPRINTOUT = true;
+    /* number of points (or values) above which the fit function is evaluated in parallel */
+    public static int     PARALLEL_POINTS = 100000;
     
     public DataFitter(){
         
     }
     
+    /**
+     * Fits the function to the data set, the minimized quantity is selected
+     * by options (see FitMethod): chi2 by default, "L" for Poisson likelihood
+     * of histogram bins. "Q" - quiet, "V" - verbose, "P" - evaluate the 
+     * function in parallel (done anyway for more than PARALLEL_POINTS points).
+     * @param func function to fit
+     * @param data data set
+     * @param options fit options
+     */
     public static void fit(Func1D func, IDataSet  data, String options){
+        FitterFunction funcFitter = new FitterFunction(func,
+                data,options);
+        DataFitter.fit(func, funcFitter, options);
+    }
+    /**
+     * Fits the shape of the function to the values with unbinned likelihood
+     * (see UnbinnedFitterFunction), values outside of the function range 
+     * are not used. A normalization parameter of the function should be fixed.
+     * @param func function to fit
+     * @param data values
+     * @param options fit options
+     */
+    public static void fit(Func1D func, DataVector data, String options){
+        UnbinnedFitterFunction funcFitter = new UnbinnedFitterFunction(func, data, options);
+        DataFitter.fit(func, funcFitter, options);
+    }
+    /**
+     * Fits the function to values of the tree branch with unbinned likelihood,
+     * only rows passing the cuts of the tree selector are used.
+     * @param func function to fit
+     * @param tree tree
+     * @param branch branch name
+     * @param options fit options
+     */
+    public static void fit(Func1D func, Tree tree, String branch, String options){
+        DataFitter.fit(func, tree.getDataVector(branch, tree.getSelector()), options);
+    }
+    
+    private static void fit(Func1D func, FCNBase funcFitter, String options){
         
         ByteArrayOutputStream pipeOut = new ByteArrayOutputStream();
         PrintStream  outStream = System.out;
@@ -50,23 +94,7 @@ public class DataFitter {
             System.setErr(pipeStream);
         }
         
-        FitterFunction funcFitter = new FitterFunction(func,
-                data,options);
-        
-        int npars = funcFitter.getFunction().getNPars();
-        
-        MnUserParameters upar = new MnUserParameters();
-        for(int loop = 0; loop < npars; loop++){
-            UserParameter par = funcFitter.getFunction().parameter(loop);
-            upar.add(par.name(),par.value(),0.0001);
-            if(par.getStep()<0.0000000001){
-                upar.fix(par.name());
-            }
-            if(par.min()>-1e9&&par.max()<1e9){
-                upar.setLimits(par.name(), par.min(), par.max());
-            }
-        }
-        
+        MnUserParameters upar = DataFitter.getUserParameters(func);
         
         MnScan  scanner = new MnScan(funcFitter,upar);
         FunctionMinimum scanmin = scanner.minimize(); 
@@ -79,16 +107,10 @@ public class DataFitter {
         System.out.println(upar);
         System.err.println("*******************************************");
         */
-        MnMigrad migrad = new MnMigrad(funcFitter, upar);
+        MnMigrad migrad = DataFitter.createMigrad(func, funcFitter, upar);
         FunctionMinimum min = migrad.minimize();
         
-        MnUserParameters userpar = min.userParameters();
-        
-        for(int loop = 0; loop < npars; loop++){
-            UserParameter par = funcFitter.getFunction().parameter(loop);
-            par.setValue(userpar.value(par.name()));
-            par.setError(userpar.error(par.name()));
-        }
+        DataFitter.setParameters(func, min);
         
         if(options.contains("V")==true){
             System.out.println(upar);
@@ -99,13 +121,136 @@ public class DataFitter {
             System.err.println(min);
         }
         
-        System.out.println(funcFitter.getBenchmarkString());
+        if(funcFitter instanceof FitterFunction){
+            System.out.println(((FitterFunction) funcFitter).getBenchmarkString());
+        }
+        if(funcFitter instanceof UnbinnedFitterFunction){
+            System.out.println(((UnbinnedFitterFunction) funcFitter).getBenchmarkString());
+        }
         if(DataFitter.FITPRINTOUT==false){
             System.setOut(outStream);
             System.setErr(errStream);
         }
     }
     
+    /**
+     * Creates Minuit parameters from the function parameters, parameters
+     * with zero step are fixed.
+     * @param func function
+     * @return Minuit parameters
+     */
+    static MnUserParameters getUserParameters(Func1D func){
+        MnUserParameters upar = new MnUserParameters();
+        for(int loop = 0; loop < func.getNPars(); loop++){
+            UserParameter par = func.parameter(loop);
+            upar.add(par.name(),par.value(),0.0001);
+            if(par.getStep()<0.0000000001){
+                upar.fix(par.name());
+            }
+            if(par.min()>-1e9&&par.max()<1e9){
+                upar.setLimits(par.name(), par.min(), par.max());
+            }
+        }
+        return upar;
+    }
+    /**
+     * Creates the minimizer for the fitter function. If the fitter function
+     * calculates its gradient from analytic derivatives of the function, 
+     * Minuit uses the gradient instead of numerical derivatives. Minuit then
+     * has no numerical second derivatives for the first step, the starting 
+     * errors are taken from approximate second derivatives of the fitter 
+     * function instead (see getCovariance()).
+     * @param func function
+     * @param funcFitter fitter function
+     * @param upar Minuit parameters (see getUserParameters())
+     * @return Minuit minimizer
+     */
+    static MnMigrad createMigrad(Func1D func, FCNBase funcFitter, MnUserParameters upar){
+        double[] curvature = null;
+        double[] pars = new double[func.getNPars()];
+        for(int p = 0; p < pars.length; p++) pars[p] = upar.value(p);
+        if(funcFitter instanceof FitterFunction&&((FitterFunction) funcFitter).hasGradient()){
+            curvature = ((FitterFunction) funcFitter).getCurvature(pars);
+        }
+        if(funcFitter instanceof UnbinnedFitterFunction&&((UnbinnedFitterFunction) funcFitter).hasGradient()){
+            curvature = ((UnbinnedFitterFunction) funcFitter).getCurvature(pars);
+        }
+        MnUserCovariance cov = (curvature==null) ? null 
+                : DataFitter.getCovariance(func, pars, curvature);
+        if(cov==null){
+            MnMigrad migrad = new MnMigrad(funcFitter, upar);
+            migrad.setUseAnalyticalDerivatives(false);
+            return migrad;
+        }
+        return new MnMigrad(funcFitter, upar, cov);
+    }
+    /**
+     * Returns diagonal covariance of the free parameters, 2 over the second
+     * derivative by each parameter (as Minuit starts from numerical second
+     * derivatives), in internal parameters of Minuit (parameters with limits
+     * are transformed as x = min + (max-min)*(sin(p)+1)/2). Returns null if
+     * a second derivative is not positive or a parameter is at its limit.
+     * @param func function
+     * @param pars parameter values
+     * @param curvature second derivatives by the parameters
+     * @return covariance or null
+     */
+    static MnUserCovariance getCovariance(Func1D func, double[] pars, double[] curvature){
+        double[] variance = new double[pars.length];
+        int nfree = 0;
+        for(int p = 0; p < pars.length; p++){
+            UserParameter par = func.parameter(p);
+            if(par.getStep()<0.0000000001) continue;
+            double derivative = 1.0;
+            if(par.min()>-1e9&&par.max()<1e9){
+                double z = 2.0*(pars[p] - par.min())/(par.max() - par.min()) - 1.0;
+                derivative = 0.5*(par.max() - par.min())*Math.sqrt(Math.max(0.0, 1.0 - z*z));
+            }
+            double second = curvature[p]*derivative*derivative;
+            if(!(second>0.0)||Double.isInfinite(second)) return null;
+            variance[nfree++] = 2.0/second;
+        }
+        if(nfree==0) return null;
+        MnUserCovariance cov = new MnUserCovariance(nfree);
+        for(int i = 0; i < nfree; i++) cov.set(i, i, variance[i]);
+        return cov;
+    }
+    /**
+     * Returns gradient of the fitter function from central differences,
+     * used by fitter functions for functions without analytic derivatives.
+     * @param funcFitter fitter function
+     * @param pars parameter values
+     * @return derivatives by the parameters
+     */
+    static double[] getNumericalGradient(FCNBase funcFitter, double[] pars){
+        double[] x    = pars.clone();
+        double[] grad = new double[pars.length];
+        for(int p = 0; p < pars.length; p++){
+            double step = 0.000001*Math.max(1.0, Math.abs(pars[p]));
+            x[p] = pars[p] + step;
+            double up = funcFitter.valueOf(x);
+            x[p] = pars[p] - step;
+            double down = funcFitter.valueOf(x);
+            x[p] = pars[p];
+            grad[p] = (up - down)/(2.0*step);
+        }
+        funcFitter.valueOf(pars);
+        return grad;
+    }
+    /**
+     * Sets values and errors of the function parameters from the minimum.
+     * @param func function
+     * @param min function minimum found by Minuit
+     */
+    static void setParameters(Func1D func, FunctionMinimum min){
+        MnUserParameters userpar = min.userParameters();
+        for(int loop = 0; loop < func.getNPars(); loop++){
+            UserParameter par = func.parameter(loop);
+            par.setValue(userpar.value(par.name()));
+            par.setError(userpar.error(par.name()));
+        }
+    }
+    
     public static void main(String[] args){
         H1F  h1 = FunctionFactory.randomGausian(80, 0.1, 0.8, 8000, 0.6, 0.1);
         H1F  h2 = FunctionFactory.randomGausian(80, 0.1, 0.8, 20000, 0.3, 0.05);
@@ -0,0 +1,35 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.fitter;
+
+/**
+ * Quantity minimized by the fit, decoded from the fit options.
+ * CHI2          - chi2 with errors of the data points (default).
+ * CHI2_FUNCTION - chi2 with the function value as variance (option "R").
+ * CHI2_DATA     - chi2 with the data value as variance (option "N").
+ * CHI2_UNIT     - sum of squared residuals, unit variance (option "W").
+ * LIKELIHOOD    - Poisson likelihood of histogram bins, including empty
+ *                 bins (option "L").
+ * UNBINNED_LIKELIHOOD - likelihood of individual values (option "U"), used
+ *                 for fits of DataVectors and tree branches.
+ * If several options are given "U" is used before "L", "L" before "W", 
+ * "W" before "N" and "N" before "R".
+ *
+ * @author gavalian
+ */
+public enum FitMethod {
+
+    CHI2, CHI2_FUNCTION, CHI2_DATA, CHI2_UNIT, LIKELIHOOD, UNBINNED_LIKELIHOOD;
+
+    public static FitMethod fromOptions(String options){
+        if(options.contains("U")==true) return UNBINNED_LIKELIHOOD;
+        if(options.contains("L")==true) return LIKELIHOOD;
+        if(options.contains("W")==true) return CHI2_UNIT;
+        if(options.contains("N")==true) return CHI2_DATA;
+        if(options.contains("R")==true) return CHI2_FUNCTION;
+        return CHI2;
+    }
+}
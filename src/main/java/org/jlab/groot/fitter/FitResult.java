@@ -0,0 +1,100 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.fitter;
+
+import java.util.Arrays;
+import org.jlab.groot.math.Func1D;
+
+/**
+ * Result of one fit of the BatchFitter: parameter values and errors,
+ * chi2 (or -2 ln L for likelihood fits), number of degrees of freedom,
+ * status of the minimum and number of function calls. If the fit failed
+ * with an exception the message is kept and the status is not valid.
+ *
+ * @author gavalian
+ */
+public class FitResult {
+
+    private final int      jobIndex;
+    private final String   jobName;
+    private final Func1D   function;
+    private boolean  isValid     = false;
+    private double[] parValues   = new double[0];
+    private double[] parErrors   = new double[0];
+    private double   chi2        = 0.0;
+    private int      ndf         = 0;
+    private double   edm         = 0.0;
+    private int      nCalls      = 0;
+    private long     fitTime     = 0L;
+    private String   errorMessage = null;
+
+    FitResult(int index, String name, Func1D func){
+        this.jobIndex = index;
+        this.jobName  = name;
+        this.function = func;
+    }
+
+    void set(boolean valid, double chi2, int ndf, double edm, int ncalls){
+        this.isValid = valid;
+        this.chi2    = chi2;
+        this.ndf     = ndf;
+        this.edm     = edm;
+        this.nCalls  = ncalls;
+        this.parValues = new double[function.getNPars()];
+        this.parErrors = new double[function.getNPars()];
+        for(int p = 0; p < parValues.length; p++){
+            parValues[p] = function.parameter(p).value();
+            parErrors[p] = function.parameter(p).error();
+        }
+    }
+
+    void setError(String message){
+        this.isValid = false;
+        this.errorMessage = message;
+    }
+
+    void setTime(long time){ this.fitTime = time;}
+    /**
+     * @return index of the job in the order jobs were added
+     */
+    public int      getIndex(){ return this.jobIndex;}
+    /**
+     * @return name of the data set of the job
+     */
+    public String   getName(){ return this.jobName;}
+    public Func1D   getFunction(){ return this.function;}
+    public boolean  isValid(){ return this.isValid;}
+    public int      getNPars(){ return this.parValues.length;}
+    public double   getParameter(int par){ return this.parValues[par];}
+    public double   getParameterError(int par){ return this.parErrors[par];}
+    public double[] getParameters(){ return Arrays.copyOf(parValues, parValues.length);}
+    public double[] getParameterErrors(){ return Arrays.copyOf(parErrors, parErrors.length);}
+    public double   getChiSquare(){ return this.chi2;}
+    public int      getNDF(){ return this.ndf;}
+    public double   getEDM(){ return this.edm;}
+    public int      getNCalls(){ return this.nCalls;}
+    /**
+     * @return time of the fit in milliseconds
+     */
+    public long     getTime(){ return this.fitTime;}
+    /**
+     * @return message of the exception if the fit failed, null otherwise
+     */
+    public String   getErrorMessage(){ return this.errorMessage;}
+
+    @Override
+    public String toString(){
+        StringBuilder str = new StringBuilder();
+        str.append(String.format("[fit-result] %4d %-20s valid = %5s chi2/ndf = %12.4f / %6d calls = %5d",
+                jobIndex, jobName, isValid, chi2, ndf, nCalls));
+        for(int p = 0; p < parValues.length; p++){
+            str.append(String.format(" %s = %g +/- %g", function.parameter(p).name(),
+                    parValues[p], parErrors[p]));
+        }
+        if(errorMessage!=null) str.append(" error : ").append(errorMessage);
+        return str.toString();
+    }
+}
@@ -6,106 +6,313 @@
 
 package org.jlab.groot.fitter;
 
-import org.freehep.math.minuit.FCNBase;
+import org.freehep.math.minuit.FCNGradientBase;
 import org.jlab.groot.data.H1F;
 import org.jlab.groot.data.IDataSet;
+import org.jlab.groot.math.F1D;
 import org.jlab.groot.math.Func1D;
 
 
 /**
+ * Chi2 (or binned likelihood) of the data set for the function, minimized
+ * by Minuit. For F1D functions with analytic parameter derivatives (see
+ * F1D.hasGradient()) the gradient of the chi2 is calculated from them,
+ * otherwise gradient() uses numerical derivatives and DataFitter lets 
+ * Minuit calculate the derivatives.
  *
  * @author gavalian
  */
-public class FitterFunction implements FCNBase {
+public class FitterFunction implements FCNGradientBase {
    
     private Func1D    function = null;
     private IDataSet  dataset  = null;
-    private String    fitOptions = "";
+    private FitMethod fitMethod  = FitMethod.CHI2;
     private int       numberOfCalls = 0;
     private long      startTime     = 0L;
     private long      endTime       = 0L;
+    /* points used in the fit, taken from the data set once per fit method */
+    private FitMethod pointMethod = null;
+    private int       nPoints     = 0;
+    private double[]  pointX      = new double[0];
+    private double[]  pointY      = new double[0];
+    private double[]  pointNorm   = new double[0];
+    /* sum of n*ln(n) - n of all points for the likelihood */
+    private double    pointConstant = 0.0;
+    private boolean   parallelOption = false;
+    private int       parallelPoints = DataFitter.PARALLEL_POINTS;
     
     public FitterFunction(Func1D func, IDataSet data){        
-        dataset  = data;
-        function = func;
-        if(data instanceof H1F){
-            H1F h = (H1F) data;
-            h.setFunction(func);
-        }
-        startTime = System.currentTimeMillis();
+        this(func, data, "");
     }
     
     public FitterFunction(Func1D func, IDataSet data,String options){
         dataset    = data;
         function   = func;
-        fitOptions = options; 
+        fitMethod  = FitMethod.fromOptions(options);
+        parallelOption = options.contains("P");
+        if(fitMethod==FitMethod.UNBINNED_LIKELIHOOD){
+            System.out.println("[FitterFunction] warning : ---> unbinned fit is not possible for "
+                    + data.getName() + ", using binned likelihood.");
+            fitMethod = FitMethod.LIKELIHOOD;
+        }
         if(data instanceof H1F){
             H1F h = (H1F) data;
             h.setFunction(func);
         }
+        this.loadPoints(fitMethod);
         startTime = System.currentTimeMillis();
     }
     
     public Func1D getFunction(){return function;}
     
+    public FitMethod getFitMethod(){ return fitMethod;}
+    
     @Override
     public double valueOf(double[] pars) {
-        double chi2 = 0.0;
-        function.setParameters(pars);        
-        chi2 = getChi2(pars,fitOptions);
+        double chi2 = getChi2(pars,fitMethod);
         numberOfCalls++;
         this.function.setChiSquare(chi2);
         endTime = System.currentTimeMillis();
-        /*
-        if(numberOfCalls%10==0){
-            System.out.println("********************************************************");
-            System.out.println( " Number of calls =  " + numberOfCalls + " CHI 2 " + chi2);
-            function.show();
-        }*/
-        //function.show();
-        //System.err.println("\n************ CHI 2 = " + chi2);
         return chi2;        
     }
     
-    
-    public double getChi2(double[] pars, String options){
-        
-        double chi2 = 0.0;
+    /**
+     * Copies points of the data set inside the function range into arrays,
+     * empty bins of histograms are skipped for chi2 (the likelihood uses
+     * them). For fit methods with fixed variance the variance is stored 
+     * with the point and points with zero variance are dropped.
+     * @param method fit method
+     */
+    void loadPoints(FitMethod method){
         int npoints = dataset.getDataSize(0);
-        function.setParameters(pars);
-        int ndf = 0;
+        boolean isHistogram = (dataset instanceof H1F);
+        double min = function.getMin();
+        double max = function.getMax();
+        pointX    = new double[npoints];
+        pointY    = new double[npoints];
+        pointNorm = new double[npoints];
+        nPoints   = 0;
+        pointConstant = 0.0;
         for(int np = 0; np < npoints; np++){
             double x = dataset.getDataX(np);
             double y = dataset.getDataY(np);
-            double yerr = dataset.getDataEY(np);
-            boolean usePoint = true;
-            if(dataset instanceof H1F&&y==0){
-            	usePoint = false;
+            if(method==FitMethod.LIKELIHOOD){
+                if(x<min||x>max||y<0) continue;
+                pointX[nPoints] = x;
+                pointY[nPoints] = y;
+                if(y>0) pointConstant += y*Math.log(y) - y;
+                nPoints++;
+                continue;
             }
-            if(x>=function.getMin()&&x<=function.getMax()&&usePoint){
-                double yv = function.evaluate(x);
-                double normalization = yerr*yerr;                
-                if(options.contains("R")==true){
-                    normalization = yv;
-                }
-                
-                if(options.contains("N")==true){
-                    normalization = y;
+            if(isHistogram==true&&y==0) continue;
+            if(x<min||x>max) continue;
+            double normalization;
+            switch(method){
+                case CHI2_UNIT : normalization = 1.0; break;
+                case CHI2_DATA : normalization = y; break;
+                case CHI2_FUNCTION : normalization = 1.0; break; // function value, checked in getChi2()
+                default : double yerr = dataset.getDataEY(np);
+                          normalization = yerr*yerr; break;
+            }
+            if(normalization>0.000000000001){
+                pointX[nPoints]    = x;
+                pointY[nPoints]    = y;
+                pointNorm[nPoints] = normalization;
+                nPoints++;
+            }
+        }
+        pointMethod = method;
+    }
+    
+    public double getChi2(double[] pars, String options){
+        return this.getChi2(pars, FitMethod.fromOptions(options));
+    }
+    
+    /**
+     * Returns chi2 of the data points for the fit method, for the likelihood
+     * it returns the likelihood ratio chi2 (-2 ln of the ratio of likelihoods
+     * of the function and of the data, Baker and Cousins), which is used 
+     * as chi2 of the fit.
+     * @param pars parameter values
+     * @param method fit method
+     * @return chi2
+     */
+    public double getChi2(double[] pars, FitMethod method){
+        if(method!=pointMethod) this.loadPoints(method);
+        function.setParameters(pars);
+        double[] result;
+        if(this.isParallel()==true){
+            result = ParallelSum.invoke((F1D) function, nPoints, this::getPartialSum);
+        } else {
+            result = this.getPartialSum(0, nPoints, null);
+        }
+        double chi2 = result[0];
+        if(method==FitMethod.LIKELIHOOD){
+            chi2 = 2.0*(chi2 + pointConstant);
+        }
+        int npars = function.getNPars();
+        this.function.setNDF((int) result[1] - npars);
+        return chi2;
+    }
+    
+    /**
+     * @return true if the gradient is calculated from analytic derivatives 
+     * of the function
+     */
+    public boolean hasGradient(){
+        return (function instanceof F1D)&&((F1D) function).hasGradient();
+    }
+    
+    @Override
+    public double[] gradient(double[] pars){
+        if(this.hasGradient()==false) return DataFitter.getNumericalGradient(this, pars);
+        if(fitMethod!=pointMethod) this.loadPoints(fitMethod);
+        function.setParameters(pars);
+        double[] result;
+        if(this.isParallel()==true){
+            result = ParallelSum.invoke((F1D) function, nPoints, this::getPartialGradient);
+        } else {
+            result = this.getPartialGradient(0, nPoints, ((F1D) function).createSlots());
+        }
+        if(pointMethod==FitMethod.LIKELIHOOD){
+            for(int p = 0; p < result.length; p++) result[p] *= 2.0;
+        }
+        return result;
+    }
+    
+    /**
+     * Sums derivatives of chi2 (or likelihood) terms by the parameters for 
+     * points from start to end (exclusive), same terms as getPartialSum().
+     * @return gradient of the partial sum
+     */
+    double[] getPartialGradient(int start, int end, double[] slots){
+        F1D f1d = (F1D) function;
+        double[] grad   = new double[function.getNPars()];
+        double[] fgrad  = new double[function.getNPars()];
+        double   eps    = 0.000000000001;
+        for(int np = start; np < end; np++){
+            double yv = f1d.evaluate(pointX[np], slots, fgrad);
+            double n  = pointY[np];
+            double weight;
+            if(pointMethod==FitMethod.LIKELIHOOD){
+                if(yv>eps){
+                    weight = 1.0 - n/yv;
+                } else if(n>0){
+                    weight = 1.0 - n/eps;
+                } else {
+                    weight = Math.signum(yv);
                 }
-                
-                if(options.contains("W")==true){
-                	normalization = 1.0;
+            } else if(pointMethod==FitMethod.CHI2_FUNCTION){
+                if(yv<=eps) continue;
+                weight = 1.0 - n*n/(yv*yv);
+            } else {
+                weight = 2.0*(yv - n)/pointNorm[np];
+            }
+            for(int p = 0; p < grad.length; p++) grad[p] += weight*fgrad[p];
+        }
+        return grad;
+    }
+    
+    /**
+     * Returns approximate second derivatives of the chi2 by each parameter
+     * from first derivatives of the function (Gauss-Newton approximation,
+     * for the likelihood the expected value), used for the starting 
+     * errors of the minimization with analytic gradient.
+     * @param pars parameter values
+     * @return second derivatives by the parameters
+     */
+    public double[] getCurvature(double[] pars){
+        if(fitMethod!=pointMethod) this.loadPoints(fitMethod);
+        function.setParameters(pars);
+        F1D f1d = (F1D) function;
+        int npars = function.getNPars();
+        double[] curvature = new double[npars];
+        double[] slots = f1d.createSlots();
+        double[] fgrad = new double[npars];
+        for(int np = 0; np < nPoints; np++){
+            double yv = f1d.evaluate(pointX[np], slots, fgrad);
+            double weight;
+            if(pointMethod==FitMethod.LIKELIHOOD||pointMethod==FitMethod.CHI2_FUNCTION){
+                if(yv<=0.000000000001) continue;
+                weight = 2.0/yv;
+            } else {
+                weight = 2.0/pointNorm[np];
+            }
+            for(int p = 0; p < npars; p++) curvature[p] += weight*fgrad[p]*fgrad[p];
+        }
+        return curvature;
+    }
+    
+    private double evaluate(double x, double[] slots){
+        if(slots==null) return function.evaluate(x);
+        return ((F1D) function).evaluate(x, slots);
+    }
+    
+    /**
+     * Sums chi2 (or likelihood) terms of points from start to end (exclusive) 
+     * in the order of points, the function is evaluated with given slots 
+     * or through Func1D.evaluate() if slots are null.
+     * @return {sum, number of points used}
+     */
+    double[] getPartialSum(int start, int end, double[] slots){
+        double sum = 0.0;
+        int count = end - start;
+        if(pointMethod==FitMethod.LIKELIHOOD){
+            for(int np = start; np < end; np++){
+                double mu = this.evaluate(pointX[np], slots);
+                double n  = pointY[np];
+                if(mu>0.000000000001){
+                    sum += mu;
+                    if(n>0) sum -= n*Math.log(mu);
+                } else if(n>0){
+                    /* linear continuation below the smallest value, pushes the 
+                       minimizer back to positive values of the function */
+                    double eps = 0.000000000001;
+                    sum += eps - n*Math.log(eps) + (eps - mu)*(n/eps - 1.0);
+                } else {
+                    sum += Math.abs(mu);
                 }
-                                
-                if(normalization>0.000000000001){                    
-                    chi2 += (yv-y)*(yv-y)/normalization;
-                    ndf++;
+            }
+        } else if(pointMethod==FitMethod.CHI2_FUNCTION){
+            count = 0;
+            for(int np = start; np < end; np++){
+                double yv = this.evaluate(pointX[np], slots);
+                if(yv>0.000000000001){
+                    double residual = yv - pointY[np];
+                    sum += residual*residual/yv;
+                    count++;
                 }
             }
+        } else {
+            for(int np = start; np < end; np++){
+                double residual = this.evaluate(pointX[np], slots) - pointY[np];
+                sum += residual*residual/pointNorm[np];
+            }
         }
-        int npars = function.getNPars();
-        this.function.setNDF(ndf-npars);
-        return chi2;
+        return new double[]{sum, count};
+    }
+    
+    /**
+     * Sets the number of points above which the sum over points is evaluated
+     * in parallel (see ParallelSum), the default is DataFitter.PARALLEL_POINTS.
+     * @param npoints number of points
+     */
+    public void setParallelPoints(int npoints){
+        this.parallelPoints = npoints;
+    }
+    
+    public int getParallelPoints(){ return this.parallelPoints;}
+    
+    /**
+     * The sum is evaluated in parallel with option "P" or if the number of
+     * points is above the limit, only for functions that can be evaluated 
+     * from several threads (F1D in compiled mode).
+     * @return true if the sum is evaluated in parallel
+     */
+    public boolean isParallel(){
+        if(nPoints<=ParallelSum.PARTITION_SIZE) return false;
+        if(parallelOption==false&&nPoints<parallelPoints) return false;
+        return (function instanceof F1D)&&((F1D) function).isThreadSafe();
     }
     
     public String getBenchmarkString(){
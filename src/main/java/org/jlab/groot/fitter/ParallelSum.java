@@ -0,0 +1,73 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.fitter;
+
+import java.util.concurrent.RecursiveTask;
+import org.jlab.groot.math.F1D;
+
+/**
+ * Fork-join evaluation of sums over fit points (chi2 or likelihood terms).
+ * The points are split in halves until parts have at most PARTITION_SIZE
+ * points, each part is summed in order of the points with its own slots
+ * of the function, and partial sums are added pairwise (first part first).
+ * The partitions depend only on the number of points, not on the number
+ * of threads or scheduling, so the result is reproducible.
+ *
+ * @author gavalian
+ */
+final class ParallelSum {
+
+    static final int PARTITION_SIZE = 4096;
+
+    private ParallelSum(){}
+
+    /**
+     * Sum of the points from start to end (exclusive), returned as
+     * {sum, number of points used} (or as gradient of the sum, the
+     * partial results are added element by element).
+     */
+    interface Partial {
+        double[] sum(int start, int end, double[] slots);
+    }
+
+    static double[] invoke(F1D function, int npoints, Partial partial){
+        return new SumTask(function, partial, 0, npoints).invoke();
+    }
+
+    static class SumTask extends RecursiveTask<double[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final F1D     function;
+        private final Partial partial;
+        private final int     start;
+        private final int     end;
+
+        SumTask(F1D function, Partial partial, int start, int end){
+            this.function = function;
+            this.partial  = partial;
+            this.start    = start;
+            this.end      = end;
+        }
+
+        @Override
+        protected double[] compute() {
+            if(end-start<=PARTITION_SIZE){
+                return partial.sum(start, end, function.createSlots());
+            }
+            int middle = (start + end) >>> 1;
+            SumTask left  = new SumTask(function, partial, start, middle);
+            SumTask right = new SumTask(function, partial, middle, end);
+            left.fork();
+            double[] rightResult = right.compute();
+            double[] leftResult  = left.join();
+            for(int i = 0; i < leftResult.length; i++){
+                leftResult[i] += rightResult[i];
+            }
+            return leftResult;
+        }
+    }
+}
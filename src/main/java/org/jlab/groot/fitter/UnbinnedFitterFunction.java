@@ -0,0 +1,269 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+
+package org.jlab.groot.fitter;
+
+import java.util.Arrays;
+import org.freehep.math.minuit.FCNGradientBase;
+import org.jlab.groot.data.DataVector;
+import org.jlab.groot.math.F1D;
+import org.jlab.groot.math.Func1D;
+
+/**
+ * Unbinned maximum likelihood function, minimizes
+ * -2 ln L = -2 sum ln( f(x)/I ) over the values inside the function range,
+ * where I is the integral of the function over its range. The function
+ * only gives the shape, its overall normalization does not change the
+ * likelihood, so a normalization parameter should be fixed.
+ *
+ * The integral is calculated with Simpson's rule and is cached for the
+ * last parameter values. For F1D functions with analytic parameter 
+ * derivatives the gradient of the likelihood is calculated from them
+ * (the gradient of the integral with the same Simpson's rule).
+ *
+ * @author gavalian
+ */
+public class UnbinnedFitterFunction implements FCNGradientBase {
+
+    public static final int DEFAULT_INTEGRAL_STEPS = 1000;
+
+    private Func1D    function = null;
+    private double[]  values   = new double[0];
+    private int       integralSteps  = DEFAULT_INTEGRAL_STEPS;
+    private double[]  integralPars   = null;
+    private double    integralValue  = 0.0;
+    private boolean   parallelOption = false;
+    private int       parallelPoints = DataFitter.PARALLEL_POINTS;
+    private int       numberOfCalls = 0;
+    private long      startTime     = 0L;
+    private long      endTime       = 0L;
+
+    public UnbinnedFitterFunction(Func1D func, DataVector data){
+        this(func, data, "");
+    }
+    /**
+     * Creates the likelihood function, with option "P" the likelihood is
+     * always evaluated in parallel (see setParallelPoints()).
+     * @param func function
+     * @param data values
+     * @param options fit options
+     */
+    public UnbinnedFitterFunction(Func1D func, DataVector data, String options){
+        function = func;
+        parallelOption = options.contains("P");
+        this.loadValues(data);
+        startTime = System.currentTimeMillis();
+    }
+
+    public Func1D getFunction(){return function;}
+    /**
+     * Copies values of the vector inside the function range into an array.
+     */
+    private void loadValues(DataVector data){
+        double min = function.getMin();
+        double max = function.getMax();
+        double[] array = new double[data.getSize()];
+        int count = 0;
+        for(int i = 0; i < data.getSize(); i++){
+            double x = data.getValue(i);
+            if(x>=min&&x<=max) array[count++] = x;
+        }
+        values = Arrays.copyOf(array, count);
+    }
+
+    public int getNValues(){ return this.values.length;}
+
+    public void setIntegralSteps(int steps){
+        this.integralSteps = Math.max(2, steps + (steps%2));
+        this.integralPars  = null;
+    }
+    /**
+     * Returns integral of the function over its range for given parameters,
+     * the integral is recalculated only when the parameters change.
+     * @param pars parameter values
+     * @return integral of the function
+     */
+    public double getIntegral(double[] pars){
+        if(integralPars!=null&&Arrays.equals(pars, integralPars)==true){
+            return integralValue;
+        }
+        function.setParameters(pars);
+        double min  = function.getMin();
+        double step = (function.getMax() - min)/integralSteps;
+        double sum  = function.evaluate(min) + function.evaluate(function.getMax());
+        for(int i = 1; i < integralSteps; i++){
+            sum += ((i%2==1) ? 4.0 : 2.0)*function.evaluate(min + i*step);
+        }
+        integralValue = sum*step/3.0;
+        integralPars  = Arrays.copyOf(pars, pars.length);
+        return integralValue;
+    }
+
+    @Override
+    public double valueOf(double[] pars) {
+        double likelihood = this.getLikelihood(pars);
+        numberOfCalls++;
+        this.function.setChiSquare(likelihood);
+        endTime = System.currentTimeMillis();
+        return likelihood;
+    }
+    /**
+     * Returns -2 ln L. Below a small positive value the logarithm of the 
+     * function is continued linearly, so values where the function is not
+     * positive push the minimizer back.
+     * @param pars parameter values
+     * @return -2 ln L
+     */
+    public double getLikelihood(double[] pars){
+        double integral = this.getIntegral(pars);
+        function.setParameters(pars);
+        this.function.setNDF(values.length - function.getNPars());
+        if(integral<=0) return 1.0e30;
+        double[] result;
+        if(this.isParallel()==true){
+            result = ParallelSum.invoke((F1D) function, values.length, this::getPartialSum);
+        } else {
+            result = this.getPartialSum(0, values.length, null);
+        }
+        return -2.0*(result[0] - values.length*Math.log(integral));
+    }
+    /**
+     * Sums logarithms of the function for values from start to end 
+     * (exclusive), with given slots or through Func1D.evaluate() if
+     * slots are null.
+     * @return {sum, number of values}
+     */
+    double[] getPartialSum(int start, int end, double[] slots){
+        double eps = 0.000000000001;
+        double sum = 0.0;
+        for(int i = start; i < end; i++){
+            double f = (slots==null) ? function.evaluate(values[i]) 
+                    : ((F1D) function).evaluate(values[i], slots);
+            if(f>eps){
+                sum += Math.log(f);
+            } else {
+                sum += Math.log(eps) + (f - eps)/eps;
+            }
+        }
+        return new double[]{sum, end - start};
+    }
+
+    /**
+     * @return true if the gradient is calculated from analytic derivatives 
+     * of the function
+     */
+    public boolean hasGradient(){
+        return (function instanceof F1D)&&((F1D) function).hasGradient();
+    }
+    /**
+     * Returns gradient of -2 ln L: -2*( sum df/f - n*dI/I ).
+     * @param pars parameter values
+     * @return derivatives by the parameters
+     */
+    @Override
+    public double[] gradient(double[] pars){
+        if(this.hasGradient()==false) return DataFitter.getNumericalGradient(this, pars);
+        double integral = this.getIntegral(pars);
+        function.setParameters(pars);
+        F1D f1d = (F1D) function;
+        double[] result;
+        if(this.isParallel()==true){
+            result = ParallelSum.invoke(f1d, values.length, this::getPartialGradient);
+        } else {
+            result = this.getPartialGradient(0, values.length, f1d.createSlots());
+        }
+        double[] igrad = this.getIntegralGradient();
+        for(int p = 0; p < result.length; p++){
+            result[p] = -2.0*(result[p] - values.length*igrad[p]/integral);
+        }
+        return result;
+    }
+    /**
+     * Returns derivatives of the integral by the parameters for the current
+     * parameters of the function, with the same Simpson's rule as the integral.
+     */
+    private double[] getIntegralGradient(){
+        F1D f1d = (F1D) function;
+        double[] slots = f1d.createSlots();
+        double[] fgrad = new double[function.getNPars()];
+        double[] igrad = new double[function.getNPars()];
+        double min  = function.getMin();
+        double step = (function.getMax() - min)/integralSteps;
+        for(int i = 0; i <= integralSteps; i++){
+            double weight = (i==0||i==integralSteps) ? 1.0 : ((i%2==1) ? 4.0 : 2.0);
+            f1d.evaluate(min + i*step, slots, fgrad);
+            for(int p = 0; p < igrad.length; p++) igrad[p] += weight*fgrad[p]*step/3.0;
+        }
+        return igrad;
+    }
+    /**
+     * Returns approximate second derivatives of -2 ln L by each parameter,
+     * 2*sum s^2 where s is the derivative of ln(f/I) for each value, used 
+     * for the starting errors of the minimization with analytic gradient.
+     * @param pars parameter values
+     * @return second derivatives by the parameters
+     */
+    public double[] getCurvature(double[] pars){
+        double integral = this.getIntegral(pars);
+        function.setParameters(pars);
+        F1D f1d = (F1D) function;
+        int npars = function.getNPars();
+        double[] slots = f1d.createSlots();
+        double[] fgrad = new double[npars];
+        double[] igrad = this.getIntegralGradient();
+        double[] curvature = new double[npars];
+        for(int i = 0; i < values.length; i++){
+            double f = f1d.evaluate(values[i], slots, fgrad);
+            if(f<=0.000000000001) continue;
+            for(int p = 0; p < npars; p++){
+                double score = fgrad[p]/f - igrad[p]/integral;
+                curvature[p] += 2.0*score*score;
+            }
+        }
+        return curvature;
+    }
+    /**
+     * Sums derivatives of logarithms of the function by the parameters
+     * for values from start to end (exclusive).
+     * @return gradient of the partial sum
+     */
+    double[] getPartialGradient(int start, int end, double[] slots){
+        double eps = 0.000000000001;
+        F1D f1d = (F1D) function;
+        double[] grad  = new double[function.getNPars()];
+        double[] fgrad = new double[function.getNPars()];
+        for(int i = start; i < end; i++){
+            double f = f1d.evaluate(values[i], slots, fgrad);
+            double weight = (f>eps) ? 1.0/f : 1.0/eps;
+            for(int p = 0; p < grad.length; p++) grad[p] += weight*fgrad[p];
+        }
+        return grad;
+    }
+
+    public void setParallelPoints(int npoints){
+        this.parallelPoints = npoints;
+    }
+
+    public int getParallelPoints(){ return this.parallelPoints;}
+    /**
+     * Same as FitterFunction.isParallel(), for the number of values.
+     * @return true if the likelihood is evaluated in parallel
+     */
+    public boolean isParallel(){
+        if(values.length<=ParallelSum.PARTITION_SIZE) return false;
+        if(parallelOption==false&&values.length<parallelPoints) return false;
+        return (function instanceof F1D)&&((F1D) function).isThreadSafe();
+    }
+
+    public String getBenchmarkString(){
+        StringBuilder str = new StringBuilder();
+        double time = (double) (endTime-startTime);
+        str.append(String.format("[fit-benchmark] Time = %.3f , Iterrations = %d"
+                , time/1000.0,
+                this.numberOfCalls));
+        return str.toString();
+    }
+}
@@ -126,6 +126,24 @@ public class DataGroup {
     
     
     
+    /**
+     * Returns all data sets of the group in the order they were added.
+     * @return list of data sets
+     */
+    public List<IDataSet>  getData(){
+        return new ArrayList<IDataSet>(dataGroup.values());
+    }
+    /**
+     * Returns the order (pad index) of the data set, -1 if it is not
+     * in the group.
+     * @param name data set name
+     * @return order of the data set
+     */
+    public int getOrder(String name){
+        Integer order = dataGroupOrder.get(name);
+        return (order==null) ? -1 : order;
+    }
+    
     public List<IDataSet>  getData(int order){
         List<IDataSet> dataList = new ArrayList<IDataSet>();
         for(Map.Entry<String,Integer> entry : dataGroupOrder.entrySet()){
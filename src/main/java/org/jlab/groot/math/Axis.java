@@ -16,6 +16,8 @@ public class Axis implements Serializable {
         private String axisTitle = "x";
 	private double minVal;
 	private double maxVal;
+	private boolean isUniform = false;
+	private double binWidthInverse = 0.0;
 	
 	/**
 	 * Creates a default axis with 1 bin, a minimum value of 0, and maximum
@@ -62,6 +64,8 @@ public class Axis implements Serializable {
         numBins = axisMargins.length - 1;
         minVal = axisMargins[0];
         maxVal = axisMargins[numBins];
+        isUniform = false;
+        binWidthInverse = 0.0;
 	}
 	
 	/**
@@ -89,6 +93,18 @@ public class Axis implements Serializable {
 		for (int i=0; i<=bins; i++) {
                     axisMargins[i] = minVal + i*binWidth;
 		}
+		isUniform = binWidth > 0.0;
+		binWidthInverse = isUniform ? 1.0/binWidth : 0.0;
+	}
+	
+	/**
+	 * Returns true if the axis was created with equal bin widths
+	 * (using number of bins, min and max). 
+	 * 
+	 * @return		true if all bins have the same width
+	 */
+	public boolean isUniform() {
+		return isUniform;
 	}
 	/**
 	 * A getter for the array of bin limits
@@ -171,17 +187,39 @@ public class Axis implements Serializable {
      */
     public int getBin(double xVal) {
         if(xVal<axisMargins[0]) return -1;
-    	for (int i = 0; i < numBins; i++) {
-    		if ((xVal >= axisMargins[i] && xVal < axisMargins[i+1])) {
-    			return i;
-    		}
-    	}
-    	/*
-    	if (xVal == axisMargins[axisMargins.length - 1]) {
-    		return numBins;
-    	}*/
+        // values above the last margin (or NaN) go to the overflow
+        if(!(xVal<axisMargins[numBins])) return numBins;
         
-    	return numBins;
+        if(isUniform==true){
+            int bin = (int) ((xVal - minVal)*binWidthInverse);
+            if(bin>=numBins) bin = numBins - 1;
+            /**
+             * the arithmetic bin can be off by one at the bin edges due
+             * to rounding, correct it against the stored margins so the 
+             * result is identical to the margin comparison.
+             */
+            if(xVal<axisMargins[bin]){
+                bin--;
+            } else if(xVal>=axisMargins[bin+1]){
+                bin++;
+            }
+            return bin;
+        }
+        /**
+         * variable bin widths: binary search for the last margin
+         * which is smaller or equal to the value.
+         */
+        int low  = 0;
+        int high = numBins - 1;
+        while(low<high){
+            int mid = (low + high + 1) >>> 1;
+            if(axisMargins[mid]<=xVal){
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
     }
     
     /**
@@ -0,0 +1,758 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.math;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.Map;
+import java.util.Set;
+import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
+import net.objecthunter.exp4j.shuntingyard.ShuntingYard;
+import net.objecthunter.exp4j.tokenizer.FunctionToken;
+import net.objecthunter.exp4j.tokenizer.NumberToken;
+import net.objecthunter.exp4j.tokenizer.OperatorToken;
+import net.objecthunter.exp4j.tokenizer.Token;
+import net.objecthunter.exp4j.tokenizer.VariableToken;
+
+/**
+ * Expression parsed once by exp4j and compiled into a tree of nodes.
+ * Variables are resolved to indices (slots) in an array of values
+ * that is passed to evaluate(), so no lookup by name is done during
+ * evaluation. Constant sub-expressions are folded, arithmetic operators,
+ * the exp4j built-in functions and the functions gaus, landau, exp,
+ * erf and logb (as defined in F1D) are evaluated directly without
+ * allocating argument arrays. Operators with symbols &gt;, &lt;, ==,
+ * &amp;&amp;, ||, &amp; and | are taken as comparisons and logical operators 
+ * returning 1 or 0 (as defined in TreeCut), the logical operators evaluate 
+ * the right side only if the left side does not decide the result. Other 
+ * functions and operators are called through their apply() method.
+ *
+ * Derivatives by a variable are evaluated symbolically from the tree
+ * (chain rule through the nodes), sub-expressions that do not depend on
+ * the variable are skipped. Derivatives are known for the arithmetic 
+ * operators, the built-in functions of one argument, pow, logb, gaus and 
+ * landau; comparisons, logical operators, floor, ceil and signum have 
+ * zero derivative. Other functions and operators have no derivative
+ * (see hasDerivative()).
+ *
+ * The compiled expression does not keep state, it can be evaluated
+ * from many threads with different slot arrays.
+ *
+ * @author gavalian
+ */
+public class CompiledExpression {
+
+    private final String   expressionString;
+    private final String[] slotNames;
+    private final Node     root;
+
+    /**
+     * Compiles the expression with given variable names, the variable
+     * with index i in the array is read from slot i.
+     * @param expression expression string
+     * @param variables names of the variables
+     */
+    public CompiledExpression(String expression, String[] variables){
+        this(expression, variables, new HashMap<String,Function>(),
+                new HashMap<String,Operator>());
+    }
+    /**
+     * Compiles the expression with given variable names, custom functions
+     * and operators (same as used with exp4j ExpressionBuilder).
+     * @param expression expression string
+     * @param variables names of the variables
+     * @param functions custom functions by name
+     * @param operators custom operators by symbol
+     */
+    public CompiledExpression(String expression, String[] variables,
+            Map<String,Function> functions, Map<String,Operator> operators){
+        this.expressionString = expression;
+        this.slotNames = variables.clone();
+        Set<String> names = new LinkedHashSet<String>();
+        for(String name : variables) names.add(name);
+        Token[] tokens = ShuntingYard.convertToRPN(expression, functions, operators, names);
+        this.root = this.compile(tokens);
+    }
+
+    public String getExpression(){ return this.expressionString;}
+
+    public int getNSlots(){ return this.slotNames.length;}
+    /**
+     * Returns the slot index of the variable.
+     * @param name variable name
+     * @return index in the slot array, -1 if there is no such variable
+     */
+    public int getSlot(String name){
+        for(int i = 0; i < slotNames.length; i++){
+            if(slotNames[i].equals(name)) return i;
+        }
+        return -1;
+    }
+    /**
+     * Evaluates the expression.
+     * @param slots values of the variables in the order given at construction
+     * @return value of the expression
+     */
+    public double evaluate(double[] slots){
+        return this.root.eval(slots);
+    }
+
+    /**
+     * Returns bounds of the expression value for variables within given
+     * ranges (interval arithmetic). Variables with NaN bounds are taken as
+     * unknown. The bounds are conservative: functions that are not handled
+     * give the full range. Comparisons and logical operators give [0,1] 
+     * unless the result is the same for all values in the ranges.
+     * @param min lower bounds of the variables (by slot)
+     * @param max upper bounds of the variables (by slot)
+     * @return array with the lower and the upper bound
+     */
+    public double[] evaluateRange(double[] min, double[] max){
+        double[] out = new double[3];
+        this.root.range(min, max, out);
+        return new double[]{out[0], out[1]};
+    }
+    /**
+     * Checks if the expression can be positive (as required for a cut
+     * to pass) for variables within given ranges.
+     * @param min lower bounds of the variables (by slot)
+     * @param max upper bounds of the variables (by slot)
+     * @return false if the expression is not positive for any values
+     */
+    public boolean mayBePositive(double[] min, double[] max){
+        return this.evaluateRange(min, max)[1]>0.0;
+    }
+    /**
+     * Checks if the derivative by the variable in the slot can be 
+     * evaluated, this is false if the variable is an argument of a function
+     * or an operator called through apply().
+     * @param slot index of the variable
+     * @return true if derivative() can be used for the slot
+     */
+    public boolean hasDerivative(int slot){
+        return this.root.derivable(slotBit(slot));
+    }
+    /**
+     * Evaluates the derivative of the expression by the variable in the 
+     * slot (see hasDerivative()).
+     * @param slots values of the variables in the order given at construction
+     * @param slot index of the variable
+     * @return value of the derivative
+     */
+    public double derivative(double[] slots, int slot){
+        return this.root.derivative(slots, slot, slotBit(slot));
+    }
+    /**
+     * Bit of the slot in the masks of variables a node depends on, slots
+     * above 62 share the last bit.
+     */
+    private static long slotBit(int slot){
+        return (slot<63) ? (1L<<slot) : (1L<<63);
+    }
+
+    private Node compile(Token[] tokens){
+        Deque<Node> stack = new ArrayDeque<Node>();
+        for(Token token : tokens){
+            switch(token.getType()){
+                case Token.TOKEN_NUMBER:
+                    stack.push(new Constant(((NumberToken) token).getValue()));
+                    break;
+                case Token.TOKEN_VARIABLE:
+                    String name = ((VariableToken) token).getName();
+                    int slot = this.getSlot(name);
+                    if(slot<0){
+                        throw new IllegalArgumentException("CompiledExpression: unknown variable '"
+                                + name + "' in expression '" + expressionString + "'");
+                    }
+                    stack.push(new Variable(slot));
+                    break;
+                case Token.TOKEN_OPERATOR:
+                    Operator op = ((OperatorToken) token).getOperator();
+                    stack.push(fold(operatorNode(op, pop(stack, op.getNumOperands()))));
+                    break;
+                case Token.TOKEN_FUNCTION:
+                    Function func = ((FunctionToken) token).getFunction();
+                    stack.push(fold(functionNode(func, pop(stack, func.getNumArguments()))));
+                    break;
+                default:
+                    throw new IllegalArgumentException("CompiledExpression: unexpected token in expression '"
+                            + expressionString + "'");
+            }
+        }
+        if(stack.size()!=1){
+            throw new IllegalArgumentException("CompiledExpression: invalid expression '"
+                    + expressionString + "'");
+        }
+        return stack.pop();
+    }
+
+    private Node[] pop(Deque<Node> stack, int count){
+        if(stack.size()<count){
+            throw new IllegalArgumentException("CompiledExpression: not enough arguments in expression '"
+                    + expressionString + "'");
+        }
+        Node[] args = new Node[count];
+        for(int i = count - 1; i >= 0; i--) args[i] = stack.pop();
+        return args;
+    }
+    /**
+     * Replaces the node with a constant if all its arguments are constant.
+     */
+    private static Node fold(Node node){
+        for(Node arg : node.args){
+            if(!(arg instanceof Constant)) return node;
+        }
+        return new Constant(node.eval(new double[0]));
+    }
+
+    private static Node operatorNode(Operator op, Node[] args){
+        String symbol = op.getSymbol();
+        if(args.length==2){
+            switch(symbol){
+                case "+": return new Binary(Binary.ADD, op, args);
+                case "-": return new Binary(Binary.SUB, op, args);
+                case "*": return new Binary(Binary.MUL, op, args);
+                case "/": return new Binary(Binary.DIV, op, args);
+                case "^": return new Binary(Binary.POW, op, args);
+                case "%": return new Binary(Binary.MOD, op, args);
+                case ">": return new Binary(Binary.GT,  op, args);
+                case "<": return new Binary(Binary.LT,  op, args);
+                case "==": return new Binary(Binary.EQ, op, args);
+                case "&&": 
+                case "&":  return new Logical(true,  args);
+                case "||": 
+                case "|":  return new Logical(false, args);
+                default:  return new Binary(Binary.APPLY, op, args);
+            }
+        }
+        if(args.length==1&&symbol.equals("-")) return new Unary(Unary.NEG, null, args);
+        if(args.length==1&&symbol.equals("+")) return args[0];
+        return new Generic(op, null, args);
+    }
+
+    private static Node functionNode(Function func, Node[] args){
+        String name = func.getName();
+        if(args.length==1){
+            int code = Unary.getCode(name);
+            return new Unary(code, func, args);
+        }
+        if(args.length==2){
+            if(name.equals("pow"))  return new Binary(Binary.POW,  null, args);
+            if(name.equals("logb")) return new Binary(Binary.LOGB, null, args);
+        }
+        if(args.length==3){
+            if(name.equals("gaus"))   return new Gaus(args);
+            if(name.equals("landau")) return new Landau(args);
+        }
+        return new Generic(null, func, args);
+    }
+
+    /**
+     * Node of the compiled expression tree.
+     */
+    private static abstract class Node {
+        final Node[] args;
+        /* bits of the slots that the value of the node depends on */
+        final long   mask;
+        Node(Node[] args){ this(args, 0L);}
+        Node(Node[] args, long bits){
+            this.args = args;
+            for(Node arg : args) bits |= arg.mask;
+            this.mask = bits;
+        }
+        abstract double eval(double[] slots);
+        /**
+         * Derivative by the variable in the slot, zero if the node does 
+         * not depend on the slot.
+         */
+        final double derivative(double[] slots, int slot, long bit){
+            if((mask&bit)==0L) return 0.0;
+            return this.deriv(slots, slot, bit);
+        }
+        double deriv(double[] slots, int slot, long bit){
+            return Double.NaN;
+        }
+        boolean derivable(long bit){
+            if((mask&bit)==0L) return true;
+            for(Node arg : args){
+                if(arg.derivable(bit)==false) return false;
+            }
+            return true;
+        }
+        /**
+         * Sets bounds of the node value: out[0] lower bound, out[1] upper
+         * bound and out[2] 1 if the value can be NaN.
+         */
+        void range(double[] min, double[] max, double[] out){
+            setUnknown(out);
+        }
+    }
+
+    private static void setUnknown(double[] out){
+        out[0] = Double.NEGATIVE_INFINITY;
+        out[1] = Double.POSITIVE_INFINITY;
+        out[2] = 1.0;
+    }
+
+    private static void setRange(double[] out, double lo, double hi, double nan){
+        if(Double.isNaN(lo)||Double.isNaN(hi)){
+            setUnknown(out);
+            return;
+        }
+        out[0] = lo;
+        out[1] = hi;
+        out[2] = nan;
+    }
+    /**
+     * Sets result of comparison or logical operation, NaN values give 0.
+     */
+    private static void setCondition(double[] out, boolean always, boolean never){
+        out[0] = (always==true) ? 1.0 : 0.0;
+        out[1] = (never==true)  ? 0.0 : 1.0;
+        out[2] = 0.0;
+    }
+
+    private static final class Constant extends Node {
+        private final double value;
+        Constant(double value){ super(new Node[0]); this.value = value;}
+        @Override
+        double eval(double[] slots){ return value;}
+        @Override
+        void range(double[] min, double[] max, double[] out){
+            setRange(out, value, value, 0.0);
+        }
+    }
+
+    private static final class Variable extends Node {
+        private final int slot;
+        Variable(int slot){ super(new Node[0], slotBit(slot)); this.slot = slot;}
+        @Override
+        double eval(double[] slots){ return slots[slot];}
+        @Override
+        double deriv(double[] slots, int slot, long bit){
+            return (slot==this.slot) ? 1.0 : 0.0;
+        }
+        @Override
+        void range(double[] min, double[] max, double[] out){
+            setRange(out, min[slot], max[slot], 0.0);
+        }
+    }
+
+    private static final class Unary extends Node {
+        static final int APPLY = 0;
+        static final int NEG   = 1;
+        static final int EXP   = 2;
+        static final int ERF   = 3;
+        static final int LOG   = 4;
+        static final int SQRT  = 5;
+        static final int SIN   = 6;
+        static final int COS   = 7;
+        static final int TAN   = 8;
+        static final int ABS   = 9;
+        static final int LOG10 = 10;
+        static final int ATAN  = 11;
+        static final int ASIN  = 12;
+        static final int ACOS  = 13;
+        static final int SINH  = 14;
+        static final int COSH  = 15;
+        static final int TANH  = 16;
+        static final int FLOOR = 17;
+        static final int CEIL  = 18;
+        static final int CBRT  = 19;
+        static final int SIGNUM = 20;
+        static final int EXPM1 = 21;
+        static final int LOG1P = 22;
+        static final int LOG2  = 23;
+
+        private static final double LN2  = Math.log(2.0);
+        private static final double LN10 = Math.log(10.0);
+        private static final double ERF_FACTOR = 2.0/Math.sqrt(Math.PI);
+
+        private final int      code;
+        private final Function func;
+        private final Node     arg;
+
+        Unary(int code, Function func, Node[] args){
+            super(args);
+            this.code = code;
+            this.func = func;
+            this.arg  = args[0];
+        }
+
+        static int getCode(String name){
+            switch(name){
+                case "exp":    return EXP;
+                case "erf":    return ERF;
+                case "log":    return LOG;
+                case "sqrt":   return SQRT;
+                case "sin":    return SIN;
+                case "cos":    return COS;
+                case "tan":    return TAN;
+                case "abs":    return ABS;
+                case "log10":  return LOG10;
+                case "atan":   return ATAN;
+                case "asin":   return ASIN;
+                case "acos":   return ACOS;
+                case "sinh":   return SINH;
+                case "cosh":   return COSH;
+                case "tanh":   return TANH;
+                case "floor":  return FLOOR;
+                case "ceil":   return CEIL;
+                case "cbrt":   return CBRT;
+                case "signum": return SIGNUM;
+                case "expm1":  return EXPM1;
+                case "log1p":  return LOG1P;
+                case "log2":   return LOG2;
+                default:       return APPLY;
+            }
+        }
+
+        @Override
+        double eval(double[] slots){
+            return this.apply(arg.eval(slots));
+        }
+
+        private double apply(double v){
+            switch(code){
+                case NEG:    return -v;
+                case EXP:    return Math.exp(v);
+                case ERF:    return ErrorFunction.erf(v);
+                case LOG:    return Math.log(v);
+                case SQRT:   return Math.sqrt(v);
+                case SIN:    return Math.sin(v);
+                case COS:    return Math.cos(v);
+                case TAN:    return Math.tan(v);
+                case ABS:    return Math.abs(v);
+                case LOG10:  return Math.log10(v);
+                case ATAN:   return Math.atan(v);
+                case ASIN:   return Math.asin(v);
+                case ACOS:   return Math.acos(v);
+                case SINH:   return Math.sinh(v);
+                case COSH:   return Math.cosh(v);
+                case TANH:   return Math.tanh(v);
+                case FLOOR:  return Math.floor(v);
+                case CEIL:   return Math.ceil(v);
+                case CBRT:   return Math.cbrt(v);
+                case SIGNUM: return Math.signum(v);
+                case EXPM1:  return Math.expm1(v);
+                case LOG1P:  return Math.log1p(v);
+                case LOG2:   return Math.log(v)/LN2;
+                default:     return func.apply(v);
+            }
+        }
+
+        @Override
+        boolean derivable(long bit){
+            if(code==APPLY&&(mask&bit)!=0L) return false;
+            return super.derivable(bit);
+        }
+
+        @Override
+        double deriv(double[] slots, int slot, long bit){
+            double dv = arg.derivative(slots, slot, bit);
+            if(dv==0.0) return 0.0;
+            double v = arg.eval(slots);
+            switch(code){
+                case NEG:    return -dv;
+                case EXP:    return Math.exp(v)*dv;
+                case ERF:    return ERF_FACTOR*Math.exp(-v*v)*dv;
+                case LOG:    return dv/v;
+                case SQRT:   return 0.5*dv/Math.sqrt(v);
+                case SIN:    return Math.cos(v)*dv;
+                case COS:    return -Math.sin(v)*dv;
+                case TAN:    double c = Math.cos(v); return dv/(c*c);
+                case ABS:    return Math.signum(v)*dv;
+                case LOG10:  return dv/(v*LN10);
+                case ATAN:   return dv/(1.0 + v*v);
+                case ASIN:   return dv/Math.sqrt(1.0 - v*v);
+                case ACOS:   return -dv/Math.sqrt(1.0 - v*v);
+                case SINH:   return Math.cosh(v)*dv;
+                case COSH:   return Math.sinh(v)*dv;
+                case TANH:   double t = Math.tanh(v); return (1.0 - t*t)*dv;
+                case FLOOR: case CEIL: case SIGNUM: return 0.0;
+                case CBRT:   double r = Math.cbrt(v); return dv/(3.0*r*r);
+                case EXPM1:  return Math.exp(v)*dv;
+                case LOG1P:  return dv/(1.0 + v);
+                case LOG2:   return dv/(v*LN2);
+                default:     return Double.NaN;
+            }
+        }
+
+        @Override
+        void range(double[] min, double[] max, double[] out){
+            arg.range(min, max, out);
+            double lo = out[0], hi = out[1], nan = out[2];
+            switch(code){
+                case NEG:    setRange(out, -hi, -lo, nan); break;
+                case EXP: case ERF: case ATAN: case SINH: case TANH: case FLOOR:
+                case CEIL: case CBRT: case SIGNUM: case EXPM1:
+                    setRange(out, this.apply(lo), this.apply(hi), nan);
+                    break;
+                case LOG: case SQRT: case LOG10: case LOG1P: case LOG2:
+                    if(this.apply(lo)>=Double.NEGATIVE_INFINITY){
+                        setRange(out, this.apply(lo), this.apply(hi), nan);
+                    } else {
+                        setUnknown(out);
+                    }
+                    break;
+                case ABS:
+                    if(lo>=0.0){
+                        setRange(out, lo, hi, nan);
+                    } else if(hi<=0.0){
+                        setRange(out, -hi, -lo, nan);
+                    } else {
+                        setRange(out, 0.0, Math.max(-lo, hi), nan);
+                    }
+                    break;
+                default: setUnknown(out); break;
+            }
+        }
+    }
+
+    private static final class Binary extends Node {
+        static final int APPLY = 0;
+        static final int ADD   = 1;
+        static final int SUB   = 2;
+        static final int MUL   = 3;
+        static final int DIV   = 4;
+        static final int POW   = 5;
+        static final int MOD   = 6;
+        static final int LOGB  = 7;
+        static final int GT    = 8;
+        static final int LT    = 9;
+        static final int EQ    = 10;
+
+        private final int      code;
+        private final Operator op;
+        private final Node     left;
+        private final Node     right;
+
+        Binary(int code, Operator op, Node[] args){
+            super(args);
+            this.code  = code;
+            this.op    = op;
+            this.left  = args[0];
+            this.right = args[1];
+        }
+
+        @Override
+        double eval(double[] slots){
+            double a = left.eval(slots);
+            double b = right.eval(slots);
+            switch(code){
+                case ADD:  return a + b;
+                case SUB:  return a - b;
+                case MUL:  return a * b;
+                case DIV:  return a / b;
+                case POW:  return Math.pow(a, b);
+                case MOD:  return a % b;
+                case LOGB: return Math.log(a) / Math.log(b);
+                case GT:   return (a>b)  ? 1.0 : 0.0;
+                case LT:   return (a<b)  ? 1.0 : 0.0;
+                case EQ:   return (a==b) ? 1.0 : 0.0;
+                default:   return op.apply(a, b);
+            }
+        }
+
+        @Override
+        boolean derivable(long bit){
+            if(code==APPLY&&(mask&bit)!=0L) return false;
+            return super.derivable(bit);
+        }
+        /**
+         * Derivatives of the sides are evaluated only for sides that depend
+         * on the slot, values of the sides only where they are needed.
+         */
+        @Override
+        double deriv(double[] slots, int slot, long bit){
+            double da = left.derivative(slots, slot, bit);
+            double db = right.derivative(slots, slot, bit);
+            double a, b, result = 0.0;
+            switch(code){
+                case ADD:  return da + db;
+                case SUB:  return da - db;
+                case MUL:
+                    if(da!=0.0) result += da*right.eval(slots);
+                    if(db!=0.0) result += left.eval(slots)*db;
+                    return result;
+                case DIV:
+                    b = right.eval(slots);
+                    if(da!=0.0) result += da/b;
+                    if(db!=0.0) result -= left.eval(slots)*db/(b*b);
+                    return result;
+                case POW:
+                    a = left.eval(slots);
+                    b = right.eval(slots);
+                    if(da!=0.0) result += b*Math.pow(a, b - 1.0)*da;
+                    if(db!=0.0) result += Math.pow(a, b)*Math.log(a)*db;
+                    return result;
+                case MOD:
+                    a = left.eval(slots);
+                    b = right.eval(slots);
+                    return da - ((a - a%b)/b)*db;
+                case LOGB:
+                    a = left.eval(slots);
+                    b = right.eval(slots);
+                    double lnb = Math.log(b);
+                    if(da!=0.0) result += da/(a*lnb);
+                    if(db!=0.0) result -= Math.log(a)*db/(b*lnb*lnb);
+                    return result;
+                case GT: case LT: case EQ: return 0.0;
+                default:   return Double.NaN;
+            }
+        }
+
+        @Override
+        void range(double[] min, double[] max, double[] out){
+            left.range(min, max, out);
+            double alo = out[0], ahi = out[1], anan = out[2];
+            right.range(min, max, out);
+            double blo = out[0], bhi = out[1], bnan = out[2];
+            double nan = Math.max(anan, bnan);
+            switch(code){
+                case ADD: setRange(out, alo + blo, ahi + bhi, nan); break;
+                case SUB: setRange(out, alo - bhi, ahi - blo, nan); break;
+                case MUL: 
+                    setRange(out, Math.min(Math.min(alo*blo, alo*bhi), Math.min(ahi*blo, ahi*bhi)),
+                            Math.max(Math.max(alo*blo, alo*bhi), Math.max(ahi*blo, ahi*bhi)), nan);
+                    break;
+                case DIV:
+                    if(blo<=0.0&&bhi>=0.0){
+                        setUnknown(out);
+                    } else {
+                        setRange(out, Math.min(Math.min(alo/blo, alo/bhi), Math.min(ahi/blo, ahi/bhi)),
+                                Math.max(Math.max(alo/blo, alo/bhi), Math.max(ahi/blo, ahi/bhi)), nan);
+                    }
+                    break;
+                case GT: setCondition(out, alo>bhi&&nan==0.0, ahi<=blo); break;
+                case LT: setCondition(out, ahi<blo&&nan==0.0, alo>=bhi); break;
+                case EQ: setCondition(out, alo==ahi&&blo==bhi&&alo==blo&&nan==0.0, ahi<blo||bhi<alo); break;
+                default: setUnknown(out); break;
+            }
+        }
+    }
+
+    /**
+     * Logical and/or, the right side is evaluated only when needed.
+     */
+    private static final class Logical extends Node {
+        private final boolean isAnd;
+        private final Node    left;
+        private final Node    right;
+        Logical(boolean and, Node[] args){
+            super(args);
+            this.isAnd = and;
+            this.left  = args[0];
+            this.right = args[1];
+        }
+        @Override
+        double eval(double[] slots){
+            boolean a = left.eval(slots)>0.0;
+            if(isAnd==true){
+                if(a==false) return 0.0;
+            } else {
+                if(a==true) return 1.0;
+            }
+            return (right.eval(slots)>0.0) ? 1.0 : 0.0;
+        }
+        @Override
+        double deriv(double[] slots, int slot, long bit){ return 0.0;}
+        @Override
+        void range(double[] min, double[] max, double[] out){
+            left.range(min, max, out);
+            boolean aAlways = out[0]>0.0&&out[2]==0.0;
+            boolean aNever  = out[1]<=0.0;
+            right.range(min, max, out);
+            boolean bAlways = out[0]>0.0&&out[2]==0.0;
+            boolean bNever  = out[1]<=0.0;
+            if(isAnd==true){
+                setCondition(out, aAlways&&bAlways, aNever||bNever);
+            } else {
+                setCondition(out, aAlways||bAlways, aNever&&bNever);
+            }
+        }
+    }
+
+    private static final class Gaus extends Node {
+        private final Node x;
+        private final Node mean;
+        private final Node sigma;
+        Gaus(Node[] args){
+            super(args);
+            this.x = args[0]; this.mean = args[1]; this.sigma = args[2];
+        }
+        @Override
+        double eval(double[] slots){
+            return FunctionFactory.gauss(x.eval(slots), mean.eval(slots), sigma.eval(slots));
+        }
+        /**
+         * dG = G*( -(x-m)/s^2*(dx - dm) + (x-m)^2/s^3*ds ).
+         */
+        @Override
+        double deriv(double[] slots, int slot, long bit){
+            double d  = x.derivative(slots, slot, bit) - mean.derivative(slots, slot, bit);
+            double ds = sigma.derivative(slots, slot, bit);
+            if(d==0.0&&ds==0.0) return 0.0;
+            double u = x.eval(slots) - mean.eval(slots);
+            double s = sigma.eval(slots);
+            double g = FunctionFactory.gauss(u, 0.0, s);
+            return g*(-u*d + u*u*ds/s)/(s*s);
+        }
+    }
+
+    private static final class Landau extends Node {
+        private final Node x;
+        private final Node mean;
+        private final Node sigma;
+        Landau(Node[] args){
+            super(args);
+            this.x = args[0]; this.mean = args[1]; this.sigma = args[2];
+        }
+        @Override
+        double eval(double[] slots){
+            return FunctionFactory.landau(x.eval(slots), mean.eval(slots), sigma.eval(slots));
+        }
+        /**
+         * With l = (x-m)/s: dL = -0.5*L*(1 - exp(-l))*dl, 
+         * dl = (dx - dm)/s - l*ds/s.
+         */
+        @Override
+        double deriv(double[] slots, int slot, long bit){
+            double d  = x.derivative(slots, slot, bit) - mean.derivative(slots, slot, bit);
+            double ds = sigma.derivative(slots, slot, bit);
+            if(d==0.0&&ds==0.0) return 0.0;
+            double s = sigma.eval(slots);
+            double lambda = (x.eval(slots) - mean.eval(slots))/s;
+            double expl = Math.exp(-lambda);
+            double value = Math.exp(-0.5*(lambda + expl));
+            return -0.5*value*(1.0 - expl)*(d - lambda*ds)/s;
+        }
+    }
+    /**
+     * Function or operator that is called through apply(), this allocates
+     * the array of arguments.
+     */
+    private static final class Generic extends Node {
+        private final Operator op;
+        private final Function func;
+        Generic(Operator op, Function func, Node[] args){
+            super(args);
+            this.op   = op;
+            this.func = func;
+        }
+        @Override
+        double eval(double[] slots){
+            double[] values = new double[args.length];
+            for(int i = 0; i < values.length; i++) values[i] = args[i].eval(slots);
+            return (op!=null) ? op.apply(values) : func.apply(values);
+        }
+        @Override
+        boolean derivable(long bit){ return (mask&bit)==0L;}
+    }
+}
@@ -7,12 +7,15 @@
 package org.jlab.groot.math;
 
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 import net.objecthunter.exp4j.Expression;
 import net.objecthunter.exp4j.ExpressionBuilder;
 import net.objecthunter.exp4j.function.Function;
+import net.objecthunter.exp4j.operator.Operator;
 
 /**
  *
@@ -24,6 +27,10 @@ public class F1D extends Func1D {
     private String expressionString = "";
     private List<String> expressionVariables = new ArrayList<String>();
     
+    CompiledExpression compiledExpr = null;
+    private double[] compiledSlots = null;
+    private boolean  compiledMode  = true;
+    
     Function funcLogb = new Function("logb", 2) {
             @Override
             public double apply(double... args) {
@@ -110,6 +117,59 @@ public class F1D extends Func1D {
         
         builder.variables(expvar);
         expr = builder.build();
+        this.compile(newString, expvar);
+    }
+    
+    /**
+     * Compiles the expression for evaluation with variables in slots 
+     * (x in slot 0 and parameter i in slot i+1). If the parameters of the 
+     * function do not match the expression variables the exp4j expression 
+     * is used for evaluation.
+     */
+    private void compile(String expression, String[] expvar){
+        compiledExpr  = null;
+        compiledSlots = null;
+        if(this.getNPars()!=expvar.length-1){
+            System.out.println("[F1D] warning : ---> parameters do not match expression "
+                    + expressionString + ", function will not be compiled");
+            return;
+        }
+        for(int i = 0; i < this.getNPars(); i++){
+            if(this.parameter(i).name().equals(expvar[i+1])==false){
+                System.out.println("[F1D] warning : ---> parameters do not match expression "
+                        + expressionString + ", function will not be compiled");
+                return;
+            }
+        }
+        Map<String,Function> functions = new HashMap<String,Function>();
+        functions.put(funcGaus.getName(), funcGaus);
+        functions.put(funcLandau.getName(), funcLandau);
+        functions.put(funcLogb.getName(), funcLogb);
+        functions.put(funcErrf.getName(), funcErrf);
+        functions.put(funcExp.getName(), funcExp);
+        try {
+            compiledExpr  = new CompiledExpression(expression, expvar, 
+                    functions, new HashMap<String,Operator>());
+            compiledSlots = new double[expvar.length];
+        } catch (RuntimeException e){
+            System.out.println("[F1D] warning : ---> failed to compile expression "
+                    + expressionString + " : " + e.getMessage());
+            compiledExpr = null;
+        }
+    }
+    
+    /**
+     * Sets evaluation mode, in compiled mode (default) the expression is 
+     * evaluated from a compiled tree with variables resolved to slot indices, 
+     * otherwise the exp4j expression is evaluated with variables set by name.
+     * @param flag true for compiled mode
+     */
+    public void setCompiledMode(boolean flag){
+        this.compiledMode = flag;
+    }
+    
+    public boolean isCompiledMode(){
+        return this.compiledMode&&this.compiledExpr!=null;
     }
     
     
@@ -117,8 +177,90 @@ public class F1D extends Func1D {
         return this.expressionString;
     }
     
+    /**
+     * Returns true if the function can be evaluated with evaluate(x, slots)
+     * from several threads at the same time, each thread with its own slots.
+     * This is possible in compiled mode.
+     * @return true if evaluation with slots is possible
+     */
+    public boolean isThreadSafe(){
+        return this.isCompiledMode()&&this.getNPars()==compiledSlots.length-1;
+    }
+    
+    /**
+     * Creates an array of slots for evaluate(x, slots) with the current 
+     * parameter values.
+     * @return new slots array
+     */
+    public double[] createSlots(){
+        double[] slots = new double[this.getNPars()+1];
+        for(int i = 0; i < this.getNPars(); i++){
+            slots[i+1] = this.parameter(i).value();
+        }
+        return slots;
+    }
+    
+    /**
+     * Evaluates the function with parameter values given in the slots 
+     * (created by createSlots()), slot 0 is set to x. Only the slots are
+     * modified, so threads using their own slots can evaluate the function
+     * at the same time (see isThreadSafe()).
+     * @param x the variable
+     * @param slots parameter values starting from index 1
+     * @return value of the function
+     */
+    public double evaluate(double x, double[] slots){
+        slots[0] = x;
+        return compiledExpr.evaluate(slots);
+    }
+    
+    /**
+     * Returns true if derivatives of the function by all parameters can be
+     * evaluated from the compiled expression (see evaluate(x, slots, gradient)).
+     * This is the case for expressions built from arithmetic operators,
+     * polynomials and the functions gaus, landau, exp, erf and other
+     * built-in functions of one argument.
+     * @return true if the analytic gradient is available
+     */
+    public boolean hasGradient(){
+        if(this.isThreadSafe()==false) return false;
+        for(int i = 0; i < this.getNPars(); i++){
+            if(compiledExpr.hasDerivative(i+1)==false) return false;
+        }
+        return true;
+    }
+
+    /**
+     * Evaluates the function and its derivatives by the parameters with
+     * parameter values given in the slots (see evaluate(x, slots)), the
+     * function must have an analytic gradient (see hasGradient()).
+     * @param x the variable
+     * @param slots parameter values starting from index 1
+     * @param gradient filled with derivatives by parameters, in the order
+     * of the parameters
+     * @return value of the function
+     */
+    public double evaluate(double x, double[] slots, double[] gradient){
+        slots[0] = x;
+        for(int i = 0; i < gradient.length; i++){
+            gradient[i] = compiledExpr.derivative(slots, i+1);
+        }
+        return compiledExpr.evaluate(slots);
+    }
+
     @Override
     public double evaluate(double x){
+        if(compiledMode==true&&compiledExpr!=null){
+            double[] slots = this.compiledSlots;
+            int npars = slots.length - 1;
+            if(this.getNPars()==npars){
+                slots[0] = x;
+                for(int i = 0; i < npars; i++){
+                    slots[i+1] = this.parameter(i).value();
+                }
+                return compiledExpr.evaluate(slots);
+            }
+        }
         expr.setVariable("x", x);
         for(int i = 0; i < this.getNPars(); i++){
             UserParameter par = this.parameter(i);
@@ -5,8 +5,9 @@
  */
 package org.jlab.groot.math;
 
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
 import org.jlab.groot.data.GraphErrors;
-import org.jlab.groot.data.H1F;
 
 /**
  *
@@ -14,11 +15,11 @@ import org.jlab.groot.data.H1F;
  */
 public class RandomFunc {
     private GraphErrors dataFunc = null;
-    private H1F  randomHIST = null;
+    private RandomSampler  sampler = null;
+    private DoubleSupplier generator = null;
     
     public RandomFunc(Func1D func){
-        this.cumulative(func, 200);
-        this.cummulativeHist(func, 200);
+        this(func, RandomSampler.DEFAULT_RESOLUTION);
     }
     
     public RandomFunc(Func1D func, int resolution){
@@ -52,47 +53,64 @@ public class RandomFunc {
         }
     }
     
+    /**
+     * Builds the table sampled by randomh() and sample() for the function
+     * with given number of bins, the generator set by setGenerator() is kept.
+     * @param func function
+     * @param nsamples number of bins
+     */
     public final void cummulativeHist(Func1D func, int nsamples){
-        this.randomHIST = new H1F("RANDOM","",nsamples,func.getMin(),func.getMax());
-        double integral = 0.0;
-        for(int i = 0; i < nsamples; i++){
-            double x = randomHIST.getAxis().getBinCenter(i);
-            double y = func.evaluate(x);
-            integral += y;
-            randomHIST.setBinContent(i, integral);
-        }
-        randomHIST.divide(integral);
+        RandomSampler table = new RandomSampler(func, nsamples);
+        this.sampler = (generator==null) ? table : table.withGenerator(generator);
     }
     
     public GraphErrors getGraph(){
         return dataFunc;
     }
     
+    /**
+     * Returns the sampler (alias table) used by randomh() and sample().
+     * @return the sampler
+     */
+    public RandomSampler getSampler(){
+        return sampler;
+    }
+    /**
+     * Sets the generator of uniform numbers in [0,1) used by randomh() 
+     * and sample(), the default is ThreadLocalRandom.
+     * @param gen generator
+     */
+    public void setGenerator(DoubleSupplier gen){
+        this.generator = gen;
+        this.sampler = this.sampler.withGenerator(gen);
+    }
+    /**
+     * Fills the array with random numbers distributed as the function.
+     * @param out array to fill
+     */
+    public void sample(double[] out){
+        this.sampler.sample(out);
+    }
+    
     public double random(){
-        double number = Math.random();
+        ThreadLocalRandom rand = ThreadLocalRandom.current();
+        double number = rand.nextDouble();
         int bin  = dataFunc.getVectorY().findBin(number);
         bin = bin - 1;
         if(bin<0) bin =1;
         double xlow = dataFunc.getVectorX().getLowEdge(bin);
         double xhi  = dataFunc.getVectorX().getHighEdge(bin);
-        return xlow + Math.random()*(xhi-xlow);
+        return xlow + rand.nextDouble()*(xhi-xlow);
         //return 1;
     }
 
+    /**
+     * Returns random number distributed as the function, the bin
+     * is chosen from the alias table in constant time.
+     * @return random number
+     */
     public double randomh(){
-        double number = Math.random();
-        int bin  = 0;
-        
-        for(int i = 0; i < this.randomHIST.getAxis().getNBins(); i++){
-            bin = i;
-            if(this.randomHIST.getBinContent(bin)>number) break;
-        }
-        
-        double axisX = this.randomHIST.getAxis().getBinCenter(bin);
-        double width = this.randomHIST.getAxis().getBinWidth(bin);
-        
-        return axisX + Math.random()*width - width/2.0;
-        //return 1;
+        return this.sampler.sample();
     }
     
 }
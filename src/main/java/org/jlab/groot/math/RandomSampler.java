@@ -0,0 +1,264 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.math;
+
+import java.util.SplittableRandom;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.DoubleSupplier;
+import org.jlab.groot.data.H1F;
+
+/**
+ * Generates random numbers distributed according to a histogram or
+ * a function. The distribution is binned once into a Walker alias table,
+ * each sample then takes constant time: one uniform number selects the
+ * bin and a second one the position inside the bin.
+ *
+ * The uniform numbers come from a generator (DoubleSupplier returning
+ * numbers in [0,1)), by default ThreadLocalRandom, so one sampler can
+ * be used from many threads. For reproducible streams use
+ * withGenerator() or split() to get samplers sharing the same tables.
+ *
+ * @author gavalian
+ */
+public class RandomSampler {
+
+    public static final int DEFAULT_RESOLUTION = 200;
+
+    private static final DoubleSupplier THREAD_LOCAL_GENERATOR =
+            () -> ThreadLocalRandom.current().nextDouble();
+
+    private final double[] binEdges;
+    private final double[] aliasProbability;
+    private final int[]    aliasIndex;
+    private final double   totalWeight;
+    private final DoubleSupplier generator;
+    private final SplittableRandom splittable;
+
+    /**
+     * Creates a sampler from the function evaluated in the centers of
+     * DEFAULT_RESOLUTION bins in the function range.
+     * @param func function (must not be negative in the range)
+     */
+    public RandomSampler(Func1D func){
+        this(func, DEFAULT_RESOLUTION);
+    }
+
+    /**
+     * Creates a sampler from the function evaluated in the centers of
+     * given number of bins in the function range.
+     * @param func function (must not be negative in the range)
+     * @param resolution number of bins
+     */
+    public RandomSampler(Func1D func, int resolution){
+        this(new Axis(resolution, func.getMin(), func.getMax()).getLimits(),
+                RandomSampler.evaluate(func, resolution));
+    }
+
+    /**
+     * Creates a sampler from the bin contents of the histogram,
+     * bins with negative content are treated as empty.
+     * @param h histogram
+     */
+    public RandomSampler(H1F h){
+        this(h.getAxis().getLimits(), RandomSampler.contents(h));
+    }
+
+    /**
+     * Creates a sampler for bins with given edges and weights.
+     * @param edges bin edges (number of bins + 1, increasing)
+     * @param weights weight of each bin
+     */
+    public RandomSampler(double[] edges, double[] weights){
+        if(edges.length!=weights.length+1||weights.length==0){
+            throw new IllegalArgumentException("RandomSampler: inconsistent number of edges ("
+                    + edges.length + ") and weights (" + weights.length + ")");
+        }
+        int nbins = weights.length;
+        this.binEdges         = edges.clone();
+        this.aliasProbability = new double[nbins];
+        this.aliasIndex       = new int[nbins];
+        this.totalWeight      = this.buildAliasTable(weights);
+        this.generator        = THREAD_LOCAL_GENERATOR;
+        this.splittable       = null;
+    }
+
+    private RandomSampler(RandomSampler sampler, DoubleSupplier gen, SplittableRandom split){
+        this.binEdges         = sampler.binEdges;
+        this.aliasProbability = sampler.aliasProbability;
+        this.aliasIndex       = sampler.aliasIndex;
+        this.totalWeight      = sampler.totalWeight;
+        this.generator        = gen;
+        this.splittable       = split;
+    }
+
+    private static double[] evaluate(Func1D func, int resolution){
+        Axis axis = new Axis(resolution, func.getMin(), func.getMax());
+        double[] weights = new double[resolution];
+        for(int bin = 0; bin < resolution; bin++){
+            weights[bin] = func.evaluate(axis.getBinCenter(bin));
+        }
+        return weights;
+    }
+
+    private static double[] contents(H1F h){
+        double[] weights = new double[h.getAxis().getNBins()];
+        for(int bin = 0; bin < weights.length; bin++){
+            weights[bin] = h.getBinContent(bin);
+        }
+        return weights;
+    }
+
+    /**
+     * Builds the alias table (Vose's method), returns the sum of weights.
+     */
+    private double buildAliasTable(double[] weights){
+        int nbins = weights.length;
+        double summ = 0.0;
+        for(int bin = 0; bin < nbins; bin++){
+            if(weights[bin]>0.0&&Double.isFinite(weights[bin])) summ += weights[bin];
+        }
+        if(summ<=0.0){
+            System.out.println("[RandomSampler] warning : ---> distribution has no positive weights,"
+                    + " sampling uniformly.");
+        }
+        double[] scaled = new double[nbins];
+        for(int bin = 0; bin < nbins; bin++){
+            double w = weights[bin];
+            if(summ<=0.0){
+                scaled[bin] = 1.0;
+            } else {
+                scaled[bin] = (w>0.0&&Double.isFinite(w)) ? w*nbins/summ : 0.0;
+            }
+        }
+        int[] small = new int[nbins];
+        int[] large = new int[nbins];
+        int   nsmall = 0;
+        int   nlarge = 0;
+        for(int bin = 0; bin < nbins; bin++){
+            if(scaled[bin]<1.0){
+                small[nsmall++] = bin;
+            } else {
+                large[nlarge++] = bin;
+            }
+        }
+        while(nsmall>0&&nlarge>0){
+            int s = small[--nsmall];
+            int l = large[--nlarge];
+            aliasProbability[s] = scaled[s];
+            aliasIndex[s]       = l;
+            scaled[l] = (scaled[l] + scaled[s]) - 1.0;
+            if(scaled[l]<1.0){
+                small[nsmall++] = l;
+            } else {
+                large[nlarge++] = l;
+            }
+        }
+        /* what is left has probability 1 up to rounding */
+        while(nlarge>0){
+            int l = large[--nlarge];
+            aliasProbability[l] = 1.0;
+            aliasIndex[l]       = l;
+        }
+        while(nsmall>0){
+            int s = small[--nsmall];
+            aliasProbability[s] = 1.0;
+            aliasIndex[s]       = s;
+        }
+        return summ;
+    }
+
+    /**
+     * Returns a sampler with the same tables using given generator.
+     * The generator must return uniform numbers in [0,1), for example
+     * new SplittableRandom(seed)::nextDouble or new Random(seed)::nextDouble.
+     * @param gen uniform generator
+     * @return new sampler
+     */
+    public RandomSampler withGenerator(DoubleSupplier gen){
+        return new RandomSampler(this, gen, null);
+    }
+
+    /**
+     * Returns a sampler with the same tables using SplittableRandom with
+     * given seed. Use split() on it to get independent samplers for
+     * other threads.
+     * @param seed random seed
+     * @return new sampler
+     */
+    public RandomSampler withSeed(long seed){
+        SplittableRandom rand = new SplittableRandom(seed);
+        return new RandomSampler(this, rand::nextDouble, rand);
+    }
+
+    /**
+     * Returns a sampler with the same tables and a generator split from
+     * this sampler's SplittableRandom (see withSeed()). If this sampler
+     * does not use a SplittableRandom the thread local generator is used.
+     * The new sampler and this one should not be used from the same thread
+     * at the same time.
+     * @return new sampler
+     */
+    public RandomSampler split(){
+        if(splittable==null) return new RandomSampler(this, THREAD_LOCAL_GENERATOR, null);
+        SplittableRandom rand = splittable.split();
+        return new RandomSampler(this, rand::nextDouble, rand);
+    }
+
+    /**
+     * Returns one random number.
+     * @return random number from the distribution
+     */
+    public double sample(){
+        return this.sample(generator.getAsDouble(), generator.getAsDouble());
+    }
+
+    private double sample(double u, double v){
+        int    nbins = aliasIndex.length;
+        double scaled = u*nbins;
+        int    bin = (int) scaled;
+        if(bin>=nbins) bin = nbins - 1;
+        if(scaled - bin >= aliasProbability[bin]) bin = aliasIndex[bin];
+        double low = binEdges[bin];
+        return low + v*(binEdges[bin+1]-low);
+    }
+
+    /**
+     * Fills the array with random numbers.
+     * @param out array to fill
+     */
+    public void sample(double[] out){
+        this.sample(out, 0, out.length);
+    }
+
+    /**
+     * Fills len elements of the array starting from off with random numbers.
+     * @param out array to fill
+     * @param off first index to fill
+     * @param len number of random numbers
+     */
+    public void sample(double[] out, int off, int len){
+        DoubleSupplier gen = this.generator;
+        for(int loop = off; loop < off + len; loop++){
+            out[loop] = this.sample(gen.getAsDouble(), gen.getAsDouble());
+        }
+    }
+
+    /**
+     * Returns the sum of positive weights the sampler was created with.
+     * @return integral of the distribution (sum of bin weights)
+     */
+    public double getIntegral(){
+        return this.totalWeight;
+    }
+
+    /**
+     * Returns the number of bins in the alias table.
+     * @return number of bins
+     */
+    public int getNBins(){
+        return this.aliasIndex.length;
+    }
+}
@@ -15,7 +15,6 @@ import java.awt.event.ActionEvent;
 import java.awt.event.ActionListener;
 import java.awt.event.MouseEvent;
 import java.awt.event.MouseListener;
-import java.util.List;
 import javax.swing.BorderFactory;
 import javax.swing.JFrame;
 import javax.swing.JLabel;
@@ -38,6 +37,7 @@ import org.jlab.groot.graphics.EmbeddedCanvas;
 import org.jlab.groot.tree.RandomTree;
 import org.jlab.groot.tree.Tree;
 import org.jlab.groot.tree.TreeAnalyzer;
+import org.jlab.groot.tree.TreeCache;
 import org.jlab.groot.ui.CutPanel;
 import org.jlab.groot.ui.DescriptorPanel;
 
@@ -68,6 +68,7 @@ public class StudioUI implements MouseListener,ActionListener {
         frame = new JFrame();
         frame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
         studioTree = tree;
+        if(studioTree.getCache()==null) studioTree.setCache(new TreeCache());
         frame.setSize(800, 800);
         frame.setMinimumSize(new Dimension(300,300));
         initUI();
@@ -171,8 +172,7 @@ public class StudioUI implements MouseListener,ActionListener {
     
     public void scanTreeItem(String item){
         if(this.studioTree.hasBranch(item)==true){
-            List<Double> vector = studioTree.getVector(item,studioTree.getSelector());
-            DataVector vec = new DataVector(vector);
+            DataVector vec = studioTree.getDataVector(item,studioTree.getSelector());
             H1F  h1d = H1F.create(item, 100, vec);
             h1d.setLineColor(1);
             h1d.setFillColor(43);
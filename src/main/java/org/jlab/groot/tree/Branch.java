@@ -7,7 +7,10 @@
 package org.jlab.groot.tree;
 
 /**
- *
+ * Branch of a tree. The value of the current row is kept in primitive 
+ * slots (double or long), setDouble()/getDouble() and setLong()/getLong() 
+ * do not create objects. getValue() boxes the value when it is called.
+ * 
  * @author gavalian
  */
 public class Branch {
@@ -15,7 +18,11 @@ public class Branch {
     private String branchName = "branch";
     private String branchDesc = "generic branch";
     private String branchUnit = "cm";
-    private Number branchValue = (Double) 0.0;
+    private BranchType branchType = BranchType.DOUBLE;
+    private Number  branchValue  = null;
+    private double  branchDouble = 0.0;
+    private long    branchLong   = 0L;
+    private boolean isLongValue  = false;
     
     public Branch(String name, String desc, String unit){
         setName(name);
@@ -23,6 +30,11 @@ public class Branch {
         setUnit(unit);
     }
     
+    public Branch(String name, String desc, String unit, BranchType type){
+        this(name,desc,unit);
+        setType(type);
+    }
+    
     public Branch(String name){
         setName(name);
     }
@@ -30,6 +42,16 @@ public class Branch {
     public String getName(){ return branchName;}
     public String getDescription(){return branchDesc;}
     public String getUnit(){return branchUnit;}
+    /**
+     * Returns the type of values in the branch (used when the tree
+     * is written to a file), DOUBLE by default.
+     * @return branch type
+     */
+    public BranchType getType(){ return branchType;}
+    
+    public final void setType(BranchType type){
+        this.branchType = type;
+    }
     
     public final void setName(String name){
         this.branchName = name;
@@ -44,12 +66,62 @@ public class Branch {
     }
     
     public void setValue(Number value){
+        if(value instanceof Long||value instanceof Integer
+                ||value instanceof Short||value instanceof Byte){
+            this.setLong(value.longValue());
+        } else {
+            this.setDouble(value.doubleValue());
+        }
         this.branchValue = value;
     }
+    /**
+     * Returns the value of the branch, the object is created when this 
+     * method is called, use getDouble() or getLong() in loops.
+     * @return value
+     */
     public Number getValue(){
+        if(this.branchValue==null){
+            if(isLongValue==true){
+                if(branchType==BranchType.INT){
+                    this.branchValue = (int) branchLong;
+                } else {
+                    this.branchValue = branchLong;
+                }
+            } else {
+                this.branchValue = branchDouble;
+            }
+        }
         return this.branchValue;
     }
     
+    public void setDouble(double value){
+        this.branchDouble = value;
+        this.isLongValue  = false;
+        this.branchValue  = null;
+    }
+    
+    public void setLong(long value){
+        this.branchLong   = value;
+        this.isLongValue  = true;
+        this.branchValue  = null;
+    }
+    
+    public void setInt(int value){
+        this.setLong(value);
+    }
+    
+    public double getDouble(){
+        return (isLongValue==true) ? (double) branchLong : branchDouble;
+    }
+    
+    public long getLong(){
+        return (isLongValue==true) ? branchLong : (long) branchDouble;
+    }
+    
+    public int getInt(){
+        return (int) this.getLong();
+    }
+    
     @Override
     public String toString(){
         StringBuilder str = new StringBuilder();
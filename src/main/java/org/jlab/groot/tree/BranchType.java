@@ -0,0 +1,46 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.tree;
+
+/**
+ * Primitive types of branch values, used for columns in the binary
+ * tree files.
+ * DOUBLE - 8 bytes (default)
+ * FLOAT  - 4 bytes
+ * LONG   - 8 bytes
+ * INT    - 4 bytes
+ *
+ * @author gavalian
+ */
+public enum BranchType {
+
+    DOUBLE(0,8), FLOAT(1,4), LONG(2,8), INT(3,4);
+
+    private final int typeCode;
+    private final int typeSize;
+
+    BranchType(int code, int size){
+        this.typeCode = code;
+        this.typeSize = size;
+    }
+    /**
+     * Returns the code of the type written to files.
+     * @return type code
+     */
+    public int getCode(){ return typeCode;}
+    /**
+     * Returns the size of one value in bytes.
+     * @return number of bytes
+     */
+    public int getSize(){ return typeSize;}
+
+    public static BranchType getType(int code){
+        for(BranchType type : BranchType.values()){
+            if(type.typeCode==code) return type;
+        }
+        return null;
+    }
+}
@@ -3,28 +3,68 @@ package org.jlab.groot.tree;
 import java.util.ArrayList;
 import java.util.List;
 
+import org.jlab.groot.data.H1F;
+import org.jlab.groot.data.H2F;
 import org.jlab.groot.data.IDataSet;
 
+/**
+ * Description of a histogram filled from a tree: expressions for the
+ * variables (using branch names), binning and the list of cuts. The cuts
+ * can be given as cut expressions or as names of cuts in the selector
+ * of the tree. Histograms are filled by TreeAnalyzer.
+ */
 public class DatasetDescriptor {
-    
+
     String descName = "somename";
     IDataSet       descDataset = null;
     List<String>   descCutList = new ArrayList<String>();
     private int nDim;
+    private String expressionX;
     private int nBinsX;
     private double xMin;
     private double xMax;
+    private String expressionY = null;
     private int nBinsY;
     private double yMin;
     private double yMax;
+    /**
+     * Creates 1D descriptor, the name is used as the variable expression.
+     */
     public DatasetDescriptor(String name, int nbins, double min, double max){
-        this.descName = name; 
+        this(name, name, nbins, min, max);
+    }
+
+    public DatasetDescriptor(String name, String expression, int nbins, double min, double max){
+        this.descName = name;
     	this.nDim = 1;
+        this.expressionX = expression;
     	this.nBinsX = nbins;
     	this.xMin = min;
     	this.xMax = max;
     }
-    
+
+    public DatasetDescriptor(String name, String expressionX, int nbinsx, double xmin, double xmax,
+            String expressionY, int nbinsy, double ymin, double ymax){
+        this(name, expressionX, nbinsx, xmin, xmax);
+        this.nDim = 2;
+        this.expressionY = expressionY;
+        this.nBinsY = nbinsy;
+        this.yMin = ymin;
+        this.yMax = ymax;
+    }
+
+    public int getNDim(){
+        return this.nDim;
+    }
+
+    public String getExpressionX(){
+        return this.expressionX;
+    }
+
+    public String getExpressionY(){
+        return this.expressionY;
+    }
+
     public int getNBinsX(){
     	return this.nBinsX;
     }
@@ -34,31 +74,48 @@ public class DatasetDescriptor {
     public double getMaxX(){
     	return this.xMax;
     }
-    
+
     public int getNBinsY(){
-    	return this.nBinsX;
+    	return this.nBinsY;
     }
     public double getMinY(){
-    	return this.xMin;
+    	return this.yMin;
     }
     public double getMaxY(){
-    	return this.xMax;
+    	return this.yMax;
     }
-    
+
     public void addCut(String name){
         descCutList.add(name);
     }
-    
+
     public List<String>  getCuts(){
         return this.descCutList;
     }
-    
+
     public IDataSet getDataSet(){
         return this.descDataset;
     }
+    /**
+     * Creates the histogram (H1F or H2F) if it does not exist yet
+     * and resets it.
+     * @return the histogram
+     */
+    public IDataSet createDataSet(){
+        if(descDataset==null){
+            if(nDim==2){
+                descDataset = new H2F(descName, nBinsX, xMin, xMax, nBinsY, yMin, yMax);
+            } else {
+                descDataset = new H1F(descName, nBinsX, xMin, xMax);
+            }
+        } else {
+            if(descDataset instanceof H1F) ((H1F) descDataset).reset();
+            if(descDataset instanceof H2F) ((H2F) descDataset).reset();
+        }
+        return descDataset;
+    }
 
     public String getName() {
-        // TODO Auto-generated method stub
         return descName;
     }
-}
\ No newline at end of file
+}
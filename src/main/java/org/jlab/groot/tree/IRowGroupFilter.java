@@ -0,0 +1,24 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.tree;
+
+/**
+ * Condition checked for a group of rows (a chunk of a tree file) using
+ * the minimum and maximum values of the branches in the group, groups 
+ * where no row can pass are not read.
+ *
+ * @author gavalian
+ */
+public interface IRowGroupFilter {
+    /**
+     * Checks if a row with values within the ranges can pass.
+     * @param branches names of branches
+     * @param min minimum value of each branch (NaN if not known)
+     * @param max maximum value of each branch (NaN if not known)
+     * @return false if no row in the group can pass
+     */
+    boolean mayPass(String[] branches, double[] min, double[] max);
+}
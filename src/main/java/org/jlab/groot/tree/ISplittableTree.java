@@ -0,0 +1,36 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.tree;
+
+/**
+ * Tree with known number of rows that can be read in ranges of rows.
+ * Each range is read by its own tree object, so ranges can be processed
+ * in different threads (see TreeRange).
+ *
+ * @author gavalian
+ */
+public interface ISplittableTree extends ITree {
+    /**
+     * Returns number of rows, negative if it is not known (the tree can
+     * not be split).
+     * @return number of rows
+     */
+    long    getEntries();
+    /**
+     * Returns row indices where the tree is preferably split (for example
+     * boundaries of chunks in the file), in increasing order.
+     * @return array of row indices, can be empty
+     */
+    long[]  getSplitPoints();
+    /**
+     * Creates a new tree reading rows from first (inclusive) to 
+     * last (exclusive), with its own branches.
+     * @param first first row
+     * @param last row after the last row
+     * @return tree reading the range
+     */
+    ITree   getRange(long first, long last);
+}
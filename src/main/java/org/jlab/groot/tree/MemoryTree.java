@@ -0,0 +1,170 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.tree;
+
+import java.util.ArrayList;
+import java.util.List;
+import org.jlab.groot.data.DataVector;
+
+/**
+ * Tree keeping values of all branches in memory, one DataVector
+ * per branch. Rows are added with fill() from the current values of
+ * the branches, or copied from another tree. Ranges of rows returned by
+ * getRange() share the data with this tree and can be read in parallel.
+ *
+ * <pre>
+ * MemoryTree tree = new MemoryTree("ntuple", new RandomTree());
+ * </pre>
+ *
+ * @author gavalian
+ */
+public class MemoryTree extends Tree implements ISplittableTree {
+
+    private final List<DataVector>  columns;
+    private final List<Branch>      branches = new ArrayList<Branch>();
+    private Branch[]  rowBranches  = new Branch[0];
+    private boolean[] isLongBranch = new boolean[0];
+    private long      rangeFirst   = 0L;
+    private long      rangeLast    = Long.MAX_VALUE;
+    private int       currentEntry = 0;
+    private int       nEntries     = 0;
+
+    public MemoryTree(String name){
+        super(name);
+        this.columns = new ArrayList<DataVector>();
+    }
+    /**
+     * Creates a tree with all branches and rows of the given tree.
+     * @param name tree name
+     * @param tree tree to copy
+     */
+    public MemoryTree(String name, ITree tree){
+        this(name);
+        for(String branch : tree.getListOfBranches()){
+            Branch br = tree.getBranch(branch);
+            this.addBranch(new Branch(br.getName(), br.getDescription(), br.getUnit(), br.getType()));
+        }
+        Branch[] source = new Branch[rowBranches.length];
+        for(int b = 0; b < source.length; b++){
+            source[b] = tree.getBranch(rowBranches[b].getName());
+        }
+        tree.reset();
+        while(tree.readNext()==true){
+            for(int b = 0; b < source.length; b++){
+                columns.get(b).add(source[b].getDouble());
+            }
+            nEntries++;
+        }
+    }
+    /**
+     * Creates a view of rows of the tree sharing the data.
+     */
+    private MemoryTree(MemoryTree tree, long first, long last){
+        super(tree.getName());
+        this.columns  = tree.columns;
+        this.nEntries = tree.nEntries;
+        for(Branch br : tree.branches){
+            super.addBranch(new Branch(br.getName(), br.getDescription(), br.getUnit(), br.getType()));
+            this.branches.add(this.getBranch(br.getName()));
+        }
+        this.updateBranches();
+        this.rangeFirst = Math.max(0L, first);
+        this.rangeLast  = last;
+        this.reset();
+    }
+
+    @Override
+    public void addBranch(Branch br){
+        if(this.getBranch(br.getName())!=null){
+            System.out.println("[MemoryTree] warning : ---> branch " + br.getName() + " already exists.");
+            return;
+        }
+        super.addBranch(br);
+        branches.add(br);
+        DataVector column = new DataVector();
+        for(int i = 0; i < nEntries; i++) column.add(0.0);
+        columns.add(column);
+        this.updateBranches();
+    }
+
+    private void updateBranches(){
+        rowBranches  = branches.toArray(new Branch[branches.size()]);
+        isLongBranch = new boolean[rowBranches.length];
+        for(int b = 0; b < rowBranches.length; b++){
+            BranchType type = rowBranches[b].getType();
+            isLongBranch[b] = (type==BranchType.LONG||type==BranchType.INT);
+        }
+    }
+    /**
+     * Adds a row with current values of the branches.
+     */
+    public void fill(){
+        this.clearCache();
+        for(int b = 0; b < rowBranches.length; b++){
+            columns.get(b).add(rowBranches[b].getDouble());
+        }
+        nEntries++;
+    }
+    /**
+     * Adds a row, values are given in the order of branches.
+     * @param values values of all branches
+     */
+    public void fill(double... values){
+        if(values.length!=rowBranches.length){
+            throw new IllegalArgumentException("MemoryTree: number of values (" + values.length
+                    + ") does not match number of branches (" + rowBranches.length + ")");
+        }
+        this.clearCache();
+        for(int b = 0; b < values.length; b++){
+            columns.get(b).add(values[b]);
+        }
+        nEntries++;
+    }
+
+    private void clearCache(){
+        if(this.getCache()!=null) this.getCache().clear();
+    }
+
+    @Override
+    public long getEntries(){
+        return nEntries;
+    }
+
+    @Override
+    public long[] getSplitPoints(){
+        return new long[0];
+    }
+
+    @Override
+    public ITree getRange(long first, long last){
+        return new MemoryTree(this, first, last);
+    }
+
+    @Override
+    public void reset(){
+        currentEntry = (int) Math.min(rangeFirst, (long) nEntries);
+    }
+
+    @Override
+    public boolean readNext(){
+        if(currentEntry>=nEntries||currentEntry>=rangeLast) return false;
+        for(int b = 0; b < rowBranches.length; b++){
+            double value = columns.get(b).getValue(currentEntry);
+            if(isLongBranch[b]==true){
+                rowBranches[b].setLong((long) value);
+            } else {
+                rowBranches[b].setDouble(value);
+            }
+        }
+        currentEntry++;
+        return true;
+    }
+
+    @Override
+    public void configure(){
+        System.out.println("[MemoryTree] --> tree in memory does not require configuring.");
+    }
+}
@@ -34,12 +34,12 @@ public class RandomTree extends Tree {
     
     public boolean readNext(){
         if(nrowsRead>=800) return false;
-        Double q2 = 1.0 + Math.random()*5;
-        Double w2 = 0.5 + Math.random()*8;
-        Double epx = Math.random();
-        this.getBranch("q2").setValue(q2);
-        this.getBranch("w2").setValue(w2);
-        this.getBranch("epX").setValue(epx);
+        double q2 = 1.0 + Math.random()*5;
+        double w2 = 0.5 + Math.random()*8;
+        double epx = Math.random();
+        this.getBranch("q2").setDouble(q2);
+        this.getBranch("w2").setDouble(w2);
+        this.getBranch("epX").setDouble(epx);
         nrowsRead++;
         return true;
     }
@@ -0,0 +1,363 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.tree;
+
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/**
+ * Compressed set of row numbers. Rows are divided into blocks of 65536,
+ * each block is stored as a sorted array of 16 bit values when it has
+ * few rows (up to 4096) or as a bit set of 1024 long words otherwise
+ * (the layout used by roaring bitmaps). Used by TreeSelector to keep
+ * the rows passing each cut, selections are combined with and()/or().
+ *
+ * @author gavalian
+ */
+public class RowBitmap {
+
+    private static final int ARRAY_LIMIT = 4096;
+    private static final int BITMAP_WORDS = 1024;
+
+    private int[]        blockKeys   = new int[0];
+    private Container[]  blocks      = new Container[0];
+    private int          nBlocks     = 0;
+
+    public RowBitmap(){
+
+    }
+    /**
+     * Returns bitmap with rows from 0 to entries-1.
+     * @param entries number of rows
+     * @return bitmap with all rows
+     */
+    public static RowBitmap range(int entries){
+        RowBitmap bitmap = new RowBitmap();
+        for(int start = 0; start < entries; start += 65536){
+            int count = Math.min(65536, entries - start);
+            long[] bits = new long[BITMAP_WORDS];
+            for(int w = 0; w < count/64; w++) bits[w] = -1L;
+            if(count%64!=0) bits[count/64] = (1L<<(count%64)) - 1L;
+            bitmap.append(start>>>16, Container.create(bits, count));
+        }
+        return bitmap;
+    }
+
+    private void append(int key, Container container){
+        if(nBlocks==blockKeys.length){
+            int size = Math.max(4, 2*nBlocks);
+            blockKeys = Arrays.copyOf(blockKeys, size);
+            blocks    = Arrays.copyOf(blocks, size);
+        }
+        blockKeys[nBlocks] = key;
+        blocks[nBlocks]    = container;
+        nBlocks++;
+    }
+
+    private int findBlock(int key){
+        if(nBlocks>0&&blockKeys[nBlocks-1]==key) return nBlocks - 1;
+        return Arrays.binarySearch(blockKeys, 0, nBlocks, key);
+    }
+    /**
+     * Adds a row, adding rows in increasing order is the fastest.
+     * @param row row number (non negative)
+     */
+    public void add(int row){
+        int key   = row>>>16;
+        int index = this.findBlock(key);
+        if(index<0){
+            index = -index - 1;
+            this.append(key, null);
+            System.arraycopy(blockKeys, index, blockKeys, index + 1, nBlocks - 1 - index);
+            System.arraycopy(blocks, index, blocks, index + 1, nBlocks - 1 - index);
+            blockKeys[index] = key;
+            blocks[index]    = new Container();
+        }
+        blocks[index] = blocks[index].add((char) (row&0xFFFF));
+    }
+
+    public boolean contains(int row){
+        int index = this.findBlock(row>>>16);
+        return index>=0&&blocks[index].contains((char) (row&0xFFFF));
+    }
+    /**
+     * Returns number of rows in the bitmap.
+     * @return number of rows
+     */
+    public int getCardinality(){
+        int count = 0;
+        for(int b = 0; b < nBlocks; b++) count += blocks[b].cardinality;
+        return count;
+    }
+    /**
+     * Returns rows that are in both bitmaps.
+     * @param other bitmap
+     * @return new bitmap
+     */
+    public RowBitmap and(RowBitmap other){
+        RowBitmap result = new RowBitmap();
+        int i = 0, j = 0;
+        while(i<nBlocks&&j<other.nBlocks){
+            if(blockKeys[i]<other.blockKeys[j]){
+                i++;
+            } else if(blockKeys[i]>other.blockKeys[j]){
+                j++;
+            } else {
+                Container container = blocks[i].and(other.blocks[j]);
+                if(container.cardinality>0) result.append(blockKeys[i], container);
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+    /**
+     * Returns a copy of the bitmap.
+     * @return new bitmap
+     */
+    public RowBitmap copy(){
+        RowBitmap result = new RowBitmap();
+        for(int b = 0; b < nBlocks; b++){
+            result.append(blockKeys[b], blocks[b].duplicate());
+        }
+        return result;
+    }
+    /**
+     * Returns rows that are in either of the bitmaps.
+     * @param other bitmap
+     * @return new bitmap
+     */
+    public RowBitmap or(RowBitmap other){
+        RowBitmap result = new RowBitmap();
+        int i = 0, j = 0;
+        while(i<nBlocks||j<other.nBlocks){
+            if(j>=other.nBlocks||(i<nBlocks&&blockKeys[i]<other.blockKeys[j])){
+                result.append(blockKeys[i], blocks[i].duplicate());
+                i++;
+            } else if(i>=nBlocks||blockKeys[i]>other.blockKeys[j]){
+                result.append(other.blockKeys[j], other.blocks[j].duplicate());
+                j++;
+            } else {
+                result.append(blockKeys[i], blocks[i].or(other.blocks[j]));
+                i++;
+                j++;
+            }
+        }
+        return result;
+    }
+    /**
+     * Calls the consumer for each row in increasing order.
+     * @param consumer consumer of row numbers
+     */
+    public void forEach(IntConsumer consumer){
+        for(int b = 0; b < nBlocks; b++){
+            blocks[b].forEach(blockKeys[b]<<16, consumer);
+        }
+    }
+    /**
+     * Returns rows as an array in increasing order.
+     * @return array of row numbers
+     */
+    public int[] toArray(){
+        final int[] rows = new int[this.getCardinality()];
+        int count = 0;
+        for(int b = 0; b < nBlocks; b++){
+            count = blocks[b].copy(blockKeys[b]<<16, rows, count);
+        }
+        return rows;
+    }
+    /**
+     * Returns memory used by the bitmap in bytes (approximately).
+     * @return number of bytes
+     */
+    public long getBytes(){
+        long bytes = 12L*blockKeys.length;
+        for(int b = 0; b < nBlocks; b++){
+            bytes += (blocks[b].bits!=null) ? 8L*BITMAP_WORDS : 2L*blocks[b].values.length;
+        }
+        return bytes;
+    }
+
+    @Override
+    public String toString(){
+        return "RowBitmap [rows=" + this.getCardinality() + ", blocks=" + nBlocks + "]";
+    }
+    /**
+     * Block of 65536 rows, either sorted array of values (values!=null)
+     * or a bit set (bits!=null).
+     */
+    private static final class Container {
+
+        char[] values      = new char[4];
+        long[] bits        = null;
+        int    cardinality = 0;
+
+        static Container create(long[] bits, int cardinality){
+            Container container   = new Container();
+            container.values      = null;
+            container.bits        = bits;
+            container.cardinality = cardinality;
+            return container;
+        }
+
+        static Container create(char[] values, int cardinality){
+            Container container   = new Container();
+            container.values      = values;
+            container.cardinality = cardinality;
+            return container;
+        }
+
+        Container duplicate(){
+            return (bits!=null) ? create(bits.clone(), cardinality)
+                    : create(Arrays.copyOf(values, cardinality), cardinality);
+        }
+
+        Container add(char value){
+            if(bits!=null){
+                long word = bits[value>>>6];
+                long mask = 1L<<value;
+                if((word&mask)==0){
+                    bits[value>>>6] = word|mask;
+                    cardinality++;
+                }
+                return this;
+            }
+            int index;
+            if(cardinality==0||values[cardinality-1]<value){
+                index = cardinality;
+            } else {
+                index = Arrays.binarySearch(values, 0, cardinality, value);
+                if(index>=0) return this;
+                index = -index - 1;
+            }
+            if(cardinality==ARRAY_LIMIT){
+                Container container = create(this.toBits(), cardinality);
+                return container.add(value);
+            }
+            if(cardinality==values.length){
+                values = Arrays.copyOf(values, Math.min(ARRAY_LIMIT, Math.max(4, 2*values.length)));
+            }
+            System.arraycopy(values, index, values, index + 1, cardinality - index);
+            values[index] = value;
+            cardinality++;
+            return this;
+        }
+
+        boolean contains(char value){
+            if(bits!=null) return (bits[value>>>6]&(1L<<value))!=0;
+            return Arrays.binarySearch(values, 0, cardinality, value)>=0;
+        }
+
+        private long[] toBits(){
+            if(bits!=null) return bits.clone();
+            long[] result = new long[BITMAP_WORDS];
+            for(int i = 0; i < cardinality; i++){
+                result[values[i]>>>6] |= 1L<<values[i];
+            }
+            return result;
+        }
+
+        private static Container fromBits(long[] bits){
+            int count = 0;
+            for(long word : bits) count += Long.bitCount(word);
+            if(count>ARRAY_LIMIT) return create(bits, count);
+            char[] values = new char[count];
+            int n = 0;
+            for(int w = 0; w < bits.length; w++){
+                long word = bits[w];
+                while(word!=0){
+                    values[n++] = (char) ((w<<6) + Long.numberOfTrailingZeros(word));
+                    word &= word - 1;
+                }
+            }
+            return create(values, count);
+        }
+
+        Container and(Container other){
+            if(bits!=null&&other.bits!=null){
+                long[] result = new long[BITMAP_WORDS];
+                for(int w = 0; w < BITMAP_WORDS; w++) result[w] = bits[w]&other.bits[w];
+                return fromBits(result);
+            }
+            if(bits!=null||other.bits!=null){
+                Container array  = (bits==null) ? this : other;
+                Container bitset = (bits==null) ? other : this;
+                char[] result = new char[array.cardinality];
+                int n = 0;
+                for(int i = 0; i < array.cardinality; i++){
+                    if(bitset.contains(array.values[i])) result[n++] = array.values[i];
+                }
+                return create(result, n);
+            }
+            char[] result = new char[Math.min(cardinality, other.cardinality)];
+            int i = 0, j = 0, n = 0;
+            while(i<cardinality&&j<other.cardinality){
+                if(values[i]<other.values[j]){
+                    i++;
+                } else if(values[i]>other.values[j]){
+                    j++;
+                } else {
+                    result[n++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return create(result, n);
+        }
+
+        Container or(Container other){
+            if(bits!=null||other.bits!=null||cardinality + other.cardinality>ARRAY_LIMIT){
+                long[] result = this.toBits();
+                long[] second = (other.bits!=null) ? other.bits : other.toBits();
+                for(int w = 0; w < BITMAP_WORDS; w++) result[w] |= second[w];
+                return fromBits(result);
+            }
+            char[] result = new char[cardinality + other.cardinality];
+            int i = 0, j = 0, n = 0;
+            while(i<cardinality||j<other.cardinality){
+                if(j>=other.cardinality||(i<cardinality&&values[i]<other.values[j])){
+                    result[n++] = values[i++];
+                } else if(i>=cardinality||values[i]>other.values[j]){
+                    result[n++] = other.values[j++];
+                } else {
+                    result[n++] = values[i];
+                    i++;
+                    j++;
+                }
+            }
+            return create(result, n);
+        }
+
+        void forEach(int base, IntConsumer consumer){
+            if(bits!=null){
+                for(int w = 0; w < BITMAP_WORDS; w++){
+                    long word = bits[w];
+                    while(word!=0){
+                        consumer.accept(base + (w<<6) + Long.numberOfTrailingZeros(word));
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                for(int i = 0; i < cardinality; i++) consumer.accept(base + values[i]);
+            }
+        }
+
+        int copy(int base, int[] rows, int offset){
+            if(bits!=null){
+                for(int w = 0; w < BITMAP_WORDS; w++){
+                    long word = bits[w];
+                    while(word!=0){
+                        rows[offset++] = base + (w<<6) + Long.numberOfTrailingZeros(word);
+                        word &= word - 1;
+                    }
+                }
+            } else {
+                for(int i = 0; i < cardinality; i++) rows[offset++] = base + values[i];
+            }
+            return offset;
+        }
+    }
+}
@@ -7,13 +7,17 @@
 package org.jlab.groot.tree;
 
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 import javax.swing.ImageIcon;
 import javax.swing.UIManager;
 import javax.swing.tree.DefaultMutableTreeNode;
+import org.jlab.groot.data.DataVector;
 
 /**
  *
@@ -25,6 +29,8 @@ public class Tree implements ITree {
     
     private  Map<String,Branch>     treeBranches    = new LinkedHashMap<String,Branch>();
     private  TreeSelector           defaultSelector = new TreeSelector();
+    private  int                    branchVersion   = 0;
+    private  TreeCache              treeCache       = null;
     private  static Map<String,ImageIcon>  treeNodeIcons   = Tree.initTreeIcons();
             
     public Tree(String name){
@@ -39,6 +45,15 @@ public class Tree implements ITree {
     
     public void addBranch(Branch br){
         treeBranches.put(br.getName(), br);
+        branchVersion++;
+    }
+    /**
+     * Returns a number that changes when branches are added, used to
+     * update references to branches kept by cuts.
+     * @return version of the list of branches
+     */
+    public int getBranchVersion(){
+        return this.branchVersion;
     }
     
     public void addBranch(String name, String desc, String unit){
@@ -130,16 +145,94 @@ public class Tree implements ITree {
      * @return 
      */
     public List<Double>  getVector(String branch, TreeSelector selector){
-        this.reset();
-        List<Double> vector = new ArrayList<Double>();
-        while(readNext()==true){
+        final List<Double> vector = new ArrayList<Double>();
+        final TreeCache.Column column = this.getIndexedColumn(branch, selector);
+        if(column!=null){
+            selector.getSelection(this).forEach(row -> vector.add(column.getDouble(row)));
+            return vector;
+        }
+        Branch       br     = getBranch(branch);
+        TreeCache.Reader reader = this.openReader(branch, selector);
+        while(reader==null ? readNext() : reader.next()){
+            if(selector.isValid(this)==true){
+                vector.add(br.getDouble());
+            }
+        }
+        return vector;
+    }
+    /**
+     * returns values from the tree branch for rows that pass the cuts
+     * described by selector as a primitive DataVector.
+     * @param branch
+     * @param selector
+     * @return 
+     */
+    public DataVector  getDataVector(String branch, TreeSelector selector){
+        final DataVector vector = new DataVector();
+        final TreeCache.Column column = this.getIndexedColumn(branch, selector);
+        if(column!=null){
+            selector.getSelection(this).forEach(row -> vector.add(column.getDouble(row)));
+            return vector;
+        }
+        Branch     br     = getBranch(branch);
+        TreeCache.Reader reader = this.openReader(branch, selector);
+        while(reader==null ? readNext() : reader.next()){
             if(selector.isValid(this)==true){
-                vector.add(getBranch(branch).getValue().doubleValue());
+                vector.add(br.getDouble());
             }
         }
         return vector;
     }
     
+    /**
+     * With the cache enabled returns the cached column of the branch,
+     * building the index of selector cuts if needed, rows are then
+     * taken from the selection bitmap. Returns null without cache.
+     */
+    private TreeCache.Column getIndexedColumn(String branch, TreeSelector selector){
+        if(treeCache==null||this.getBranch(branch)==null) return null;
+        selector.buildIndex(this);
+        TreeCache.Column column = treeCache.getColumn(this, branch);
+        if(column==null||column.getSize()!=selector.getIndexEntries()) return null;
+        return column;
+    }
+    
+    private TreeCache.Reader openReader(String branch, TreeSelector selector){
+        if(treeCache==null){
+            this.reset();
+            return null;
+        }
+        Set<String> used = new LinkedHashSet<String>(selector.getReferencedBranches());
+        used.add(branch);
+        return treeCache.open(this, used);
+    }
+    /**
+     * Returns a reader of rows that uses the cache, or null if the tree
+     * has no cache (the tree is reset in that case).
+     * @param branches branches used by the caller
+     * @return reader or null
+     */
+    TreeCache.Reader openReader(Collection<String> branches){
+        if(treeCache==null){
+            this.reset();
+            return null;
+        }
+        return treeCache.open(this, branches);
+    }
+    /**
+     * Sets cache for branch values, values of branches used in getVector(),
+     * getDataVector() and TreeAnalyzer are kept in memory after the first
+     * scan. Set to null to disable the cache (disabled by default).
+     * @param cache cache or null
+     */
+    public void setCache(TreeCache cache){
+        this.treeCache = cache;
+    }
+
+    public TreeCache getCache(){
+        return this.treeCache;
+    }
+    
     public boolean hasBranch(String name){
         return this.treeBranches.containsKey(name);
     }
@@ -6,48 +6,391 @@
 package org.jlab.groot.tree;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
 import javax.swing.tree.DefaultMutableTreeNode;
+import net.objecthunter.exp4j.function.Function;
+import org.jlab.groot.data.H1F;
+import org.jlab.groot.data.H2F;
 import org.jlab.groot.data.IDataSet;
+import org.jlab.groot.math.CompiledExpression;
 
 /**
+ * Fills histograms of all descriptors in one pass over the tree.
+ * Expressions (variables and cuts) are compiled once, identical
+ * expressions used by several descriptors are evaluated only once
+ * for each row, and only when a descriptor needs them.
  *
  * @author gavalian
  */
 public class TreeAnalyzer {
-    
+
     List<DatasetDescriptor>   datasets = new ArrayList<DatasetDescriptor>();
-    
+
+    /* expressions used by descriptors, each expression appears once */
+    private final List<String>              expressionList  = new ArrayList<String>();
+    private final Map<String,Integer>       expressionIndex = new HashMap<String,Integer>();
+    private CompiledExpression[]  expressions    = new CompiledExpression[0];
+    private String[]              usedNames      = new String[0];
+    private int[]                 usedSlots      = new int[0];
+    private int                   nSlots         = 0;
+    private String[]              slotNames      = new String[0];
+    private int[]                 indexX         = new int[0];
+    private int[]                 indexY         = new int[0];
+    private int[][]               cutsOfGroup    = new int[0][];
+    private int[][]               membersOfGroup = new int[0][];
+
+    private int                   parallelism     = Runtime.getRuntime().availableProcessors();
+    private long                  minRangeEntries = TreeRange.DEFAULT_MIN_ENTRIES;
+
     public TreeAnalyzer(){
-        
+
     }
-    
+
     public void addDescriptor(DatasetDescriptor desc){
         this.datasets.add(desc);
     }
-    
+
+    private int getExpressionIndex(String expression){
+        String key = expression.trim();
+        Integer index = expressionIndex.get(key);
+        if(index==null){
+            index = expressionList.size();
+            expressionList.add(key);
+            expressionIndex.put(key, index);
+        }
+        return index;
+    }
+    /**
+     * Returns expression of the cut, cut names are looked up in the
+     * selector of the tree, otherwise the string is the expression.
+     */
+    private String getCutExpression(ITree tree, String cut){
+        if(tree instanceof Tree){
+            TreeCut treeCut = ((Tree) tree).getSelector().getSelectorCuts().get(cut);
+            if(treeCut!=null) return treeCut.getExpression();
+        }
+        return cut;
+    }
+    /**
+     * Sets number of threads used to process splittable trees (binary
+     * files and trees in memory), 1 processes trees in the calling thread.
+     * The trees are split into the same ranges and the results are added
+     * in the same order for any number of threads, so the result does not
+     * depend on the number of threads.
+     * @param threads number of threads
+     */
+    public void setParallelism(int threads){
+        this.parallelism = Math.max(1, threads);
+    }
+
+    public int getParallelism(){ return this.parallelism;}
+    /**
+     * Sets minimum number of rows in a range processed by one task.
+     * @param entries number of rows
+     */
+    public void setMinRangeEntries(long entries){
+        this.minRangeEntries = Math.max(1L, entries);
+    }
+
+    public long getMinRangeEntries(){ return this.minRangeEntries;}
+    /**
+     * Fills histograms of all descriptors reading the tree once.
+     * Histograms are created (or reset) before filling. Descriptors with
+     * the same set of cuts are grouped, cuts are checked once per group.
+     * Splittable trees are divided into ranges of rows processed on a
+     * fork-join pool (in the calling thread if parallelism is 1), each 
+     * range fills its own copies of the histograms,
+     * which are added in the order of ranges. Trees with a cache are
+     * processed in one thread reading cached values.
+     * @param tree tree to process
+     */
     public void process(ITree tree){
-        tree.reset();
+        this.compile(tree);
+        IDataSet[] histograms = new IDataSet[datasets.size()];
+        for(int d = 0; d < histograms.length; d++){
+            histograms[d] = datasets.get(d).createDataSet();
+        }
+        /* binary files read only the columns that are used and skip 
+           chunks where no descriptor passes the cuts */
+        Set<String> active = null;
+        IRowGroupFilter filter = null;
+        if(tree instanceof TreeFile){
+            active = ((TreeFile) tree).getActiveBranches();
+            filter = ((TreeFile) tree).getRowGroupFilter();
+            ((TreeFile) tree).setActiveBranches(Arrays.asList(usedNames));
+            ((TreeFile) tree).setRowGroupFilter(new GroupFilter());
+        }
+        try {
+            boolean cached = (tree instanceof Tree&&((Tree) tree).getCache()!=null);
+            if(cached==false&&tree instanceof ISplittableTree
+                    &&((ISplittableTree) tree).getEntries()>=2*minRangeEntries){
+                RangeTask task = new RangeTask(new TreeRange((ISplittableTree) tree), histograms);
+                IDataSet[] result;
+                if(parallelism==1){
+                    result = task.compute();
+                } else {
+                    ForkJoinPool pool = new ForkJoinPool(parallelism);
+                    try {
+                        result = pool.invoke(task);
+                    } finally {
+                        pool.shutdown();
+                    }
+                }
+                TreeAnalyzer.add(histograms, result);
+            } else {
+                this.fill(tree, histograms);
+            }
+        } finally {
+            if(active!=null){
+                ((TreeFile) tree).setActiveBranches(active);
+                ((TreeFile) tree).setRowGroupFilter(filter);
+            }
+        }
+    }
+    /**
+     * Compiles expressions of all descriptors and groups descriptors
+     * by their cuts.
+     */
+    private void compile(ITree tree){
+        expressionList.clear();
+        expressionIndex.clear();
+
+        int ndesc = datasets.size();
+        indexX = new int[ndesc];
+        indexY = new int[ndesc];
+        Map<String,List<Integer>> groups    = new LinkedHashMap<String,List<Integer>>();
+        Map<String,int[]>         groupCuts = new HashMap<String,int[]>();
+        for(int d = 0; d < ndesc; d++){
+            DatasetDescriptor desc = datasets.get(d);
+            indexX[d] = this.getExpressionIndex(desc.getExpressionX());
+            indexY[d] = (desc.getNDim()>1) ? this.getExpressionIndex(desc.getExpressionY()) : -1;
+            Set<Integer> cuts = new TreeSet<Integer>();
+            for(String cut : desc.getCuts()){
+                cuts.add(this.getExpressionIndex(this.getCutExpression(tree, cut)));
+            }
+            String key = cuts.toString();
+            if(groups.containsKey(key)==false){
+                groups.put(key, new ArrayList<Integer>());
+                int[] array = new int[cuts.size()];
+                int c = 0;
+                for(Integer index : cuts) array[c++] = index;
+                groupCuts.put(key, array);
+            }
+            groups.get(key).add(d);
+        }
+        cutsOfGroup    = new int[groups.size()][];
+        membersOfGroup = new int[groups.size()][];
+        int g = 0;
+        for(Map.Entry<String,List<Integer>> entry : groups.entrySet()){
+            cutsOfGroup[g]    = groupCuts.get(entry.getKey());
+            membersOfGroup[g] = new int[entry.getValue().size()];
+            for(int m = 0; m < membersOfGroup[g].length; m++){
+                membersOfGroup[g][m] = entry.getValue().get(m);
+            }
+            g++;
+        }
+        /* only branches used in the expressions are copied for each row */
+        List<String> branchList = tree.getListOfBranches();
+        String[] names = branchList.toArray(new String[branchList.size()]);
+        Set<String>  used = new LinkedHashSet<String>();
+        int nexp = expressionList.size();
+        expressions = new CompiledExpression[nexp];
+        Map<String,Function> functions = new HashMap<String,Function>();
+        for(int e = 0; e < nexp; e++){
+            String expression = expressionList.get(e);
+            expressions[e] = new CompiledExpression(expression, names, functions, TreeCut.getOperators());
+            used.addAll(TreeCut.getReferencedBranches(expression, branchList));
+        }
+        usedNames = used.toArray(new String[used.size()]);
+        usedSlots = new int[usedNames.length];
+        for(int u = 0; u < usedNames.length; u++){
+            usedSlots[u] = branchList.indexOf(usedNames[u]);
+        }
+        nSlots    = names.length;
+        slotNames = names;
+    }
+    /**
+     * Reads all rows of the tree and fills the histograms (in the 
+     * order of descriptors).
+     */
+    private void fill(ITree tree, IDataSet[] histograms){
+        int nexp  = expressions.length;
+        Branch[] usedBranches = new Branch[usedNames.length];
+        for(int u = 0; u < usedNames.length; u++){
+            usedBranches[u] = tree.getBranch(usedNames[u]);
+        }
+        double[] slots     = new double[nSlots];
+        double[] values    = new double[nexp];
+        int[]    valueRow  = new int[nexp];
+        int      row       = 0;
+
+        TreeCache.Reader reader = (tree instanceof Tree) 
+                ? ((Tree) tree).openReader(Arrays.asList(usedNames)) : null;
+        if(reader==null) tree.reset();
+        while(reader==null ? tree.readNext() : reader.next()){
+            row++;
+            for(int b = 0; b < usedSlots.length; b++){
+                slots[usedSlots[b]] = usedBranches[b].getDouble();
+            }
+            for(int g = 0; g < cutsOfGroup.length; g++){
+                int[] cuts = cutsOfGroup[g];
+                boolean passed = true;
+                for(int c = 0; c < cuts.length; c++){
+                    int e = cuts[c];
+                    if(valueRow[e]!=row){
+                        values[e]   = expressions[e].evaluate(slots);
+                        valueRow[e] = row;
+                    }
+                    if(values[e]<=0.0){
+                        passed = false;
+                        break;
+                    }
+                }
+                if(passed==false) continue;
+
+                int[] members = membersOfGroup[g];
+                for(int m = 0; m < members.length; m++){
+                    int d  = members[m];
+                    int ex = indexX[d];
+                    if(valueRow[ex]!=row){
+                        values[ex]   = expressions[ex].evaluate(slots);
+                        valueRow[ex] = row;
+                    }
+                    if(indexY[d]<0){
+                        ((H1F) histograms[d]).fill(values[ex]);
+                    } else {
+                        int ey = indexY[d];
+                        if(valueRow[ey]!=row){
+                            values[ey]   = expressions[ey].evaluate(slots);
+                            valueRow[ey] = row;
+                        }
+                        ((H2F) histograms[d]).fill(values[ex], values[ey]);
+                    }
+                }
+            }
+        }
+    }
+    /**
+     * Returns empty histograms with the same binning.
+     */
+    private static IDataSet[] createCopies(IDataSet[] histograms){
+        IDataSet[] copies = new IDataSet[histograms.length];
+        for(int d = 0; d < histograms.length; d++){
+            if(histograms[d] instanceof H2F){
+                H2F h2 = ((H2F) histograms[d]).histClone(histograms[d].getName());
+                h2.reset();
+                copies[d] = h2;
+            } else {
+                H1F h1 = ((H1F) histograms[d]).histClone(histograms[d].getName());
+                h1.reset();
+                copies[d] = h1;
+            }
+        }
+        return copies;
+    }
+
+    private static void add(IDataSet[] histograms, IDataSet[] other){
+        for(int d = 0; d < histograms.length; d++){
+            if(histograms[d] instanceof H2F){
+                ((H2F) histograms[d]).add((H2F) other[d]);
+            } else {
+                ((H1F) histograms[d]).add((H1F) other[d]);
+            }
+        }
+    }
+    /**
+     * Filter of row groups: the group is read if cuts of any group of
+     * descriptors can pass.
+     */
+    private class GroupFilter implements IRowGroupFilter {
         
-        while(tree.readNext()==true){
-            for(DatasetDescriptor desc : datasets){
-                //if(desc.getDataSet() instanceof )
+        @Override
+        public boolean mayPass(String[] branches, double[] min, double[] max){
+            double[] slotMin = new double[nSlots];
+            double[] slotMax = new double[nSlots];
+            List<String> names = Arrays.asList(branches);
+            for(int i = 0; i < nSlots; i++){
+                int b = names.indexOf(slotNames[i]);
+                slotMin[i] = (b<0) ? Double.NaN : min[b];
+                slotMax[i] = (b<0) ? Double.NaN : max[b];
             }
+            for(int g = 0; g < cutsOfGroup.length; g++){
+                boolean passed = true;
+                for(int c = 0; c < cutsOfGroup[g].length&&passed==true; c++){
+                    passed = expressions[cutsOfGroup[g][c]].mayBePositive(slotMin, slotMax);
+                }
+                if(passed==true) return true;
+            }
+            return false;
         }
     }
-    
+    /**
+     * Task filling histograms from a range of rows. The range is split
+     * recursively, the first part is forked and results of both parts 
+     * are added (first + second), so the order of additions is fixed by
+     * the splitting and does not depend on scheduling. With one thread
+     * both parts are computed in the calling thread.
+     */
+    private class RangeTask extends RecursiveTask<IDataSet[]> {
+
+        private static final long serialVersionUID = 1L;
+
+        private final TreeRange   range;
+        private final IDataSet[]  templates;
+
+        RangeTask(TreeRange range, IDataSet[] templates){
+            this.range     = range;
+            this.templates = templates;
+        }
+
+        @Override
+        protected IDataSet[] compute(){
+            TreeRange first = range.trySplit(minRangeEntries);
+            if(first==null){
+                IDataSet[] histograms = TreeAnalyzer.createCopies(templates);
+                ITree tree = range.open();
+                try {
+                    TreeAnalyzer.this.fill(tree, histograms);
+                } finally {
+                    if(tree instanceof TreeFile) ((TreeFile) tree).close();
+                }
+                return histograms;
+            }
+            RangeTask firstTask = new RangeTask(first, templates);
+            if(parallelism==1){
+                IDataSet[] result = firstTask.compute();
+                TreeAnalyzer.add(result, new RangeTask(range, templates).compute());
+                return result;
+            }
+            firstTask.fork();
+            IDataSet[] second = new RangeTask(range, templates).compute();
+            IDataSet[] result = firstTask.join();
+            TreeAnalyzer.add(result, second);
+            return result;
+        }
+    }
+
     public List<DatasetDescriptor>  getDescriptors(){
         return this.datasets;
     }
-    
+
      public DefaultMutableTreeNode getTree() {
 
         DefaultMutableTreeNode root         = new DefaultMutableTreeNode("Analyzer");
-        
+
         for(DatasetDescriptor desc : datasets){
             root.add(new DefaultMutableTreeNode(desc.getName()));
         }
         return root;
      }
- 
+
 }
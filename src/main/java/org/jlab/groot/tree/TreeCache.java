@@ -0,0 +1,295 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.tree;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Cache of branch values of a tree kept in primitive arrays. When a tree
+ * with a cache is scanned (getVector(), getDataVector(), TreeAnalyzer)
+ * values of the branches used in the scan are recorded, following scans
+ * using only cached branches read values from memory instead of reading
+ * the tree. The total size of cached columns is limited by the memory
+ * budget, least recently used branches are removed first.
+ *
+ * <pre>
+ * tree.setCache(new TreeCache(512*1024*1024));
+ * </pre>
+ *
+ * @author gavalian
+ */
+public class TreeCache {
+
+    public static final long DEFAULT_MEMORY_BUDGET = 256L*1024L*1024L;
+
+    /* columns in access order, the first is the least recently used */
+    private final LinkedHashMap<String,Column> columns =
+            new LinkedHashMap<String,Column>(16, 0.75f, true);
+    private long  memoryBudget = DEFAULT_MEMORY_BUDGET;
+    private long  memoryUsed   = 0L;
+    private int   cacheEntries = -1;
+    private int   treeVersion  = -1;
+
+    public TreeCache(){
+
+    }
+    /**
+     * Creates cache with given memory budget.
+     * @param budget maximum size of cached columns in bytes
+     */
+    public TreeCache(long budget){
+        this.memoryBudget = Math.max(0L, budget);
+    }
+
+    public long getMemoryBudget(){ return this.memoryBudget;}
+    /**
+     * Sets the memory budget, columns are removed if the cache is larger.
+     * @param budget size in bytes
+     */
+    public synchronized void setMemoryBudget(long budget){
+        this.memoryBudget = Math.max(0L, budget);
+        this.evict(0L, null);
+    }
+    /**
+     * Returns memory used by cached columns in bytes.
+     * @return number of bytes
+     */
+    public synchronized long getMemoryUsed(){ return this.memoryUsed;}
+    /**
+     * Returns number of rows in cached columns, -1 if nothing is cached.
+     * @return number of rows
+     */
+    public synchronized int getEntries(){ return this.cacheEntries;}
+    /**
+     * Returns names of cached branches from the least to the most
+     * recently used.
+     * @return set of branch names
+     */
+    public synchronized Set<String> getCachedBranches(){
+        return new LinkedHashSet<String>(columns.keySet());
+    }
+
+    public synchronized boolean contains(String branch){
+        return columns.containsKey(branch);
+    }
+
+    public synchronized void clear(){
+        columns.clear();
+        memoryUsed   = 0L;
+        cacheEntries = -1;
+    }
+    /**
+     * Removes least recently used columns (except columns that are
+     * kept) until there is space for given number of bytes.
+     */
+    private void evict(long needed, Collection<String> keep){
+        Iterator<Map.Entry<String,Column>> iter = columns.entrySet().iterator();
+        while(memoryUsed + needed>memoryBudget&&iter.hasNext()){
+            Map.Entry<String,Column> entry = iter.next();
+            if(keep!=null&&keep.contains(entry.getKey())) continue;
+            memoryUsed -= entry.getValue().getBytes();
+            iter.remove();
+        }
+        if(columns.isEmpty()) cacheEntries = -1;
+    }
+    /**
+     * Creates reader of rows of the tree with values of given branches,
+     * values are read from the cache if all branches are cached,
+     * otherwise the tree is read and values are recorded.
+     * @param tree the tree that owns the cache
+     * @param branches names of branches used
+     * @return reader positioned before the first row
+     */
+    synchronized Reader open(Tree tree, Collection<String> branches){
+        if(tree.getBranchVersion()!=treeVersion){
+            this.clear();
+            treeVersion = tree.getBranchVersion();
+        }
+        List<Branch> targets = new ArrayList<Branch>();
+        List<Column> cached  = new ArrayList<Column>();
+        boolean complete = true;
+        for(String name : new LinkedHashSet<String>(branches)){
+            Branch branch = tree.getBranch(name);
+            if(branch==null) continue;
+            Column column = columns.get(name);
+            if(column==null) complete = false;
+            targets.add(branch);
+            cached.add(column);
+        }
+        Branch[] array = targets.toArray(new Branch[targets.size()]);
+        if(complete==true&&cacheEntries>=0){
+            return new Reader(tree, array, cached.toArray(new Column[cached.size()]), cacheEntries);
+        }
+        return new Reader(tree, array, null, 0);
+    }
+    /**
+     * Returns cached column of the branch, reads the tree if the branch
+     * is not cached.
+     * @param tree the tree that owns the cache
+     * @param branch branch name
+     * @return column or null if it does not fit into the cache
+     */
+    Column getColumn(Tree tree, String branch){
+        Reader reader;
+        synchronized(this){
+            Column column = (tree.getBranchVersion()==treeVersion) ? columns.get(branch) : null;
+            if(column!=null) return column;
+            reader = this.open(tree, Collections.singleton(branch));
+        }
+        while(reader.next()==true){}
+        synchronized(this){
+            return columns.get(branch);
+        }
+    }
+    /**
+     * Adds recorded columns, called when a scan was completed.
+     */
+    private synchronized void store(int version, Branch[] branches, Column[] recorded, int entries){
+        if(version!=treeVersion) return;
+        if(cacheEntries>=0&&cacheEntries!=entries){
+            /* number of rows changed, the tree was modified */
+            this.clear();
+            treeVersion = version;
+        }
+        List<String> keep = new ArrayList<String>();
+        for(Branch branch : branches) keep.add(branch.getName());
+        for(int b = 0; b < branches.length; b++){
+            String name = branches[b].getName();
+            if(columns.containsKey(name)) continue;
+            Column column = recorded[b];
+            column.trim(entries);
+            long bytes = column.getBytes();
+            if(bytes>memoryBudget) continue;
+            this.evict(bytes, keep);
+            if(memoryUsed + bytes>memoryBudget) continue;
+            columns.put(name, column);
+            memoryUsed  += bytes;
+            cacheEntries = entries;
+        }
+    }
+    /**
+     * Values of one branch, long values are kept in a long array.
+     */
+    static final class Column {
+
+        private double[] doubles = null;
+        private long[]   longs   = null;
+
+        Column(boolean isLong, int capacity){
+            if(isLong==true){
+                longs = new long[capacity];
+            } else {
+                doubles = new double[capacity];
+            }
+        }
+
+        int getSize(){
+            return (doubles!=null) ? doubles.length : longs.length;
+        }
+
+        double getDouble(int row){
+            return (doubles!=null) ? doubles[row] : longs[row];
+        }
+
+        long getBytes(){
+            return 8L*((doubles!=null) ? doubles.length : longs.length);
+        }
+
+        void set(int row, Branch branch){
+            if(doubles!=null){
+                if(row>=doubles.length) doubles = Arrays.copyOf(doubles, 2*doubles.length + 16);
+                doubles[row] = branch.getDouble();
+            } else {
+                if(row>=longs.length) longs = Arrays.copyOf(longs, 2*longs.length + 16);
+                longs[row] = branch.getLong();
+            }
+        }
+
+        void get(int row, Branch branch){
+            if(doubles!=null){
+                branch.setDouble(doubles[row]);
+            } else {
+                branch.setLong(longs[row]);
+            }
+        }
+
+        void trim(int size){
+            if(doubles!=null&&doubles.length!=size) doubles = Arrays.copyOf(doubles, size);
+            if(longs!=null&&longs.length!=size) longs = Arrays.copyOf(longs, size);
+        }
+    }
+    /**
+     * Reads rows of the tree, either from cached columns or from the 
+     * tree itself while recording values of the branches.
+     */
+    final class Reader {
+
+        private final Tree      tree;
+        private final Branch[]  branches;
+        private final Column[]  columns;
+        private final int       entries;
+        private final int       version;
+        private Column[]        recorded = null;
+        private int             row      = 0;
+
+        Reader(Tree tree, Branch[] branches, Column[] columns, int entries){
+            this.tree     = tree;
+            this.branches = branches;
+            this.columns  = columns;
+            this.entries  = entries;
+            this.version  = tree.getBranchVersion();
+            if(columns==null){
+                int capacity = 1024;
+                if(tree instanceof ISplittableTree){
+                    long rows = ((ISplittableTree) tree).getEntries();
+                    if(rows>0&&8L*rows*branches.length<=memoryBudget) capacity = (int) rows;
+                }
+                recorded = new Column[branches.length];
+                for(int b = 0; b < branches.length; b++){
+                    BranchType type = branches[b].getType();
+                    recorded[b] = new Column(type==BranchType.LONG||type==BranchType.INT, capacity);
+                }
+                tree.reset();
+            }
+        }
+        /**
+         * Sets values of the branches for the next row.
+         * @return false when there are no more rows
+         */
+        boolean next(){
+            if(columns!=null){
+                if(row>=entries) return false;
+                for(int b = 0; b < branches.length; b++) columns[b].get(row, branches[b]);
+                row++;
+                return true;
+            }
+            if(tree.readNext()==false){
+                if(recorded!=null) store(version, branches, recorded, row);
+                recorded = null;
+                return false;
+            }
+            if(recorded!=null){
+                if(8L*(row + 1)*branches.length>memoryBudget){
+                    /* values do not fit into the cache */
+                    recorded = null;
+                } else {
+                    for(int b = 0; b < branches.length; b++) recorded[b].set(row, branches[b]);
+                }
+            }
+            row++;
+            return true;
+        }
+    }
+}
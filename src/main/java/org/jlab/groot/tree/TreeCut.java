@@ -7,29 +7,41 @@
 package org.jlab.groot.tree;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
-import net.objecthunter.exp4j.Expression;
-import net.objecthunter.exp4j.ExpressionBuilder;
+import java.util.Map;
+import java.util.regex.Pattern;
+import net.objecthunter.exp4j.function.Function;
 import net.objecthunter.exp4j.operator.Operator;
+import org.jlab.groot.math.CompiledExpression;
 
 /**
- *
+ * Cut on tree branches given by an expression, the cut passes if the 
+ * expression is positive. The expression is compiled once, only branches 
+ * that appear in it are read (by index) and logical operators 
+ * (&amp;&amp;, &amp;, ||, |) evaluate the right side only when needed.
+ * 
  * @author gavalian
  */
-public class TreeCut {
+public class TreeCut implements IRowGroupFilter {
     
     String  cutName = "";
     String  cutExpression = "";
     List<String> cutVariables = new ArrayList<String>();
-    Expression expr = null;
+    CompiledExpression expr = null;
     private boolean  isCutActive = true;
     
+    private String[] cutBranches  = new String[0];
+    private double[] cutSlots     = new double[0];
+    private Branch[] boundBranches = new Branch[0];
+    private ITree    boundTree    = null;
+    private int      boundVersion = -1;
+    
     public ArrayList<String> getBranches(){
     	return (ArrayList<String>) cutVariables;
     }
     
-    Operator operatorGT = new Operator(">", 2, true, Operator.PRECEDENCE_MULTIPLICATION) {
+    static final Operator operatorGT = new Operator(">", 2, true, Operator.PRECEDENCE_MULTIPLICATION) {
             @Override
             public double apply(final double... args) {
                 if(args[0]>args[1]) return 1.0;
@@ -37,7 +49,7 @@ public class TreeCut {
             }
     };
     
-    Operator operatorLT = new Operator("<", 2, true, Operator.PRECEDENCE_MULTIPLICATION) {
+    static final Operator operatorLT = new Operator("<", 2, true, Operator.PRECEDENCE_MULTIPLICATION) {
         @Override
         public double apply(final double... args) {
             if(args[0]<args[1]) return 1.0;
@@ -45,7 +57,7 @@ public class TreeCut {
         }
     };
 
-    Operator operatorEQ = new Operator("==", 2, true, Operator.PRECEDENCE_MULTIPLICATION) {
+    static final Operator operatorEQ = new Operator("==", 2, true, Operator.PRECEDENCE_MULTIPLICATION) {
         @Override
         public double apply(final double... args) {
             if(args[0]==args[1]) return 1.0;
@@ -53,7 +65,7 @@ public class TreeCut {
         }
     };
 
-    Operator operatorAND = new Operator("&&", 2, true, Operator.PRECEDENCE_ADDITION) {
+    static final Operator operatorAND = new Operator("&&", 2, true, Operator.PRECEDENCE_ADDITION) {
         @Override
         public double apply(final double... args) {
             if(args[0]>0.0&&args[1]>0.0) return 1.0;
@@ -61,7 +73,7 @@ public class TreeCut {
         }
     };
     
-    Operator operatorOR = new Operator("||", 2, true, Operator.PRECEDENCE_ADDITION) {
+    static final Operator operatorOR = new Operator("||", 2, true, Operator.PRECEDENCE_ADDITION) {
         @Override
         public double apply(final double... args) {
             if(args[0]>0.0||args[1]>0.0) return 1.0;
@@ -69,6 +81,22 @@ public class TreeCut {
         }
     };    
     
+    static final Operator operatorANDS = new Operator("&", 2, true, Operator.PRECEDENCE_ADDITION) {
+        @Override
+        public double apply(final double... args) {
+            if(args[0]>0.0&&args[1]>0.0) return 1.0;
+            return 0.0;
+        }
+    };
+    
+    static final Operator operatorORS = new Operator("|", 2, true, Operator.PRECEDENCE_ADDITION) {
+        @Override
+        public double apply(final double... args) {
+            if(args[0]>0.0||args[1]>0.0) return 1.0;
+            return 0.0;
+        }
+    };
+    
     /*
     public DataCut(String name, String exp){
         cutName = name;
@@ -85,6 +113,29 @@ public class TreeCut {
         init();
     }
     
+    /**
+     * Returns the branches that appear in the cut expression.
+     * @return list of branch names
+     */
+    public List<String> getReferencedBranches(){
+        return TreeCut.getReferencedBranches(cutExpression, cutVariables);
+    }
+    /**
+     * Returns the branches from the list that appear in the expression.
+     * @param expression expression using branch names as variables
+     * @param branchList names of branches
+     * @return list of branch names used in the expression
+     */
+    static List<String> getReferencedBranches(String expression, List<String> branchList){
+        List<String> branches = new ArrayList<String>();
+        for(String br : branchList){
+            Pattern pattern = Pattern.compile("(?<![A-Za-z0-9_])" 
+                    + Pattern.quote(br) + "(?![A-Za-z0-9_])");
+            if(pattern.matcher(expression).find()) branches.add(br);
+        }
+        return branches;
+    }
+    
     public boolean isActive(){
         return this.isCutActive;
     }
@@ -110,27 +161,81 @@ public class TreeCut {
     	this.cutName = name;
     }
     
+    /**
+     * Returns operators that can be used in cut expressions
+     * (comparisons and logical operators).
+     * @return map of operators by symbol
+     */
+    static Map<String,Operator> getOperators(){
+        Map<String,Operator> operators = new HashMap<String,Operator>();
+        for(Operator op : new Operator[]{operatorAND, operatorOR, operatorANDS, 
+            operatorORS, operatorGT, operatorLT, operatorEQ}){
+            operators.put(op.getSymbol(), op);
+        }
+        return operators;
+    }
+    
     final void init(){
-        String[] variables = new String[cutVariables.size()];
-        for(int i=0; i < variables.length; i++) variables[i] = cutVariables.get(i);
+        List<String> branches = this.getReferencedBranches();
+        cutBranches = branches.toArray(new String[branches.size()]);
         
-        ExpressionBuilder builder = new ExpressionBuilder(cutExpression)
-                .operator(operatorAND)
-                .operator(operatorOR)
-                .operator(operatorGT)
-                .operator(operatorLT)
-                .operator(operatorEQ);
-        builder.variables(variables);
-        expr = builder.build();        
+        expr = new CompiledExpression(cutExpression, cutBranches, 
+                new HashMap<String,Function>(), TreeCut.getOperators());
+        cutSlots      = new double[cutBranches.length];
+        boundBranches = new Branch[cutBranches.length];
+        boundTree     = null;
+    }
+    /**
+     * Finds branches used by the cut in the tree, done when the cut 
+     * is used with a new tree or branches of the tree were changed.
+     */
+    private void bind(ITree tree){
+        for(int i = 0; i < cutBranches.length; i++){
+            boundBranches[i] = tree.getBranch(cutBranches[i]);
+            if(boundBranches[i]==null){
+                throw new IllegalArgumentException("TreeCut: branch " + cutBranches[i]
+                        + " used in cut " + cutName + " does not exist in tree " + tree.getName());
+            }
+        }
+        boundTree    = tree;
+        boundVersion = (tree instanceof Tree) ? ((Tree) tree).getBranchVersion() : -1;
     }
     
-    public boolean isValid(ITree tree){        
-        for(int i = 0; i < cutVariables.size(); i++){
-            expr.setVariable(cutVariables.get(i), 
-                    tree.getBranch(cutVariables.get(i)).getValue().doubleValue());
+    /**
+     * Checks if any row with branch values within the ranges can pass
+     * the cut, branches not used in the cut are ignored.
+     * @param branches names of branches
+     * @param min minimum values of the branches
+     * @param max maximum values of the branches
+     * @return false if no row can pass
+     */
+    @Override
+    public boolean mayPass(String[] branches, double[] min, double[] max){
+        double[] slotMin = new double[cutBranches.length];
+        double[] slotMax = new double[cutBranches.length];
+        for(int i = 0; i < cutBranches.length; i++){
+            slotMin[i] = Double.NaN;
+            slotMax[i] = Double.NaN;
+            for(int b = 0; b < branches.length; b++){
+                if(branches[b].equals(cutBranches[i])){
+                    slotMin[i] = min[b];
+                    slotMax[i] = max[b];
+                }
+            }
+        }
+        return expr.mayBePositive(slotMin, slotMax);
+    }
+    
+    public boolean isValid(ITree tree){
+        if(tree!=boundTree||(tree instanceof Tree
+                &&((Tree) tree).getBranchVersion()!=boundVersion)){
+            this.bind(tree);
+        }
+        double[]  slots    = this.cutSlots;
+        Branch[]  branches = this.boundBranches;
+        for(int i = 0; i < slots.length; i++){
+            slots[i] = branches[i].getDouble();
         }
-        double result = expr.evaluate();
-        if(result>0.0) return true;
-        return false;
+        return expr.evaluate(slots)>0.0;
     }
 }
@@ -5,31 +5,621 @@
  */
 package org.jlab.groot.tree;
 
-import java.util.ArrayList;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Set;
 import org.jlab.groot.data.DataVector;
 
 /**
+ * Tree reading binary columnar files (written by TreeFileWriter).
+ * The file is read through memory mapped buffers one chunk at a time,
+ * only columns of active branches are read, so the pages of other
+ * branches are never touched.
+ *
+ * File layout (little endian):
+ * <pre>
+ * header : int magic, int version, int nbranches,
+ *          for each branch: int type, name, description, unit
+ *          (strings as int length + UTF-8 bytes), padded to 8 bytes
+ * chunk  : int magic, int nrows, long chunk length,
+ *          long offset of each column (from the chunk start), padded to 8 bytes,
+ *          columns of nrows values each, padded to 8 bytes
+ * index  : for each chunk: long chunk position, long nrows
+ *          for each chunk and branch: double minimum, double maximum
+ *          (NaN if the column has NaN values, since version 2)
+ * tail   : long index position, int nchunks, int end magic
+ * </pre>
+ * 
+ * Chunks are groups of rows with known range of values of each branch.
+ * When a row group filter is set (for example the selector used in 
+ * getVector() or cuts of TreeAnalyzer), chunks where no row can pass 
+ * are not read. Filtering is not done for trees with a cache, which
+ * needs all rows.
  *
  * @author gavalian
  */
-public class TreeFile extends Tree {
-    
-    List<DataVector>  dataVectors = new ArrayList<DataVector>();
+public class TreeFile extends Tree implements ISplittableTree {
+
+    static final int FILE_MAGIC   = 0x46525447; // "GTRF"
+    static final int CHUNK_MAGIC  = 0x4B4E4843; // "CHNK"
+    static final int END_MAGIC    = 0x444E4547; // "GEND"
+    static final int FILE_VERSION = 2;
+
+    private String       fileName    = null;
+    private FileChannel  fileChannel = null;
+    /* channel of the tree that created this range, not closed by close() */
+    private boolean      sharedChannel = false;
+    private Branch[]     fileBranches = new Branch[0];
+    private BranchType[] fileTypes    = new BranchType[0];
+    private boolean[]    branchActive = new boolean[0];
+    private long[]       chunkOffsets = new long[0];
+    private int[]        chunkRows    = new int[0];
+    private long[]       chunkFirst   = new long[0];
+    private double[][]   chunkMin     = new double[0][];
+    private double[][]   chunkMax     = new double[0][];
+    private ByteBuffer   indexBuffer  = null;
+    private String[]     branchNames  = new String[0];
+    private IRowGroupFilter rowGroupFilter = null;
+    private int          skippedChunks = 0;
+    private int          startChunk    = 0;
+    private long         indexPosition = 0L;
+    private long         fileEntries   = 0L;
+
+    private MappedByteBuffer chunkBuffer = null;
+    private ByteBuffer[] chunkColumns = new ByteBuffer[0];
+    private long[]       columnOffsets = new long[0];
+    private int          currentChunk = -1;
+    private int          currentRow   = 0;
+    private int          currentRows  = 0;
+    private long         currentEntry = 0L;
+    private int          skipRows     = 0;
+    /* range of rows read by readNext() */
+    private long         rangeFirst   = 0L;
+    private long         rangeLast    = Long.MAX_VALUE;
     
+    private TreeTextReader textReader = null;
+    private double[]       textValues = new double[0];
+
     public TreeFile(String name) {
         super(name);
     }
-    
+
+    /**
+     * Creates a tree reading a text file with given number of columns 
+     * (see readTextFile()).
+     * @param name tree name
+     * @param filename text file name
+     * @param columns number of columns
+     */
     public TreeFile(String name, String filename, int columns) {
         super(name);
+        this.readTextFile(filename, columns);
     }
-    
+
+    static int align(int size){
+        return (size + 7) & ~7;
+    }
+    /**
+     * Opens binary tree file, branches stored in the file are added to
+     * the tree.
+     * @param file file name
+     */
     public void readFile(String file){
-        
+        this.fileName = file;
+        this.close();
+        this.textReader = null;
+        this.openFile();
+    }
+    /**
+     * Opens a text file with numbers in columns separated by spaces, tabs, 
+     * commas or semicolons, lines starting with # are ignored. If the first
+     * line is not numeric it gives the branch names, otherwise branches are 
+     * named c1, c2, ... The file is read row by row with readNext(). If 
+     * number of columns is 0 it is taken from the first line.
+     * @param file file name
+     * @param columns number of columns
+     */
+    public void readTextFile(String file, int columns){
+        this.fileName = file;
+        this.close();
+        textReader = new TreeTextReader(file, columns);
+        this.openFile();
     }
     
+    private void openTextFile() throws IOException {
+        textReader.open();
+        int ncolumns = textReader.getNColumns();
+        List<String> names = textReader.getColumnNames();
+        if(fileBranches.length!=ncolumns){
+            fileBranches = new Branch[ncolumns];
+            fileTypes    = new BranchType[ncolumns];
+            branchActive = new boolean[ncolumns];
+            for(int b = 0; b < ncolumns; b++){
+                String name = (names!=null&&b<names.size()) ? names.get(b) : "c" + (b+1);
+                fileBranches[b] = new Branch(name, "column " + (b+1), "");
+                fileTypes[b]    = BranchType.DOUBLE;
+                branchActive[b] = true;
+                this.addBranch(fileBranches[b]);
+            }
+            chunkColumns  = new ByteBuffer[ncolumns];
+            columnOffsets = new long[ncolumns];
+        }
+        textValues  = new double[ncolumns];
+        fileEntries = -1L;
+    }
+    /**
+     * Opens (or reopens) the file given in readFile() or readTextFile().
+     */
     public void openFile(){
-        
+        this.close();
+        if(fileName==null){
+            System.out.println("[TreeFile] error : ---> no file name given");
+            return;
+        }
+        if(textReader!=null){
+            try {
+                this.openTextFile();
+            } catch (IOException e){
+                System.out.println("[TreeFile] error : ---> failed to open file "
+                        + fileName + " : " + e.getMessage());
+                this.close();
+            }
+            return;
+        }
+        try {
+            fileChannel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+            this.readIndex();
+            this.readHeader();
+        } catch (IOException | RuntimeException e){
+            System.out.println("[TreeFile] error : ---> failed to open file "
+                    + fileName + " : " + e.getMessage());
+            this.close();
+            return;
+        }
+        this.reset();
+    }
+
+    private ByteBuffer read(long position, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(length).order(ByteOrder.LITTLE_ENDIAN);
+        while(buffer.hasRemaining()){
+            if(fileChannel.read(buffer, position + buffer.position())<0){
+                throw new IOException("unexpected end of file");
+            }
+        }
+        buffer.flip();
+        return buffer;
+    }
+
+    private static String readString(ByteBuffer buffer){
+        byte[] bytes = new byte[buffer.getInt()];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private void readHeader() throws IOException {
+        ByteBuffer start = this.read(0, 12);
+        if(start.getInt()!=FILE_MAGIC) throw new IOException("not a tree file");
+        int version = start.getInt();
+        if(version>FILE_VERSION) throw new IOException("unsupported file version " + version);
+        int nbranches = start.getInt();
+        long headerEnd = (chunkOffsets.length>0) ? chunkOffsets[0] : indexPosition;
+        ByteBuffer header = this.read(0, (int) headerEnd);
+        header.position(12);
+        fileBranches = new Branch[nbranches];
+        fileTypes    = new BranchType[nbranches];
+        branchActive = new boolean[nbranches];
+        for(int b = 0; b < nbranches; b++){
+            BranchType type = BranchType.getType(header.getInt());
+            if(type==null) throw new IOException("unknown type of branch " + b);
+            String name = readString(header);
+            String desc = readString(header);
+            String unit = readString(header);
+            fileBranches[b] = new Branch(name, desc, unit, type);
+            fileTypes[b]    = type;
+            branchActive[b] = true;
+            this.addBranch(fileBranches[b]);
+        }
+        chunkColumns  = new ByteBuffer[nbranches];
+        columnOffsets = new long[nbranches];
+        branchNames   = new String[nbranches];
+        for(int b = 0; b < nbranches; b++) branchNames[b] = fileBranches[b].getName();
+        this.readStatistics(version);
+    }
+    /**
+     * Reads minimum and maximum of branches in each chunk from the index,
+     * files of version 1 have no statistics (ranges are unknown).
+     */
+    private void readStatistics(int version){
+        int nchunks   = chunkOffsets.length;
+        int nbranches = fileBranches.length;
+        chunkMin = new double[nchunks][nbranches];
+        chunkMax = new double[nchunks][nbranches];
+        boolean stored = version>=2&&indexBuffer!=null
+                &&indexBuffer.remaining()>=16*nchunks*nbranches;
+        for(int c = 0; c < nchunks; c++){
+            for(int b = 0; b < nbranches; b++){
+                chunkMin[c][b] = (stored==true) ? indexBuffer.getDouble() : Double.NaN;
+                chunkMax[c][b] = (stored==true) ? indexBuffer.getDouble() : Double.NaN;
+            }
+        }
+        indexBuffer = null;
+    }
+
+    private void readIndex() throws IOException {
+        ByteBuffer tail = this.read(fileChannel.size() - 16, 16);
+        indexPosition = tail.getLong();
+        int nchunks   = tail.getInt();
+        if(tail.getInt()!=END_MAGIC) throw new IOException("file is not closed properly");
+        ByteBuffer index = this.read(indexPosition, (int) (fileChannel.size() - 16 - indexPosition));
+        chunkOffsets = new long[nchunks];
+        chunkRows    = new int[nchunks];
+        chunkFirst   = new long[nchunks];
+        fileEntries  = 0L;
+        for(int c = 0; c < nchunks; c++){
+            chunkOffsets[c] = index.getLong();
+            chunkRows[c]    = (int) index.getLong();
+            chunkFirst[c]   = fileEntries;
+            fileEntries    += chunkRows[c];
+        }
+        indexBuffer = index;
+    }
+    /**
+     * Closes the file, branches are kept.
+     */
+    public void close(){
+        if(textReader!=null){
+            try {
+                textReader.close();
+            } catch (IOException e){
+                System.out.println("[TreeFile] error : ---> failed to close file " + fileName);
+            }
+        }
+        if(fileChannel!=null&&sharedChannel==false){
+            try {
+                fileChannel.close();
+            } catch (IOException e){
+                System.out.println("[TreeFile] error : ---> failed to close file " + fileName);
+            }
+        }
+        fileChannel  = null;
+        sharedChannel = false;
+        chunkBuffer  = null;
+        chunkOffsets = new long[0];
+        chunkRows    = new int[0];
+        chunkFirst   = new long[0];
+        chunkMin     = new double[0][];
+        chunkMax     = new double[0][];
+        fileEntries  = 0L;
+        for(int b = 0; b < chunkColumns.length; b++) chunkColumns[b] = null;
+        currentChunk = -1;
+        currentRows  = 0;
+        currentRow   = 0;
+    }
+    /**
+     * Returns number of rows in the file, -1 for text files 
+     * (not known before reading the whole file).
+     * @return number of rows
+     */
+    public long getEntries(){
+        return this.fileEntries;
+    }
+
+    public int getNChunks(){
+        return this.chunkOffsets.length;
+    }
+
+    public int getChunkEntries(int chunk){
+        return this.chunkRows[chunk];
+    }
+    /**
+     * Returns first rows of chunks (except the first chunk).
+     * @return row indices
+     */
+    @Override
+    public long[] getSplitPoints(){
+        long[] points = new long[Math.max(0, chunkFirst.length - 1)];
+        for(int c = 0; c < points.length; c++) points[c] = chunkFirst[c+1];
+        return points;
+    }
+    /**
+     * Creates a new tree that reads only the given rows of the same binary
+     * file, the active branches are the same as in this tree. The range 
+     * has its own branches and shares the file channel and the index of 
+     * this tree (the file is not opened again), closing the range does not 
+     * close the file. The range can be read while this tree is open.
+     * @param first first row
+     * @param last row after the last row
+     * @return tree reading the range of rows
+     */
+    @Override
+    public ITree getRange(long first, long last){
+        if(textReader!=null||fileName==null||fileChannel==null){
+            throw new IllegalStateException("TreeFile: only open binary files can be split");
+        }
+        TreeFile range = new TreeFile(this.getName());
+        range.fileName      = fileName;
+        range.fileChannel   = fileChannel;
+        range.sharedChannel = true;
+        range.rangeFirst    = Math.max(0L, first);
+        range.rangeLast     = last;
+        range.chunkOffsets  = chunkOffsets;
+        range.chunkRows     = chunkRows;
+        range.chunkFirst    = chunkFirst;
+        range.chunkMin      = chunkMin;
+        range.chunkMax      = chunkMax;
+        range.indexPosition = indexPosition;
+        range.fileEntries   = fileEntries;
+        range.fileTypes     = fileTypes;
+        range.branchNames   = branchNames;
+        range.fileBranches  = new Branch[fileBranches.length];
+        range.branchActive  = new boolean[fileBranches.length];
+        range.chunkColumns  = new ByteBuffer[fileBranches.length];
+        range.columnOffsets = new long[fileBranches.length];
+        for(int b = 0; b < fileBranches.length; b++){
+            Branch branch = fileBranches[b];
+            range.fileBranches[b] = new Branch(branch.getName(), branch.getDescription(),
+                    branch.getUnit(), branch.getType());
+            range.addBranch(range.fileBranches[b]);
+        }
+        range.reset();
+        range.setActiveBranches(this.getActiveBranches());
+        range.setRowGroupFilter(rowGroupFilter);
+        return range;
+    }
+    /**
+     * Returns minimum value of the branch in the chunk.
+     * @param chunk chunk index
+     * @param branch branch name
+     * @return minimum value, NaN if not known
+     */
+    public double getChunkMinimum(int chunk, String branch){
+        int b = Arrays.asList(branchNames).indexOf(branch);
+        return (b<0) ? Double.NaN : chunkMin[chunk][b];
+    }
+    /**
+     * Returns maximum value of the branch in the chunk.
+     * @param chunk chunk index
+     * @param branch branch name
+     * @return maximum value, NaN if not known
+     */
+    public double getChunkMaximum(int chunk, String branch){
+        int b = Arrays.asList(branchNames).indexOf(branch);
+        return (b<0) ? Double.NaN : chunkMax[chunk][b];
+    }
+    /**
+     * Sets filter used to skip chunks where no row can pass, null 
+     * reads all chunks.
+     * @param filter filter (for example TreeSelector or TreeCut)
+     */
+    public void setRowGroupFilter(IRowGroupFilter filter){
+        this.rowGroupFilter = filter;
+    }
+
+    public IRowGroupFilter getRowGroupFilter(){
+        return this.rowGroupFilter;
+    }
+    /**
+     * Returns number of chunks skipped by the row group filter since
+     * the last reset().
+     * @return number of chunks
+     */
+    public int getNSkippedChunks(){
+        return this.skippedChunks;
+    }
+
+    private boolean isChunkSkipped(int chunk){
+        if(chunkRows[chunk]==0) return true;
+        if(rowGroupFilter==null||this.getCache()!=null) return false;
+        if(rowGroupFilter.mayPass(branchNames, chunkMin[chunk], chunkMax[chunk])==true) return false;
+        skippedChunks++;
+        return true;
+    }
+    /**
+     * Sets branches that are read with each row, values of other branches
+     * are not updated. By default all branches are active.
+     * @param names names of branches to read
+     */
+    public void setActiveBranches(Collection<String> names){
+        for(int b = 0; b < fileBranches.length; b++){
+            branchActive[b] = names.contains(fileBranches[b].getName());
+        }
+        this.updateColumns();
+    }
+
+    public void setBranchActive(String name, boolean flag){
+        for(int b = 0; b < fileBranches.length; b++){
+            if(fileBranches[b].getName().equals(name)) branchActive[b] = flag;
+        }
+        this.updateColumns();
+    }
+
+    public void setAllBranchesActive(){
+        for(int b = 0; b < branchActive.length; b++) branchActive[b] = true;
+        this.updateColumns();
+    }
+    /**
+     * Returns names of the branches that are read.
+     * @return set of names
+     */
+    public Set<String> getActiveBranches(){
+        Set<String> names = new HashSet<String>();
+        for(int b = 0; b < fileBranches.length; b++){
+            if(branchActive[b]==true) names.add(fileBranches[b].getName());
+        }
+        return names;
+    }
+
+    private void loadChunk(int chunk) throws IOException {
+        long position = chunkOffsets[chunk];
+        long end      = (chunk+1<chunkOffsets.length) ? chunkOffsets[chunk+1] : indexPosition;
+        chunkBuffer = fileChannel.map(FileChannel.MapMode.READ_ONLY, position, end - position);
+        chunkBuffer.order(ByteOrder.LITTLE_ENDIAN);
+        if(chunkBuffer.getInt(0)!=CHUNK_MAGIC) throw new IOException("corrupted chunk " + chunk);
+        currentRows = chunkBuffer.getInt(4);
+        for(int b = 0; b < fileBranches.length; b++){
+            columnOffsets[b] = chunkBuffer.getLong(16 + 8*b);
+        }
+        this.updateColumns();
+    }
+    /**
+     * Creates views of the columns of active branches in the current chunk.
+     */
+    private void updateColumns(){
+        for(int b = 0; b < chunkColumns.length; b++){
+            if(chunkBuffer==null||branchActive[b]==false){
+                chunkColumns[b] = null;
+            } else {
+                ByteBuffer column = chunkBuffer.duplicate();
+                column.position((int) columnOffsets[b]);
+                column.limit((int) columnOffsets[b] + currentRows*fileTypes[b].getSize());
+                chunkColumns[b] = column.slice().order(ByteOrder.LITTLE_ENDIAN);
+            }
+        }
+    }
+
+    @Override
+    public void reset() {
+        if(textReader!=null){
+            try {
+                textReader.reset();
+            } catch (IOException e){
+                System.out.println("[TreeFile] error : ---> failed to rewind file " + fileName);
+            }
+        }
+        currentChunk = -1;
+        currentRow   = 0;
+        currentRows  = 0;
+        currentEntry = 0L;
+        skipRows     = 0;
+        startChunk   = 0;
+        skippedChunks = 0;
+        chunkBuffer  = null;
+        if(rangeFirst>0&&chunkFirst.length>0){
+            int chunk = Arrays.binarySearch(chunkFirst, rangeFirst);
+            if(chunk<0) chunk = -chunk - 2;
+            while(chunk+1<chunkFirst.length&&chunkFirst[chunk+1]==chunkFirst[chunk]) chunk++;
+            currentChunk = chunk - 1;
+            startChunk   = chunk;
+            skipRows     = (int) (rangeFirst - chunkFirst[chunk]);
+            currentEntry = rangeFirst;
+        }
+        this.updateColumns();
+    }
+
+    @Override
+    public boolean readNext() {
+        if(textReader!=null) return this.readNextText();
+        if(currentEntry>=rangeLast) return false;
+        if(currentRow>=currentRows){
+            if(fileChannel==null) return false;
+            do {
+                currentChunk++;
+                if(currentChunk>=chunkOffsets.length) return false;
+                if(chunkFirst[currentChunk]>=rangeLast) return false;
+            } while(this.isChunkSkipped(currentChunk)==true);
+            try {
+                this.loadChunk(currentChunk);
+            } catch (IOException e){
+                System.out.println("[TreeFile] error : ---> failed to read chunk "
+                        + currentChunk + " from file " + fileName + " : " + e.getMessage());
+                currentChunk = chunkOffsets.length;
+                return false;
+            }
+            currentRow   = (currentChunk==startChunk) ? skipRows : 0;
+            currentEntry = chunkFirst[currentChunk] + currentRow;
+            if(currentRow>=currentRows) return false;
+        }
+        int row = currentRow;
+        for(int b = 0; b < chunkColumns.length; b++){
+            ByteBuffer column = chunkColumns[b];
+            if(column==null) continue;
+            switch(fileTypes[b]){
+                case FLOAT : fileBranches[b].setDouble(column.getFloat(row<<2)); break;
+                case LONG  : fileBranches[b].setLong(column.getLong(row<<3)); break;
+                case INT   : fileBranches[b].setLong(column.getInt(row<<2)); break;
+                default    : fileBranches[b].setDouble(column.getDouble(row<<3)); break;
+            }
+        }
+        currentRow++;
+        currentEntry++;
+        return true;
+    }
+
+    private boolean readNextText(){
+        try {
+            if(textReader.readRow(textValues, branchActive)==false) return false;
+        } catch (IOException e){
+            System.out.println("[TreeFile] error : ---> failed to read file "
+                    + fileName + " : " + e.getMessage());
+            return false;
+        }
+        for(int b = 0; b < textValues.length; b++){
+            if(branchActive[b]==true) fileBranches[b].setDouble(textValues[b]);
+        }
+        return true;
+    }
+    
+    @Override
+    public void configure() {
+
+    }
+    /**
+     * Activates the branch and branches used in the selector cuts, 
+     * returns the set of previously active branches.
+     */
+    private Set<String> activateUsedBranches(String branch, TreeSelector selector){
+        Set<String> active = this.getActiveBranches();
+        Set<String> used   = new HashSet<String>(selector.getReferencedBranches());
+        used.add(branch);
+        this.setActiveBranches(used);
+        return active;
+    }
+    /**
+     * Only the branch and branches used in the selector cuts are read
+     * from the file, chunks where no row passes the cuts are skipped.
+     * @param branch
+     * @param selector
+     * @return
+     */
+    @Override
+    public List<Double>  getVector(String branch, TreeSelector selector){
+        Set<String> active = this.activateUsedBranches(branch, selector);
+        IRowGroupFilter filter = this.rowGroupFilter;
+        this.rowGroupFilter = selector;
+        try {
+            return super.getVector(branch, selector);
+        } finally {
+            this.setActiveBranches(active);
+            this.rowGroupFilter = filter;
+        }
+    }
+    /**
+     * Only the branch and branches used in the selector cuts are read
+     * from the file, chunks where no row passes the cuts are skipped.
+     * @param branch
+     * @param selector
+     * @return
+     */
+    @Override
+    public DataVector  getDataVector(String branch, TreeSelector selector){
+        Set<String> active = this.activateUsedBranches(branch, selector);
+        IRowGroupFilter filter = this.rowGroupFilter;
+        this.rowGroupFilter = selector;
+        try {
+            return super.getDataVector(branch, selector);
+        } finally {
+            this.setActiveBranches(active);
+            this.rowGroupFilter = filter;
+        }
     }
 }
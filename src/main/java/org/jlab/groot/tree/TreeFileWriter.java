@@ -0,0 +1,310 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.tree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Writes trees into binary columnar files read by TreeFile. Rows are
+ * collected into chunks, each chunk is written as one column of primitive
+ * values per branch (see TreeFile for the layout).
+ *
+ * <pre>
+ * TreeFileWriter writer = new TreeFileWriter("ntuple.gtree");
+ * writer.addBranch("q2", "Virtual Photon", "GeV^2", BranchType.DOUBLE);
+ * writer.addBranch("w2", "Missing Mass",   "GeV^2", BranchType.FLOAT);
+ * writer.fill(1.2, 3.4);
+ * writer.close();
+ * </pre>
+ *
+ * @author gavalian
+ */
+public class TreeFileWriter {
+
+    public static final int DEFAULT_CHUNK_ROWS = 65536;
+
+    private final String            fileName;
+    private final List<Branch>      branches    = new ArrayList<Branch>();
+    private final List<BranchType>  branchTypes = new ArrayList<BranchType>();
+    private final List<Long>        chunkOffsets = new ArrayList<Long>();
+    private final List<Integer>     chunkRows    = new ArrayList<Integer>();
+    private final List<double[]>    chunkStats   = new ArrayList<double[]>();
+
+    private FileChannel   channel     = null;
+    private ByteBuffer[]  columns     = null;
+    private double[]      columnMin   = null;
+    private double[]      columnMax   = null;
+    private int           chunkSize   = DEFAULT_CHUNK_ROWS;
+    private int           rowsInChunk = 0;
+    private long          filePosition = 0L;
+    private boolean       isClosed    = false;
+
+    public TreeFileWriter(String filename){
+        this.fileName = filename;
+    }
+    /**
+     * Sets number of rows in each chunk, has to be called before the first fill.
+     * @param rows number of rows per chunk
+     */
+    public void setChunkSize(int rows){
+        if(channel!=null){
+            System.out.println("[TreeFileWriter] warning : ---> chunk size can not be changed after the file was opened.");
+            return;
+        }
+        this.chunkSize = Math.max(1, rows);
+    }
+
+    public int getChunkSize(){ return this.chunkSize;}
+
+    public void addBranch(String name, String desc, String unit, BranchType type){
+        if(channel!=null){
+            System.out.println("[TreeFileWriter] warning : ---> branch " + name
+                    + " can not be added after the file was opened.");
+            return;
+        }
+        this.branches.add(new Branch(name,desc,unit));
+        this.branchTypes.add(type);
+    }
+
+    public void addBranch(Branch branch, BranchType type){
+        this.addBranch(branch.getName(), branch.getDescription(), branch.getUnit(), type);
+    }
+
+    public void addBranch(Branch branch){
+        this.addBranch(branch, branch.getType());
+    }
+
+    public int getNBranches(){ return this.branches.size();}
+    /**
+     * Creates the file and writes the header, done with the first fill.
+     * @throws IOException
+     */
+    public void open() throws IOException {
+        if(channel!=null) return;
+        if(isClosed==true) throw new IOException("writer for file " + fileName + " is closed");
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE);
+
+        List<byte[]> strings = new ArrayList<byte[]>();
+        int size = 12;
+        for(Branch branch : branches){
+            byte[][] items = new byte[][]{
+                branch.getName().getBytes(StandardCharsets.UTF_8),
+                branch.getDescription().getBytes(StandardCharsets.UTF_8),
+                branch.getUnit().getBytes(StandardCharsets.UTF_8)};
+            size += 4;
+            for(byte[] item : items){
+                strings.add(item);
+                size += 4 + item.length;
+            }
+        }
+        ByteBuffer header = ByteBuffer.allocate(TreeFile.align(size)).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(TreeFile.FILE_MAGIC);
+        header.putInt(TreeFile.FILE_VERSION);
+        header.putInt(branches.size());
+        for(int b = 0; b < branches.size(); b++){
+            header.putInt(branchTypes.get(b).getCode());
+            for(int s = 0; s < 3; s++){
+                byte[] item = strings.get(b*3+s);
+                header.putInt(item.length);
+                header.put(item);
+            }
+        }
+        header.position(0);
+        this.write(header);
+
+        columns = new ByteBuffer[branches.size()];
+        for(int b = 0; b < columns.length; b++){
+            columns[b] = ByteBuffer.allocate(TreeFile.align(chunkSize*branchTypes.get(b).getSize()))
+                    .order(ByteOrder.LITTLE_ENDIAN);
+        }
+        columnMin = new double[branches.size()];
+        columnMax = new double[branches.size()];
+        this.clearStatistics();
+        rowsInChunk = 0;
+    }
+
+    private void clearStatistics(){
+        for(int b = 0; b < columnMin.length; b++){
+            columnMin[b] = Double.POSITIVE_INFINITY;
+            columnMax[b] = Double.NEGATIVE_INFINITY;
+        }
+    }
+    /**
+     * Updates minimum and maximum of the column in the current chunk with
+     * the value as it is stored, NaN makes the range unknown (NaN).
+     */
+    private void updateStatistics(int column, double value){
+        if(value<columnMin[column]) columnMin[column] = value;
+        if(value>columnMax[column]) columnMax[column] = value;
+        if(Double.isNaN(value)){
+            columnMin[column] = Double.NaN;
+            columnMax[column] = Double.NaN;
+        }
+    }
+
+    private void write(ByteBuffer buffer) throws IOException {
+        while(buffer.hasRemaining()){
+            filePosition += channel.write(buffer);
+        }
+    }
+
+    private void put(int column, int row, double value){
+        ByteBuffer buffer = columns[column];
+        switch(branchTypes.get(column)){
+            case FLOAT : buffer.putFloat(row<<2, (float) value); 
+                         this.updateStatistics(column, (float) value); break;
+            case LONG  : buffer.putLong(row<<3, (long) value); 
+                         this.updateStatistics(column, (long) value); break;
+            case INT   : buffer.putInt(row<<2, (int) value); 
+                         this.updateStatistics(column, (int) value); break;
+            default    : buffer.putDouble(row<<3, value); 
+                         this.updateStatistics(column, value); break;
+        }
+    }
+    /**
+     * Adds a row to the file, values are given in the order the branches
+     * were added.
+     * @param values values of all branches
+     * @throws IOException
+     */
+    public void fill(double... values) throws IOException {
+        if(values.length!=branches.size()){
+            throw new IllegalArgumentException("TreeFileWriter: number of values (" + values.length
+                    + ") does not match number of branches (" + branches.size() + ")");
+        }
+        this.open();
+        for(int b = 0; b < values.length; b++){
+            this.put(b, rowsInChunk, values[b]);
+        }
+        this.endRow();
+    }
+    /**
+     * Adds a row to the file with values of the current row of the tree,
+     * branches are looked up by name.
+     * @param tree tree positioned on a row
+     * @throws IOException
+     */
+    public void fill(ITree tree) throws IOException {
+        this.open();
+        for(int b = 0; b < branches.size(); b++){
+            Branch branch = tree.getBranch(branches.get(b).getName());
+            switch(branchTypes.get(b)){
+                case LONG : columns[b].putLong(rowsInChunk<<3, branch.getLong()); 
+                            this.updateStatistics(b, branch.getLong()); break;
+                case INT  : columns[b].putInt(rowsInChunk<<2, branch.getInt()); 
+                            this.updateStatistics(b, branch.getInt()); break;
+                default   : this.put(b, rowsInChunk, branch.getDouble()); break;
+            }
+        }
+        this.endRow();
+    }
+
+    private void endRow() throws IOException {
+        rowsInChunk++;
+        if(rowsInChunk>=chunkSize) this.writeChunk();
+    }
+    /**
+     * Writes collected rows as a chunk: header with number of rows,
+     * chunk length and offset of each column, followed by the columns.
+     */
+    private void writeChunk() throws IOException {
+        if(rowsInChunk==0) return;
+        int nbranches = branches.size();
+        int headerSize = TreeFile.align(16 + 8*nbranches);
+        long offset = headerSize;
+        long[] columnOffsets = new long[nbranches];
+        for(int b = 0; b < nbranches; b++){
+            columnOffsets[b] = offset;
+            offset += TreeFile.align(rowsInChunk*branchTypes.get(b).getSize());
+        }
+        ByteBuffer header = ByteBuffer.allocate(headerSize).order(ByteOrder.LITTLE_ENDIAN);
+        header.putInt(TreeFile.CHUNK_MAGIC);
+        header.putInt(rowsInChunk);
+        header.putLong(offset);
+        for(int b = 0; b < nbranches; b++) header.putLong(columnOffsets[b]);
+        header.position(0);
+
+        chunkOffsets.add(filePosition);
+        chunkRows.add(rowsInChunk);
+        double[] stats = new double[2*nbranches];
+        for(int b = 0; b < nbranches; b++){
+            stats[2*b]   = columnMin[b];
+            stats[2*b+1] = columnMax[b];
+        }
+        chunkStats.add(stats);
+        this.clearStatistics();
+        this.write(header);
+        for(int b = 0; b < nbranches; b++){
+            ByteBuffer column = columns[b];
+            column.clear();
+            column.limit(TreeFile.align(rowsInChunk*branchTypes.get(b).getSize()));
+            this.write(column);
+            column.clear();
+        }
+        rowsInChunk = 0;
+    }
+    /**
+     * Writes remaining rows and the chunk index (offsets, number of rows
+     * and minimum/maximum of each branch for every chunk) and closes the file.
+     * @throws IOException
+     */
+    public void close() throws IOException {
+        if(isClosed==true) return;
+        this.open();
+        this.writeChunk();
+        int nchunks = chunkOffsets.size();
+        int nbranches = branches.size();
+        ByteBuffer index = ByteBuffer.allocate(16*nchunks + 16*nchunks*nbranches + 16)
+                .order(ByteOrder.LITTLE_ENDIAN);
+        long indexPosition = filePosition;
+        for(int c = 0; c < nchunks; c++){
+            index.putLong(chunkOffsets.get(c));
+            index.putLong(chunkRows.get(c));
+        }
+        for(int c = 0; c < nchunks; c++){
+            for(double value : chunkStats.get(c)) index.putDouble(value);
+        }
+        index.putLong(indexPosition);
+        index.putInt(nchunks);
+        index.putInt(TreeFile.END_MAGIC);
+        index.position(0);
+        this.write(index);
+        channel.close();
+        channel = null;
+        columns = null;
+        isClosed = true;
+    }
+    /**
+     * Writes all rows of the tree into a file, branches are stored
+     * with their types.
+     * @param tree tree to write
+     * @param filename output file name
+     * @throws IOException
+     */
+    public static void write(ITree tree, String filename) throws IOException {
+        TreeFileWriter writer = new TreeFileWriter(filename);
+        for(String name : tree.getListOfBranches()){
+            writer.addBranch(tree.getBranch(name));
+        }
+        tree.reset();
+        try {
+            while(tree.readNext()==true){
+                writer.fill(tree);
+            }
+        } finally {
+            writer.close();
+        }
+    }
+}
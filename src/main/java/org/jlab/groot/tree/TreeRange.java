@@ -0,0 +1,83 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.tree;
+
+import java.util.Arrays;
+
+/**
+ * Range of rows of a splittable tree, used to divide the tree into 
+ * parts processed in parallel. Similar to a Spliterator, trySplit()
+ * returns the first part of the range and this range continues with
+ * the second part. Ranges are split at the split points of the tree 
+ * closest to the middle, or at the middle if there are none. The result
+ * of splitting depends only on the tree and the minimum size, not on the
+ * number of threads.
+ *
+ * @author gavalian
+ */
+public class TreeRange {
+
+    public static final long DEFAULT_MIN_ENTRIES = 65536L;
+
+    private final ISplittableTree  tree;
+    private final long[]           splitPoints;
+    private long                   firstEntry;
+    private long                   lastEntry;
+
+    public TreeRange(ISplittableTree tree){
+        this(tree, 0L, Math.max(0L, tree.getEntries()), tree.getSplitPoints());
+    }
+
+    private TreeRange(ISplittableTree tree, long first, long last, long[] points){
+        this.tree        = tree;
+        this.firstEntry  = first;
+        this.lastEntry   = last;
+        this.splitPoints = points;
+    }
+
+    public long getFirst(){ return this.firstEntry;}
+
+    public long getLast(){ return this.lastEntry;}
+
+    public long getEntries(){ return this.lastEntry - this.firstEntry;}
+    /**
+     * Splits the range if both parts have at least minEntries rows.
+     * @param minEntries minimum number of rows in each part
+     * @return range with the first part of rows, null if the range 
+     * is too small to split
+     */
+    public TreeRange trySplit(long minEntries){
+        long min = Math.max(1L, minEntries);
+        if(this.getEntries()<2*min) return null;
+        long middle = firstEntry + this.getEntries()/2;
+        long split  = middle;
+        int  index  = Arrays.binarySearch(splitPoints, middle);
+        if(index<0) index = -index - 1;
+        long best = -1L;
+        for(int i = index - 1; i <= index; i++){
+            if(i<0||i>=splitPoints.length) continue;
+            long point = splitPoints[i];
+            if(point-firstEntry<min||lastEntry-point<min) continue;
+            if(best<0||Math.abs(point-middle)<Math.abs(best-middle)) best = point;
+        }
+        if(best>=0) split = best;
+        TreeRange prefix = new TreeRange(tree, firstEntry, split, splitPoints);
+        this.firstEntry  = split;
+        return prefix;
+    }
+    /**
+     * Creates a tree reading rows of this range.
+     * @return tree for the range
+     */
+    public ITree open(){
+        return tree.getRange(firstEntry, lastEntry);
+    }
+
+    @Override
+    public String toString(){
+        return "TreeRange [" + firstEntry + ", " + lastEntry + ")";
+    }
+}
@@ -6,17 +6,35 @@
 
 package org.jlab.groot.tree;
 
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
- *
+ * Set of cuts applied to a tree. Results of cuts can be indexed: on the
+ * first call of getSelection() or getCutFlow() the tree is read once and
+ * rows passing each cut (active or not) are stored in a RowBitmap. After
+ * that activating/deactivating cuts or combining them does not read the
+ * tree again, only cuts that were added or changed are evaluated.
+ * The index is rebuilt when branches of the tree change, and can be 
+ * cleared with clearIndex() when the data of the tree changes.
+ * 
  * @author gavalian
  */
-public class TreeSelector {
+public class TreeSelector implements IRowGroupFilter {
     
     Map<String,TreeCut>  treeCuts = new LinkedHashMap<String,TreeCut>();
+    private TreeCut[]    cutArray = null;
+    
+    private final Map<String,RowBitmap>  cutIndex         = new HashMap<String,RowBitmap>();
+    private final Map<String,String>     indexExpressions = new HashMap<String,String>();
+    private Tree                         indexTree        = null;
+    private int                          indexVersion     = -1;
+    private int                          indexEntries     = -1;
     
     public TreeSelector(){
         
@@ -24,10 +42,23 @@ public class TreeSelector {
     
     public void addCut(String name, String expression, List<String> branches){
         treeCuts.put(name, new TreeCut(name,expression,branches));
+        cutArray = null;
     }
     
     public void addCut(TreeCut cut){
         this.treeCuts.put(cut.getName(), cut);
+        cutArray = null;
+    }
+    /**
+     * Returns cuts as an array (kept until cuts are changed).
+     */
+    private TreeCut[] getCutArray(){
+        TreeCut[] cuts = this.cutArray;
+        if(cuts==null){
+            cuts = treeCuts.values().toArray(new TreeCut[treeCuts.size()]);
+            this.cutArray = cuts;
+        }
+        return cuts;
     }
     
     public TreeCut getCut(String cut){
@@ -35,35 +66,229 @@ public class TreeSelector {
     }
     
     public boolean isValid(Tree tree){
-        for(Map.Entry<String,TreeCut> entry : treeCuts.entrySet()){
-            if(entry.getValue().isActive()==true){
-                if(entry.getValue().isValid(tree)==false) return false;
+        TreeCut[] cuts = this.getCutArray();
+        for(int i = 0; i < cuts.length; i++){
+            if(cuts[i].isActive()==true){
+                if(cuts[i].isValid(tree)==false) return false;
             }
         }
         return true;
     }
     
+    /**
+     * Checks if any row with branch values within the ranges can pass
+     * all active cuts.
+     * @param branches names of branches
+     * @param min minimum values of the branches
+     * @param max maximum values of the branches
+     * @return false if no row can pass
+     */
+    @Override
+    public boolean mayPass(String[] branches, double[] min, double[] max){
+        TreeCut[] cuts = this.getCutArray();
+        for(int i = 0; i < cuts.length; i++){
+            if(cuts[i].isActive()==true&&cuts[i].mayPass(branches, min, max)==false) return false;
+        }
+        return true;
+    }
+    
+    /**
+     * Returns status of each cut (1 if it is active and the current row
+     * passes it) in a new map.
+     * @param tree tree
+     * @return map of status by cut name
+     * @deprecated creates a map for each row, use getCuts(tree, cuts) with 
+     * a reused map, or getCutIndex() and getCutFlow() for all rows
+     */
+    @Deprecated
     public Map<String,Integer>  getCuts(Tree tree){
-        Map<String,Integer>  cuts = new LinkedHashMap<String,Integer>();
+        Map<String,Integer>  cuts = new LinkedHashMap<String,Integer>(2*this.getCutArray().length);
+        this.getCuts(tree, cuts);
+        return cuts;
+    }
+    /**
+     * Puts status of each cut (1 if it is active and the current row 
+     * passes it) into the map, the map can be reused for all rows.
+     * @param tree tree
+     * @param cuts map of status by cut name to fill
+     */
+    public void getCuts(Tree tree, Map<String,Integer> cuts){
+        TreeCut[] array = this.getCutArray();
+        for(int i = 0; i < array.length; i++){
+            int status = (array[i].isActive()==true&&array[i].isValid(tree)==true) ? 1 : 0;
+            cuts.put(array[i].getName(), status);
+        }
+    }
+    
+    /**
+     * Returns names of the branches used by active cuts.
+     * @return set of branch names
+     */
+    public Set<String>  getReferencedBranches(){
+        Set<String> branches = new LinkedHashSet<String>();
         for(Map.Entry<String,TreeCut> entry : treeCuts.entrySet()){
             if(entry.getValue().isActive()==true){
-                if(entry.getValue().isValid(tree)==false){
-                    cuts.put(entry.getKey(), 0);
-                } else {
-                    cuts.put(entry.getKey(), 1);
-                }
-            } else {
-                cuts.put(entry.getKey(), 0);
+                branches.addAll(entry.getValue().getReferencedBranches());
             }
         }
-        return cuts;
+        return branches;
     }
     
+    /**
+     * Returns the map of cuts, it can be modified.
+     * @return map of cuts by name
+     */
     public Map<String,TreeCut>  getSelectorCuts(){
+        cutArray = null;
         return this.treeCuts;
     }
     
     public void reset(){
         treeCuts.clear();
+        cutArray = null;
+        this.clearIndex();
+    }
+    /**
+     * Removes bitmaps of all cuts.
+     */
+    public void clearIndex(){
+        cutIndex.clear();
+        indexExpressions.clear();
+        indexTree    = null;
+        indexVersion = -1;
+        indexEntries = -1;
+    }
+    /**
+     * Returns number of rows in the indexed tree, -1 if there is no index.
+     * @return number of rows
+     */
+    public int getIndexEntries(){
+        return this.indexEntries;
+    }
+    
+    private boolean isIndexed(TreeCut cut){
+        return cut.getExpression().equals(indexExpressions.get(cut.getName()));
+    }
+    /**
+     * Checks if all cuts are indexed for the tree.
+     * @param tree tree
+     * @return true if the index can be used
+     */
+    public boolean isIndexed(Tree tree){
+        if(tree!=indexTree||tree.getBranchVersion()!=indexVersion) return false;
+        for(TreeCut cut : this.getCutArray()){
+            if(this.isIndexed(cut)==false) return false;
+        }
+        return true;
+    }
+    /**
+     * Reads the tree once evaluating cuts that are not indexed yet,
+     * rows passing each cut are added to the bitmap of the cut.
+     * @param tree tree
+     */
+    public void buildIndex(Tree tree){
+        if(tree!=indexTree||tree.getBranchVersion()!=indexVersion){
+            this.clearIndex();
+        }
+        List<TreeCut> missing = new ArrayList<TreeCut>();
+        Set<String>   used    = new LinkedHashSet<String>();
+        for(TreeCut cut : this.getCutArray()){
+            if(this.isIndexed(cut)==false){
+                missing.add(cut);
+                used.addAll(cut.getReferencedBranches());
+            }
+        }
+        if(missing.isEmpty()&&indexEntries>=0) return;
+        
+        TreeCut[]   cuts    = missing.toArray(new TreeCut[missing.size()]);
+        RowBitmap[] bitmaps = new RowBitmap[cuts.length];
+        for(int c = 0; c < cuts.length; c++) bitmaps[c] = new RowBitmap();
+        /* all rows have to be read to keep row numbers */
+        Set<String> active = null;
+        IRowGroupFilter filter = null;
+        if(tree instanceof TreeFile){
+            active = ((TreeFile) tree).getActiveBranches();
+            filter = ((TreeFile) tree).getRowGroupFilter();
+            ((TreeFile) tree).setActiveBranches(used);
+            ((TreeFile) tree).setRowGroupFilter(null);
+        }
+        int row = 0;
+        try {
+            TreeCache.Reader reader = tree.openReader(used);
+            while(reader==null ? tree.readNext() : reader.next()){
+                for(int c = 0; c < cuts.length; c++){
+                    if(cuts[c].isValid(tree)==true) bitmaps[c].add(row);
+                }
+                row++;
+            }
+        } finally {
+            if(active!=null){
+                ((TreeFile) tree).setActiveBranches(active);
+                ((TreeFile) tree).setRowGroupFilter(filter);
+            }
+        }
+        if(indexEntries>=0&&indexEntries!=row){
+            /* number of rows changed, other cuts have to be evaluated again */
+            this.clearIndex();
+            this.buildIndex(tree);
+            return;
+        }
+        for(int c = 0; c < cuts.length; c++){
+            cutIndex.put(cuts[c].getName(), bitmaps[c]);
+            indexExpressions.put(cuts[c].getName(), cuts[c].getExpression());
+        }
+        indexTree    = tree;
+        indexVersion = tree.getBranchVersion();
+        indexEntries = row;
+    }
+    /**
+     * Returns rows passing the cut (whether it is active or not),
+     * builds the index if needed.
+     * @param tree tree
+     * @param cut name of the cut
+     * @return copy of the bitmap of rows, null if there is no such cut
+     */
+    public RowBitmap getCutIndex(Tree tree, String cut){
+        if(treeCuts.containsKey(cut)==false) return null;
+        this.buildIndex(tree);
+        return cutIndex.get(cut).copy();
+    }
+    /**
+     * Returns rows passing all active cuts, built from bitmaps of cuts.
+     * @param tree tree
+     * @return new bitmap of rows, not shared with the index
+     */
+    public RowBitmap getSelection(Tree tree){
+        this.buildIndex(tree);
+        RowBitmap selection = null;
+        int       active    = 0;
+        for(TreeCut cut : this.getCutArray()){
+            if(cut.isActive()==false) continue;
+            RowBitmap bitmap = cutIndex.get(cut.getName());
+            selection = (selection==null) ? bitmap : selection.and(bitmap);
+            active++;
+        }
+        if(selection==null) return RowBitmap.range(indexEntries);
+        /* with one active cut the selection is the bitmap of the index */
+        return (active==1) ? selection.copy() : selection;
+    }
+    /**
+     * Returns the cut flow: number of rows passing each active cut 
+     * together with all active cuts before it (in the order cuts were
+     * added). The total number of rows is given by getIndexEntries().
+     * @param tree tree
+     * @return map of number of rows by cut name
+     */
+    public Map<String,Integer> getCutFlow(Tree tree){
+        this.buildIndex(tree);
+        Map<String,Integer> flow = new LinkedHashMap<String,Integer>();
+        RowBitmap selection = null;
+        for(TreeCut cut : this.getCutArray()){
+            if(cut.isActive()==false) continue;
+            RowBitmap bitmap = cutIndex.get(cut.getName());
+            selection = (selection==null) ? bitmap : selection.and(bitmap);
+            flow.put(cut.getName(), selection.getCardinality());
+        }
+        return flow;
     }
 }
@@ -0,0 +1,311 @@
+/*
+ * To change this license header, choose License Headers in Project Properties.
+ * To change this template file, choose Tools | Templates
+ * and open the template in the editor.
+ */
+package org.jlab.groot.tree;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Streaming reader of text files with numbers in columns separated
+ * by spaces, tabs, commas or semicolons. Lines starting with # are
+ * comments. The file is read into a reusable buffer and numbers are
+ * parsed directly from bytes, no objects are created for each row.
+ * If the first line contains something that is not a number, it is
+ * used as a list of column names. If the number of columns is not given
+ * (0) it is taken from the first line.
+ *
+ * @author gavalian
+ */
+class TreeTextReader {
+
+    private static final int DEFAULT_BUFFER_SIZE = 1<<20;
+    private static final double[] POWERS_OF_TEN = new double[23];
+
+    static {
+        POWERS_OF_TEN[0] = 1.0;
+        for(int i = 1; i < POWERS_OF_TEN.length; i++) POWERS_OF_TEN[i] = POWERS_OF_TEN[i-1]*10.0;
+    }
+
+    private final String      fileName;
+    private int               nColumns;
+    private FileChannel       channel   = null;
+    private ByteBuffer        buffer    = ByteBuffer.allocate(DEFAULT_BUFFER_SIZE);
+    private byte[]            bytes     = buffer.array();
+    private int               position  = 0;
+    private int               limit     = 0;
+    private long              filePosition = 0L;
+    private boolean           endOfFile = false;
+    private long              dataStart = 0L;
+    private long              lineNumber = 0L;
+    private List<String>      columnNames = null;
+    /* end position of the token parsed by parseNumber() */
+    private int               tokenEnd  = 0;
+    private boolean           tokenValid = true;
+
+    TreeTextReader(String filename, int columns){
+        this.fileName = filename;
+        this.nColumns = columns;
+    }
+
+    int getNColumns(){ return nColumns;}
+    /**
+     * Returns column names from the header line or null if there was none.
+     */
+    List<String> getColumnNames(){ return columnNames;}
+
+    void open() throws IOException {
+        this.close();
+        channel = FileChannel.open(Paths.get(fileName), StandardOpenOption.READ);
+        this.rewind(0L);
+        this.readHeader();
+    }
+
+    void close() throws IOException {
+        if(channel!=null) channel.close();
+        channel = null;
+    }
+    /**
+     * Moves to the first data row.
+     */
+    void reset() throws IOException {
+        this.rewind(dataStart);
+    }
+
+    private void rewind(long start) throws IOException {
+        filePosition = start;
+        position  = 0;
+        limit     = 0;
+        endOfFile = false;
+        lineNumber = 0L;
+    }
+    /**
+     * Moves remaining bytes to the beginning of the buffer and reads more
+     * data from the file, the buffer is enlarged if it is full.
+     * @return false if nothing was read (end of file)
+     */
+    private boolean fill() throws IOException {
+        if(endOfFile==true||channel==null) return false;
+        int remaining = limit - position;
+        if(position==0&&limit==bytes.length){
+            ByteBuffer larger = ByteBuffer.allocate(bytes.length*2);
+            larger.put(bytes, 0, limit);
+            buffer = larger;
+            bytes  = buffer.array();
+        } else if(remaining>0){
+            System.arraycopy(bytes, position, bytes, 0, remaining);
+        }
+        buffer.clear();
+        buffer.position(remaining);
+        int nread = channel.read(buffer, filePosition);
+        position = 0;
+        if(nread<=0){
+            limit = remaining;
+            endOfFile = true;
+            return false;
+        }
+        filePosition += nread;
+        limit = remaining + nread;
+        return true;
+    }
+    /**
+     * Finds the end of the current line, reading more data if needed.
+     * @return index of the end of line (or end of data), -1 if there is no data left
+     */
+    private int findLineEnd() throws IOException {
+        int scan = position;
+        while(true){
+            for(int i = scan; i < limit; i++){
+                if(bytes[i]=='\n') return i;
+            }
+            int consumed = position;
+            scan = limit - consumed;
+            if(this.fill()==false){
+                return (limit>position) ? limit : -1;
+            }
+        }
+    }
+
+    private static boolean isSeparator(byte b){
+        return b==' '||b=='\t'||b==','||b==';'||b=='\r';
+    }
+
+    private void readHeader() throws IOException {
+        columnNames = null;
+        while(true){
+            long lineStart = filePosition - (limit - position);
+            int end = this.findLineEnd();
+            if(end<0){
+                dataStart = lineStart;
+                return;
+            }
+            int start = this.skipSeparators(position, end);
+            if(start==end||bytes[start]=='#'){
+                position = Math.min(end + 1, limit);
+                continue;
+            }
+            List<String> tokens = new ArrayList<String>();
+            boolean numeric = true;
+            int p = start;
+            while(p<end){
+                int tokenStart = p;
+                this.parseNumber(p, end);
+                numeric = numeric&&tokenValid;
+                p = tokenEnd;
+                tokens.add(new String(bytes, tokenStart, p - tokenStart, StandardCharsets.UTF_8));
+                p = this.skipSeparators(p, end);
+            }
+            if(nColumns<=0) nColumns = tokens.size();
+            if(numeric==true){
+                dataStart = lineStart;
+            } else {
+                columnNames = tokens;
+                position = Math.min(end + 1, limit);
+                dataStart = filePosition - (limit - position);
+            }
+            this.rewind(dataStart);
+            return;
+        }
+    }
+
+    private int skipSeparators(int p, int end){
+        while(p<end&&isSeparator(bytes[p])) p++;
+        return p;
+    }
+    /**
+     * Reads the next row. Values of columns with active flag set to false
+     * are not parsed, missing values are set to NaN.
+     * @param values array for column values
+     * @param active flags of columns to parse (null to parse all)
+     * @return false at the end of file
+     */
+    boolean readRow(double[] values, boolean[] active) throws IOException {
+        while(true){
+            int end = this.findLineEnd();
+            if(end<0) return false;
+            lineNumber++;
+            int p = this.skipSeparators(position, end);
+            if(p==end||bytes[p]=='#'){
+                position = Math.min(end + 1, limit);
+                continue;
+            }
+            int column = 0;
+            while(p<end&&column<nColumns){
+                if(active==null||active[column]==true){
+                    values[column] = this.parseNumber(p, end);
+                    if(tokenValid==false){
+                        System.out.println("[TreeTextReader] warning : ---> can not parse column "
+                                + column + " in line " + lineNumber + " of file " + fileName);
+                    }
+                } else {
+                    this.skipToken(p, end);
+                }
+                p = this.skipSeparators(tokenEnd, end);
+                column++;
+            }
+            for(int c = column; c < nColumns; c++) values[c] = Double.NaN;
+            position = Math.min(end + 1, limit);
+            return true;
+        }
+    }
+
+    private void skipToken(int p, int end){
+        while(p<end&&isSeparator(bytes[p])==false) p++;
+        tokenEnd = p;
+    }
+    /**
+     * Parses the number starting at position p, sets tokenEnd to the end
+     * of the token and tokenValid to false if the token is not a number.
+     * Numbers with up to 18 significant digits and exponents within the
+     * range of exactly representable powers of ten are converted directly,
+     * other numbers use Double.parseDouble().
+     */
+    private double parseNumber(int p, int end){
+        int start = p;
+        boolean negative = false;
+        if(p<end&&(bytes[p]=='-'||bytes[p]=='+')){
+            negative = (bytes[p]=='-');
+            p++;
+        }
+        long mantissa = 0L;
+        int  digits   = 0;
+        int  exponent = 0;
+        boolean anyDigit = false;
+        while(p<end&&bytes[p]>='0'&&bytes[p]<='9'){
+            if(digits<18){
+                mantissa = mantissa*10 + (bytes[p]-'0');
+                if(mantissa!=0) digits++;
+            } else {
+                exponent++;
+            }
+            anyDigit = true;
+            p++;
+        }
+        if(p<end&&bytes[p]=='.'){
+            p++;
+            while(p<end&&bytes[p]>='0'&&bytes[p]<='9'){
+                if(digits<18){
+                    mantissa = mantissa*10 + (bytes[p]-'0');
+                    if(mantissa!=0) digits++;
+                    exponent--;
+                }
+                anyDigit = true;
+                p++;
+            }
+        }
+        if(anyDigit==true&&p<end&&(bytes[p]=='e'||bytes[p]=='E')){
+            int q = p + 1;
+            boolean expNegative = false;
+            if(q<end&&(bytes[q]=='-'||bytes[q]=='+')){
+                expNegative = (bytes[q]=='-');
+                q++;
+            }
+            if(q<end&&bytes[q]>='0'&&bytes[q]<='9'){
+                int exp = 0;
+                while(q<end&&bytes[q]>='0'&&bytes[q]<='9'){
+                    if(exp<100000) exp = exp*10 + (bytes[q]-'0');
+                    q++;
+                }
+                exponent += expNegative ? -exp : exp;
+                p = q;
+            }
+        }
+        if(anyDigit==true&&(p==end||isSeparator(bytes[p]))){
+            tokenEnd   = p;
+            tokenValid = true;
+            double value;
+            if(mantissa==0L){
+                value = 0.0;
+            } else if(mantissa<(1L<<53)&&exponent>=-22&&exponent<=22){
+                value = (exponent<0) ? mantissa/POWERS_OF_TEN[-exponent]
+                        : mantissa*POWERS_OF_TEN[exponent];
+            } else {
+                value = Double.parseDouble(new String(bytes, start, p - start, StandardCharsets.US_ASCII));
+                return value;
+            }
+            return negative ? -value : value;
+        }
+        /* not a plain number: nan, inf, hexadecimal or text */
+        this.skipToken(start, end);
+        String token = new String(bytes, start, tokenEnd - start, StandardCharsets.US_ASCII);
+        try {
+            tokenValid = true;
+            return Double.parseDouble(token);
+        } catch (NumberFormatException e){
+            String lower = token.toLowerCase();
+            if(lower.equals("nan")) return Double.NaN;
+            if(lower.equals("inf")||lower.equals("+inf")) return Double.POSITIVE_INFINITY;
+            if(lower.equals("-inf")) return Double.NEGATIVE_INFINITY;
+            tokenValid = false;
+            return Double.NaN;
+        }
+    }
+}
@@ -90,7 +90,14 @@ public class DescriptorPanel extends JPanel {
 			@Override
 			public void actionPerformed(ActionEvent e) {
 				if(descriptor==null){
-					descriptor =  new DatasetDescriptor(name.getText(),Integer.parseInt(binTextFieldX.getText()), Double.parseDouble(minTextFieldX.getText()),Double.parseDouble(maxTextFieldX.getText()));
+					String variableX = (String) branchVariableSelectorX.getSelectedItem();
+					if(nDim>1){
+						descriptor =  new DatasetDescriptor(name.getText(),
+								variableX,Integer.parseInt(binTextFieldX.getText()), Double.parseDouble(minTextFieldX.getText()),Double.parseDouble(maxTextFieldX.getText()),
+								(String) branchVariableSelectorY.getSelectedItem(),Integer.parseInt(binTextFieldY.getText()), Double.parseDouble(minTextFieldY.getText()),Double.parseDouble(maxTextFieldY.getText()));
+					}else{
+						descriptor =  new DatasetDescriptor(name.getText(),variableX,Integer.parseInt(binTextFieldX.getText()), Double.parseDouble(minTextFieldX.getText()),Double.parseDouble(maxTextFieldX.getText()));
+					}
 					for(int i=0; i<cutBoxes.size(); i++){
 						if(cutBoxes.get(i).isSelected()){
 							descriptor.addCut(cutMap.get(cutStrings.get(i)).getExpression());